@@ -0,0 +1,72 @@
+package org.copypaste.benchmarks;
+
+import org.copypaste.util.ChecksumAlgorithm;
+import org.copypaste.util.Hasher;
+import org.copypaste.util.PureJavaCrc32C;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the checksum algorithms on a chunk. CRC32C is the JDK intrinsic on Java 9+ and {@link PureJavaCrc32C}
+ * on Java 8, the pure Java one is measured separately as well. Run on both JVMs to compare.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChecksumAlgorithmBenchmark {
+
+    @Param({"MD5", "SHA_256", "CRC32", "CRC32C"})
+    private ChecksumAlgorithm algorithm;
+
+    @Param({"65536", "1048576"})
+    private int chunkSize;
+
+    private byte[] chunk;
+
+    private byte[] checksum;
+
+    private Hasher hasher;
+
+    private PureJavaCrc32C pureJavaCrc32C;
+
+    @Setup
+    public void setUp() {
+        chunk = new byte[chunkSize];
+        new Random(42).nextBytes(chunk);
+        hasher = algorithm.newHasher();
+        checksum = new byte[hasher.length()];
+        pureJavaCrc32C = new PureJavaCrc32C();
+    }
+
+    @Benchmark
+    public byte[] hash() {
+        hasher.update(chunk);
+        hasher.digest(checksum);
+        return checksum;
+    }
+
+    /**
+     * Does not depend on the algorithm parameter
+     */
+    @Benchmark
+    public long pureJavaCrc32C() {
+        pureJavaCrc32C.reset();
+        pureJavaCrc32C.update(chunk, 0, chunk.length);
+        return pureJavaCrc32C.getValue();
+    }
+}
@@ -0,0 +1,117 @@
+package org.copypaste.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.twmacinta.util.MD5;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.message.BasicHttpResponse;
+import org.copypaste.consts.Global;
+import org.copypaste.data.ChunkResponse;
+import org.copypaste.interthread_data.FileChunkImmutable;
+import org.copypaste.util.BinaryChunkResponseDecoder;
+import org.copypaste.util.JsonResponseDecoder;
+import org.copypaste.util.ResponseDecoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of the chunk response as {@link org.copypaste.util.HttpConnector} does it, up to the
+ * {@link FileChunkImmutable} put to the save pipeline:
+ * <ul>
+ * <li>JSON parsed by {@link JsonResponseDecoder}, the Base64 chunk data decoded while parsing</li>
+ * <li>JSON parsed to the tree, the chunk data decoded from the Base64 string, as the client did before</li>
+ * <li>Binary chunk of {@link BinaryChunkResponseDecoder}, no decoding at all</li>
+ * </ul>
+ * Chunk sizes are the small, the usual and the max chunk of the server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChunkDecodeBenchmark {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    @Param({"65536", "1048576", "5242880"})
+    private int chunkSize;
+
+    private final ResponseDecoder<ChunkResponse> jsonDecoder = new JsonResponseDecoder<>(ChunkResponse.class);
+
+    private final ResponseDecoder<ChunkResponse> binaryDecoder = new BinaryChunkResponseDecoder();
+
+    private byte[] jsonBody;
+
+    private byte[] binaryBody;
+
+    private String chunkHexMD5;
+
+    @Setup
+    public void setUp() throws IOException, NoSuchAlgorithmException {
+        binaryBody = new byte[chunkSize];
+        new Random(42).nextBytes(binaryBody);
+        chunkHexMD5 = MD5.asHex(MessageDigest.getInstance("MD5").digest(binaryBody));
+        ObjectNode payload = OBJECT_MAPPER.createObjectNode()
+                .put("hasNextChunk", true)
+                .put("chunkData", Base64.getEncoder().encodeToString(binaryBody))
+                .put("chunkHexMD5", chunkHexMD5);
+        ObjectNode response = OBJECT_MAPPER.createObjectNode().put("success", true);
+        response.set("payload", payload);
+        jsonBody = OBJECT_MAPPER.writeValueAsBytes(response);
+    }
+
+    @Benchmark
+    public FileChunkImmutable jsonStreamingBase64() throws IOException {
+        return decode(jsonDecoder, jsonBody, ContentType.APPLICATION_JSON);
+    }
+
+    @Benchmark
+    public FileChunkImmutable jsonTreeBase64String() throws IOException {
+        JsonNode payload = OBJECT_MAPPER.readTree(new ByteArrayInputStream(jsonBody)).get("payload");
+        String chunkData = payload.get("chunkData").asText();
+        byte[] content = Base64.getDecoder().decode(chunkData.getBytes(StandardCharsets.ISO_8859_1));
+        return new FileChunkImmutable(content, payload.get("chunkHexMD5").asText(),
+                payload.get("hasNextChunk").asBoolean(), 1, chunkSize);
+    }
+
+    @Benchmark
+    public FileChunkImmutable binary() throws IOException {
+        return decode(binaryDecoder, binaryBody, ContentType.APPLICATION_OCTET_STREAM);
+    }
+
+    private FileChunkImmutable decode(ResponseDecoder<ChunkResponse> decoder, byte[] body, ContentType contentType)
+            throws IOException {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        response.setEntity(new ByteArrayEntity(body, contentType));
+        response.setHeader(Global.HAS_NEXT_CHUNK_HEADER, "true");
+        response.setHeader(Global.CHUNK_CHECKSUM_HEADER, chunkHexMD5);
+        try (InputStream content = response.getEntity().getContent()) {
+            ChunkResponse chunkResponse = decoder.decode(response, content, body.length);
+            return new FileChunkImmutable(chunkResponse.getPayload(), 1, chunkSize);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package org.copypaste.benchmarks;
+
+import com.twmacinta.util.MD5;
+import org.copypaste.util.ChunkDigest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chunk checksum verification: the former digest lookup and hex string per chunk against {@link ChunkDigest}. The
+ * <code>gc.alloc.rate.norm</code> of the GC profiler is bytes per verified chunk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChunkDigestBenchmark {
+
+    @Param({"1024", "65536", "1048576"})
+    private int chunkSize;
+
+    private byte[] chunk;
+
+    private String chunkHexMD5;
+
+    @Setup
+    public void setUp() throws NoSuchAlgorithmException {
+        chunk = new byte[chunkSize];
+        new Random(42).nextBytes(chunk);
+        chunkHexMD5 = MD5.asHex(MessageDigest.getInstance("MD5").digest(chunk));
+    }
+
+    @Benchmark
+    public boolean lookupAndHexString() throws NoSuchAlgorithmException {
+        MessageDigest messageDigest = MessageDigest.getInstance("MD5");
+        byte[] md5Hash = messageDigest.digest(chunk);
+        return MD5.asHex(md5Hash).equals(chunkHexMD5);
+    }
+
+    @Benchmark
+    public boolean chunkDigest() {
+        return ChunkDigest.md5().matches(chunk, chunkHexMD5);
+    }
+}
@@ -0,0 +1,120 @@
+package org.copypaste.benchmarks;
+
+import org.copypaste.util.ChannelChunkWriter;
+import org.copypaste.util.ChunkWriter;
+import org.copypaste.util.DirectBufferPool;
+import org.copypaste.util.MappedChunkWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Assembling the whole file from chunks written out of order: the former seek and write of {@link RandomAccessFile}
+ * against {@link ChannelChunkWriter} and {@link MappedChunkWriter}. Every invocation writes the whole file to a new temp
+ * file and forces it to the disk, as the client does once the file is done. The temp directory should have room for
+ * the largest file, set it by <code>-Djava.io.tmpdir</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ChunkWriterBenchmark {
+
+    // the server chunk size
+    private static final int CHUNK_SIZE = 1024 * 1024;
+
+    @Param({"1024", "4096"})
+    private int fileSizeMb;
+
+    private byte[] chunk;
+
+    private int[] chunkOrder;
+
+    private Path file;
+
+    @Setup
+    public void setUp() {
+        chunk = new byte[CHUNK_SIZE];
+        new Random(42).nextBytes(chunk);
+        // chunks come in about the order they are requested, shuffled within the "chunks in flight" window
+        chunkOrder = new int[fileSizeMb];
+        Random random = new Random(42);
+        for (int i = 0; i < chunkOrder.length; i++) {
+            chunkOrder[i] = i;
+        }
+        for (int i = 0; i < chunkOrder.length; i++) {
+            int j = Math.min(chunkOrder.length - 1, i + random.nextInt(4));
+            int swap = chunkOrder[i];
+            chunkOrder[i] = chunkOrder[j];
+            chunkOrder[j] = swap;
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void createFile() throws IOException {
+        file = Files.createTempFile("chunk-writer", ".bin");
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteFile() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public void randomAccessFile() throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file.toFile(), "rw")) {
+            for (int chunkNum : chunkOrder) {
+                randomAccessFile.seek((long) chunkNum * CHUNK_SIZE);
+                randomAccessFile.write(chunk);
+            }
+            randomAccessFile.getFD().sync();
+        }
+    }
+
+    @Benchmark
+    public void channel() throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file.toFile(), "rw")) {
+            randomAccessFile.setLength((long) fileSizeMb * CHUNK_SIZE);
+            write(new ChannelChunkWriter(randomAccessFile.getChannel(), new DirectBufferPool(CHUNK_SIZE, 1)));
+        }
+    }
+
+    @Benchmark
+    public void mapped() throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file.toFile(), "rw")) {
+            long fileSize = (long) fileSizeMb * CHUNK_SIZE;
+            randomAccessFile.setLength(fileSize);
+            write(new MappedChunkWriter(randomAccessFile.getChannel(), fileSize, 64L * 1024 * 1024, 4));
+        }
+    }
+
+    private void write(ChunkWriter writer) throws IOException {
+        try {
+            for (int chunkNum : chunkOrder) {
+                writer.write((long) chunkNum * CHUNK_SIZE, chunk);
+            }
+            writer.force(true);
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.copypaste.benchmarks;
+
+import org.copypaste.util.GetMethodUrlConstructor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * URL of the chunk request, built per chunk: {@link GetMethodUrlConstructor} against the former {@link URLEncoder}
+ * with the regex replacements. File names are plain ASCII and the ones that need encoding.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GetMethodUrlConstructorBenchmark {
+
+    private static final String SERVER_URL = "http://localhost:8080";
+
+    private static final String END_POINT = "/chunk";
+
+    @Param({"backup-2018-10-01.tar.gz", "отчёт за 2018 (final).tar.gz"})
+    private String fileName;
+
+    private final GetMethodUrlConstructor urlConstructor = new GetMethodUrlConstructor();
+
+    private Map<String, String> params;
+
+    @Setup
+    public void setUp() {
+        params = new HashMap<>();
+        params.put("file", fileName);
+        params.put("chunkNum", "1234");
+    }
+
+    @Benchmark
+    public String construct() {
+        return urlConstructor.construct(SERVER_URL, END_POINT, params);
+    }
+
+    @Benchmark
+    public String urlEncoder() throws UnsupportedEncodingException {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append(SERVER_URL).append(END_POINT).append('?');
+        boolean first = true;
+        for (Map.Entry<String, String> parameter : params.entrySet()) {
+            if (!first) {
+                sb.append('&');
+            }
+            first = false;
+            sb.append(parameter.getKey()).append('=').append(URLEncoder.encode(parameter.getValue(), "UTF-8")
+                    .replaceAll("\\+", "%20")
+                    .replaceAll("\\%21", "!")
+                    .replaceAll("\\%27", "'")
+                    .replaceAll("\\%28", "(")
+                    .replaceAll("\\%29", ")")
+                    .replaceAll("\\%7E", "~"));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,92 @@
+package org.copypaste.benchmarks;
+
+import org.copypaste.util.GuardedInputStreamConverter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bulk block reading of {@link GuardedInputStreamConverter} against the former per byte loop. Payload sizes are the
+ * metadata (256KB) and the chunk (5MB) limits of the client.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GuardedInputStreamConverterBenchmark {
+
+    @Param({"262144", "5242880"})
+    private int payloadSize;
+
+    private byte[] payload;
+
+    @Setup
+    public void setUp() {
+        payload = new byte[payloadSize];
+        // JSON like ASCII content
+        Arrays.fill(payload, (byte) 'A');
+    }
+
+    @Benchmark
+    public String perByteLoop() throws IOException {
+        return perByteReadContent(new ByteArrayInputStream(payload), 1024, payloadSize);
+    }
+
+    @Benchmark
+    public String readContent() throws IOException {
+        try (GuardedInputStreamConverter converter = GuardedInputStreamConverter.asDefault()
+                .inputStream(new ByteArrayInputStream(payload))
+                .maxBuffer(payloadSize)
+                .build()) {
+            return converter.readContent();
+        }
+    }
+
+    @Benchmark
+    public byte[] readBytesWithContentLength() throws IOException {
+        try (GuardedInputStreamConverter converter = GuardedInputStreamConverter.asDefault()
+                .inputStream(new ByteArrayInputStream(payload))
+                .contentLength(payloadSize)
+                .maxBuffer(payloadSize)
+                .build()) {
+            return converter.readBytes();
+        }
+    }
+
+    /**
+     * The converter loop as it was before the bulk reading
+     */
+    private static String perByteReadContent(InputStream inputStream, int startBuffer, int maxBuffer)
+            throws IOException {
+        char[] buffer = new char[startBuffer];
+        int pos = 0;
+        int aByte;
+        while((aByte = inputStream.read()) != -1) {
+            if (pos == buffer.length) {
+                char[] newBuf = new char[buffer.length * 2];
+                System.arraycopy(buffer, 0, newBuf, 0, buffer.length);
+                buffer = newBuf;
+            } else if (pos > maxBuffer - 1) {
+                throw new RuntimeException("Too long response, dropping");
+            }
+            buffer[pos++] = (char)aByte;
+        }
+        return new String(buffer, 0, pos);
+    }
+}
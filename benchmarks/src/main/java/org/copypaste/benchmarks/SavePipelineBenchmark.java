@@ -0,0 +1,119 @@
+package org.copypaste.benchmarks;
+
+import com.twmacinta.util.MD5;
+import org.copypaste.interthread_data.FileChunkImmutable;
+import org.copypaste.service.SavePipeline;
+import org.copypaste.util.ByteBudget;
+import org.copypaste.util.DirectBufferPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * The save side of the transfer as {@link org.copypaste.service.AsyncSaveService} runs it: chunks put to the
+ * {@link SavePipeline} are verified against their MD5 on the verifier threads, written to the temp file and digested
+ * into the file checksum by the writer thread, then the file is verified and renamed. Every invocation saves the whole
+ * file of the given number of chunks to a new temp directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SavePipelineBenchmark {
+
+    @Param({"65536", "1048576"})
+    private int chunkSize;
+
+    @Param({"16", "128"})
+    private int chunkCount;
+
+    private FileChunkImmutable[] chunks;
+
+    private String fileCheckSum;
+
+    private ExecutorService verifiers;
+
+    private ExecutorService writers;
+
+    private DirectBufferPool bufferPool;
+
+    private Path directory;
+
+    @Setup
+    public void setUp() throws NoSuchAlgorithmException {
+        byte[] chunk = new byte[chunkSize];
+        MessageDigest fileDigest = MessageDigest.getInstance("MD5");
+        Random random = new Random(42);
+        chunks = new FileChunkImmutable[chunkCount];
+        for (int i = 0; i < chunkCount; i++) {
+            random.nextBytes(chunk);
+            fileDigest.update(chunk);
+            String chunkHexMD5 = MD5.asHex(MessageDigest.getInstance("MD5").digest(chunk));
+            chunks[i] = new FileChunkImmutable(chunk.clone(), chunkHexMD5, i < chunkCount - 1, i,
+                    (long) i * chunkSize);
+        }
+        fileCheckSum = MD5.asHex(fileDigest.digest());
+        // the client defaults
+        verifiers = Executors.newFixedThreadPool(4);
+        writers = Executors.newFixedThreadPool(2);
+        bufferPool = new DirectBufferPool(1024 * 1024, 2);
+    }
+
+    @TearDown
+    public void tearDown() {
+        verifiers.shutdownNow();
+        writers.shutdownNow();
+    }
+
+    @Setup(Level.Invocation)
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("save-pipeline");
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteDirectory() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void save() throws InterruptedException {
+        SavePipeline pipeline = new SavePipeline(verifiers, writers, bufferPool,
+                new ByteBudget(64L * 1024 * 1024), directory);
+        pipeline.setFileName("file.bin");
+        pipeline.setFileCheckSum(fileCheckSum);
+        pipeline.setPreallocate(true);
+        pipeline.openJournal((long) chunkSize * chunkCount);
+        pipeline.start();
+        for (FileChunkImmutable chunk : chunks) {
+            pipeline.put(chunk);
+        }
+        pipeline.awaitDone();
+        pipeline.releaseTemp();
+    }
+}
@@ -28,6 +28,40 @@ public class Application {
     private final Map<String, Predicate<String>> knownValuesValidator = new HashMap<String, Predicate<String>>() {{
         put(Global.TIME_OUT_MS_KEY, Application::greaterThanZeroInt);
         put(Global.RETRIES_NUMBER_KEY, Application::greaterThanZeroInt);
+        put(Global.CHUNKS_IN_FLIGHT_KEY, Application::greaterThanZeroInt);
+        put(Global.PARANOID_CHECKSUM_KEY, Application::booleanValue);
+        put(Global.SYNC_MODE_KEY, Application::syncModeValue);
+        put(Global.FILES_IN_FLIGHT_KEY, Application::greaterThanZeroInt);
+        put(Global.WRITER_THREADS_KEY, Application::greaterThanZeroInt);
+        put(Global.PREALLOCATE_KEY, Application::booleanValue);
+        put(Global.FSYNC_EVERY_CHUNKS_KEY, Application::notNegativeInt);
+        put(Global.WRITE_MODE_KEY, Application::writeModeValue);
+        put(Global.MEMORY_BUDGET_MB_KEY, Application::greaterThanZeroInt);
+        put(Global.VERIFY_THREADS_KEY, Application::greaterThanZeroInt);
+        put(Global.BINARY_CHUNKS_KEY, Application::booleanValue);
+        put(Global.TRANSFER_MODE_KEY, Application::transferModeValue);
+        put(Global.RANGE_MIN_KB_KEY, Application::greaterThanZeroInt);
+        put(Global.RANGE_MAX_KB_KEY, Application::greaterThanZeroInt);
+        put(Global.ADAPTIVE_WINDOW_KEY, Application::booleanValue);
+        put(Global.MAX_CHUNKS_IN_FLIGHT_KEY, Application::greaterThanZeroInt);
+        put(Global.MAX_CONNECTIONS_KEY, Application::notNegativeInt);
+        put(Global.KEEP_ALIVE_MS_KEY, Application::greaterThanZeroInt);
+        put(Global.TCP_NO_DELAY_KEY, Application::booleanValue);
+        put(Global.SOCKET_BUFFER_KB_KEY, Application::notNegativeInt);
+        put(Global.GZIP_KEY, Application::booleanValue);
+        put(Global.VALIDATE_AFTER_INACTIVITY_MS_KEY, Application::notNegativeInt);
+        put(Global.HTTP_ENGINE_KEY, Application::httpEngineValue);
+        put(Global.IO_THREADS_KEY, Application::greaterThanZeroInt);
+        put(Global.BACKOFF_BASE_MS_KEY, Application::greaterThanZeroInt);
+        put(Global.BACKOFF_MAX_MS_KEY, Application::greaterThanZeroInt);
+        put(Global.RETRY_BUDGET_PERCENT_KEY, Application::notNegativeInt);
+        put(Global.RETRY_BUDGET_BURST_KEY, Application::notNegativeInt);
+        put(Global.METRICS_JMX_KEY, Application::booleanValue);
+        put(Global.LISTING_CACHE_KEY, Application::booleanValue);
+        put(Global.LISTING_PAGE_SIZE_KEY, Application::notNegativeInt);
+        put(Global.DAEMON_KEY, Application::booleanValue);
+        put(Global.POLL_INTERVAL_MS_KEY, Application::greaterThanZeroInt);
+        put(Global.SHUTDOWN_GRACE_MS_KEY, Application::notNegativeInt);
     }};
 
     public static void main(String[] args) {
@@ -62,11 +96,46 @@ public class Application {
     }
 
 
-    private Map<String, String> defaultConfiguration() {
+    Map<String, String> defaultConfiguration() {
         Map<String, String> config = new HashMap<>();
         config.put(Global.SERVER_URL_KEY, Global.SERVER_URL);
         config.put(Global.TIME_OUT_MS_KEY, Global.TIME_OUT_MS_VAL);
         config.put(Global.RETRIES_NUMBER_KEY, Global.RETRIES_NUMBER_VAL);
+        config.put(Global.CHUNKS_IN_FLIGHT_KEY, Global.CHUNKS_IN_FLIGHT_VAL);
+        config.put(Global.PARANOID_CHECKSUM_KEY, Global.PARANOID_CHECKSUM_VAL);
+        config.put(Global.SYNC_MODE_KEY, Global.SYNC_MODE_VAL);
+        config.put(Global.FILES_IN_FLIGHT_KEY, Global.FILES_IN_FLIGHT_VAL);
+        config.put(Global.WRITER_THREADS_KEY, Global.WRITER_THREADS_VAL);
+        config.put(Global.PREALLOCATE_KEY, Global.PREALLOCATE_VAL);
+        config.put(Global.FSYNC_EVERY_CHUNKS_KEY, Global.FSYNC_EVERY_CHUNKS_VAL);
+        config.put(Global.WRITE_MODE_KEY, Global.WRITE_MODE_VAL);
+        config.put(Global.MEMORY_BUDGET_MB_KEY, Global.MEMORY_BUDGET_MB_VAL);
+        config.put(Global.VERIFY_THREADS_KEY, Global.VERIFY_THREADS_VAL);
+        config.put(Global.BINARY_CHUNKS_KEY, Global.BINARY_CHUNKS_VAL);
+        config.put(Global.TRANSFER_MODE_KEY, Global.TRANSFER_MODE_VAL);
+        config.put(Global.RANGE_END_POINT_KEY, Global.RANGE_END_POINT_VAL);
+        config.put(Global.RANGE_MIN_KB_KEY, Global.RANGE_MIN_KB_VAL);
+        config.put(Global.RANGE_MAX_KB_KEY, Global.RANGE_MAX_KB_VAL);
+        config.put(Global.ADAPTIVE_WINDOW_KEY, Global.ADAPTIVE_WINDOW_VAL);
+        config.put(Global.MAX_CHUNKS_IN_FLIGHT_KEY, Global.MAX_CHUNKS_IN_FLIGHT_VAL);
+        config.put(Global.MAX_CONNECTIONS_KEY, Global.MAX_CONNECTIONS_VAL);
+        config.put(Global.KEEP_ALIVE_MS_KEY, Global.KEEP_ALIVE_MS_VAL);
+        config.put(Global.TCP_NO_DELAY_KEY, Global.TCP_NO_DELAY_VAL);
+        config.put(Global.SOCKET_BUFFER_KB_KEY, Global.SOCKET_BUFFER_KB_VAL);
+        config.put(Global.GZIP_KEY, Global.GZIP_VAL);
+        config.put(Global.VALIDATE_AFTER_INACTIVITY_MS_KEY, Global.VALIDATE_AFTER_INACTIVITY_MS_VAL);
+        config.put(Global.HTTP_ENGINE_KEY, Global.HTTP_ENGINE_VAL);
+        config.put(Global.IO_THREADS_KEY, Global.IO_THREADS_VAL);
+        config.put(Global.BACKOFF_BASE_MS_KEY, Global.BACKOFF_BASE_MS_VAL);
+        config.put(Global.BACKOFF_MAX_MS_KEY, Global.BACKOFF_MAX_MS_VAL);
+        config.put(Global.RETRY_BUDGET_PERCENT_KEY, Global.RETRY_BUDGET_PERCENT_VAL);
+        config.put(Global.RETRY_BUDGET_BURST_KEY, Global.RETRY_BUDGET_BURST_VAL);
+        config.put(Global.METRICS_JMX_KEY, Global.METRICS_JMX_VAL);
+        config.put(Global.LISTING_CACHE_KEY, Global.LISTING_CACHE_VAL);
+        config.put(Global.LISTING_PAGE_SIZE_KEY, Global.LISTING_PAGE_SIZE_VAL);
+        config.put(Global.DAEMON_KEY, Global.DAEMON_VAL);
+        config.put(Global.POLL_INTERVAL_MS_KEY, Global.POLL_INTERVAL_MS_VAL);
+        config.put(Global.SHUTDOWN_GRACE_MS_KEY, Global.SHUTDOWN_GRACE_MS_VAL);
         return config;
     }
 
@@ -116,4 +185,54 @@ public class Application {
         return timeout > 0;
     }
 
+    private static boolean notNegativeInt(String value) {
+        int number = -1;
+        try {
+            number = Integer.parseInt(value);
+        } catch (NumberFormatException nfe) {
+            log.warn("Cannot parse value");
+        }
+        return number >= 0;
+    }
+
+    private static boolean syncModeValue(String value) {
+        boolean valid = Global.SYNC_MODE_NEWEST.equals(value) || Global.SYNC_MODE_ALL.equals(value);
+        if (!valid) {
+            log.warn("Unknown sync mode {}", value);
+        }
+        return valid;
+    }
+
+    private static boolean writeModeValue(String value) {
+        boolean valid = Global.WRITE_MODE_CHANNEL.equals(value) || Global.WRITE_MODE_MMAP.equals(value);
+        if (!valid) {
+            log.warn("Unknown write mode {}", value);
+        }
+        return valid;
+    }
+
+    private static boolean transferModeValue(String value) {
+        boolean valid = Global.TRANSFER_MODE_CHUNKS.equals(value) || Global.TRANSFER_MODE_RANGES.equals(value);
+        if (!valid) {
+            log.warn("Unknown transfer mode {}", value);
+        }
+        return valid;
+    }
+
+    private static boolean httpEngineValue(String value) {
+        boolean valid = Global.HTTP_ENGINE_BLOCKING.equals(value) || Global.HTTP_ENGINE_ASYNC.equals(value);
+        if (!valid) {
+            log.warn("Unknown HTTP engine {}", value);
+        }
+        return valid;
+    }
+
+    private static boolean booleanValue(String value) {
+        boolean valid = "true".equalsIgnoreCase(value) || "false".equalsIgnoreCase(value);
+        if (!valid) {
+            log.warn("Cannot parse boolean value");
+        }
+        return valid;
+    }
+
 }
@@ -17,19 +17,202 @@ public interface Global {
 
     String CONFIG_FILE = "config.properties";
 
+    // the last listing of the server, kept in the config directory
+    String LISTING_CACHE_FILE = "listing.json";
+
+    String LISTING_CACHE_META_FILE = "listing.properties";
+
     String SERVER_URL_KEY = "server_url";
 
     String TIME_OUT_MS_KEY = "time_out_ms";
 
     String RETRIES_NUMBER_KEY = "retries_number";
 
+    String CHUNKS_IN_FLIGHT_KEY = "chunks_in_flight";
+
+    String PARANOID_CHECKSUM_KEY = "paranoid_checksum";
+
+    String SYNC_MODE_KEY = "sync_mode";
+
+    String FILES_IN_FLIGHT_KEY = "files_in_flight";
+
+    String WRITER_THREADS_KEY = "writer_threads";
+
+    String PREALLOCATE_KEY = "preallocate";
+
+    String FSYNC_EVERY_CHUNKS_KEY = "fsync_every_chunks";
+
+    String WRITE_MODE_KEY = "write_mode";
+
+    String MEMORY_BUDGET_MB_KEY = "memory_budget_mb";
+
+    String VERIFY_THREADS_KEY = "verify_threads";
+
+    String BINARY_CHUNKS_KEY = "binary_chunks";
+
+    String TRANSFER_MODE_KEY = "transfer_mode";
+
+    String RANGE_END_POINT_KEY = "range_end_point";
+
+    String RANGE_MIN_KB_KEY = "range_min_kb";
+
+    String RANGE_MAX_KB_KEY = "range_max_kb";
+
+    String ADAPTIVE_WINDOW_KEY = "adaptive_window";
+
+    String MAX_CHUNKS_IN_FLIGHT_KEY = "max_chunks_in_flight";
+
+    String MAX_CONNECTIONS_KEY = "max_connections";
+
+    String KEEP_ALIVE_MS_KEY = "keep_alive_ms";
+
+    String TCP_NO_DELAY_KEY = "tcp_no_delay";
+
+    String SOCKET_BUFFER_KB_KEY = "socket_buffer_kb";
+
+    String GZIP_KEY = "gzip";
+
+    String VALIDATE_AFTER_INACTIVITY_MS_KEY = "validate_after_inactivity_ms";
+
+    String HTTP_ENGINE_KEY = "http_engine";
+
+    String IO_THREADS_KEY = "io_threads";
+
+    String BACKOFF_BASE_MS_KEY = "backoff_base_ms";
+
+    String BACKOFF_MAX_MS_KEY = "backoff_max_ms";
+
+    String RETRY_BUDGET_PERCENT_KEY = "retry_budget_percent";
+
+    String RETRY_BUDGET_BURST_KEY = "retry_budget_burst";
+
+    String METRICS_JMX_KEY = "metrics_jmx";
+
+    String LISTING_CACHE_KEY = "listing_cache";
+
+    String LISTING_PAGE_SIZE_KEY = "listing_page_size";
+
+    String DAEMON_KEY = "daemon";
+
+    String POLL_INTERVAL_MS_KEY = "poll_interval_ms";
+
+    String SHUTDOWN_GRACE_MS_KEY = "shutdown_grace_ms";
+
     // 2 MIN
     String TIME_OUT_MS_VAL = "120000";
 
     String RETRIES_NUMBER_VAL = "3";
 
+    String CHUNKS_IN_FLIGHT_VAL = "4";
+
+    String PARANOID_CHECKSUM_VAL = "false";
+
+    String SYNC_MODE_NEWEST = "newest";
+
+    String SYNC_MODE_ALL = "all";
+
+    String SYNC_MODE_VAL = SYNC_MODE_NEWEST;
+
+    String FILES_IN_FLIGHT_VAL = "2";
+
+    String WRITER_THREADS_VAL = "2";
+
+    String PREALLOCATE_VAL = "true";
+
+    // the chunks are journaled once forced, so a crash loses at most that many
+    String FSYNC_EVERY_CHUNKS_VAL = "64";
+
+    String WRITE_MODE_CHANNEL = "channel";
+
+    String WRITE_MODE_MMAP = "mmap";
+
+    String WRITE_MODE_VAL = WRITE_MODE_CHANNEL;
+
+    String MEMORY_BUDGET_MB_VAL = "64";
+
+    String VERIFY_THREADS_VAL = "4";
+
+    String BINARY_CHUNKS_VAL = "true";
+
+    // chunks of the server chunk size
+    String TRANSFER_MODE_CHUNKS = "chunks";
+
+    // byte ranges of the client chosen size
+    String TRANSFER_MODE_RANGES = "ranges";
+
+    String TRANSFER_MODE_VAL = TRANSFER_MODE_CHUNKS;
+
+    String RANGE_END_POINT_VAL = "/file";
+
+    String RANGE_MIN_KB_VAL = "256";
+
+    String RANGE_MAX_KB_VAL = "16384";
+
+    String ADAPTIVE_WINDOW_VAL = "true";
+
+    String MAX_CHUNKS_IN_FLIGHT_VAL = "32";
+
+    // as many as requests in flight of all the files
+    String MAX_CONNECTIONS_VAL = "0";
+
+    // unless the server tells its own keep alive timeout
+    String KEEP_ALIVE_MS_VAL = "30000";
+
+    String TCP_NO_DELAY_VAL = "true";
+
+    // system default
+    String SOCKET_BUFFER_KB_VAL = "0";
+
+    String GZIP_VAL = "true";
+
+    String VALIDATE_AFTER_INACTIVITY_MS_VAL = "2000";
+
+    // thread per request in flight
+    String HTTP_ENGINE_BLOCKING = "blocking";
+
+    // non-blocking I/O of a few threads
+    String HTTP_ENGINE_ASYNC = "async";
+
+    String HTTP_ENGINE_VAL = HTTP_ENGINE_BLOCKING;
+
+    String IO_THREADS_VAL = "2";
+
+    String BACKOFF_BASE_MS_VAL = "200";
+
+    String BACKOFF_MAX_MS_VAL = "30000";
+
+    // retries per 100 successful requests
+    String RETRY_BUDGET_PERCENT_VAL = "10";
+
+    String RETRY_BUDGET_BURST_VAL = "20";
+
+    String METRICS_JMX_VAL = "true";
+
+    String LISTING_CACHE_VAL = "true";
+
+    // the server tells the page size
+    String LISTING_PAGE_SIZE_VAL = "0";
+
+    // single run
+    String DAEMON_VAL = "false";
+
+    // 1 MIN
+    String POLL_INTERVAL_MS_VAL = "60000";
+
+    String SHUTDOWN_GRACE_MS_VAL = "30000";
+
     String FILE_PARAM = "file";
 
     String CHUNK_NUM_PARAM = "chunkNum";
 
+    String CURSOR_PARAM = "cursor";
+
+    String LIMIT_PARAM = "limit";
+
+    String HAS_NEXT_CHUNK_HEADER = "X-Has-Next-Chunk";
+
+    String CHUNK_CHECKSUM_HEADER = "X-Chunk-Checksum";
+
+    String CHUNK_CHECKSUM_ALGORITHM_HEADER = "X-Chunk-Checksum-Algorithm";
+
 }
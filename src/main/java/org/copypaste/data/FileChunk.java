@@ -1,13 +1,28 @@
 package org.copypaste.data;
 
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import org.copypaste.util.Base64StreamingDeserializer;
+
 public class FileChunk {
 
     private boolean hasNextChunk;
 
-    private String chunkData;
+    /**
+     * Comes as Base64 string, decoded while parsing
+     */
+    @JsonDeserialize(using = Base64StreamingDeserializer.class)
+    private byte[] chunkData;
 
+    /**
+     * Hex checksum of the chunk data, of the chunk checksum algorithm despite the name
+     */
     private String chunkHexMD5;
 
+    /**
+     * Algorithm of the chunk checksum, MD5 if absent
+     */
+    private String chunkCheckSumAlgorithm;
+
     public boolean isHasNextChunk() {
         return hasNextChunk;
     }
@@ -16,11 +31,11 @@ public class FileChunk {
         this.hasNextChunk = hasNextChunk;
     }
 
-    public String getChunkData() {
+    public byte[] getChunkData() {
         return chunkData;
     }
 
-    public void setChunkData(String chunkData) {
+    public void setChunkData(byte[] chunkData) {
         this.chunkData = chunkData;
     }
 
@@ -31,4 +46,12 @@ public class FileChunk {
     public void setChunkHexMD5(String chunkHexMD5) {
         this.chunkHexMD5 = chunkHexMD5;
     }
+
+    public String getChunkCheckSumAlgorithm() {
+        return chunkCheckSumAlgorithm;
+    }
+
+    public void setChunkCheckSumAlgorithm(String chunkCheckSumAlgorithm) {
+        this.chunkCheckSumAlgorithm = chunkCheckSumAlgorithm;
+    }
 }
@@ -4,8 +4,23 @@ import java.util.List;
 
 public class FileMetaResponse extends Response {
 
+    /**
+     * Null when the listing is visited file by file as it is parsed, see
+     * {@link org.copypaste.util.FileListingDecoder}
+     */
     private List<FileSummary> payload;
 
+    /**
+     * Cursor of the next page of the listing, absent on the last page
+     */
+    private String nextCursor;
+
+    /**
+     * Set by the client, not sent by the server: the listing is not modified since it was synced and is not visited,
+     * see {@link org.copypaste.service.ListingCache}
+     */
+    private boolean notModified;
+
     public List<FileSummary> getPayload() {
         return payload;
     }
@@ -13,4 +28,20 @@ public class FileMetaResponse extends Response {
     public void setPayload(List<FileSummary> payload) {
         this.payload = payload;
     }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
+    public boolean isNotModified() {
+        return notModified;
+    }
+
+    public void setNotModified(boolean notModified) {
+        this.notModified = notModified;
+    }
 }
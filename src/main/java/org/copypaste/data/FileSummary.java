@@ -10,6 +10,11 @@ public class FileSummary {
 
     private String checkSum;
 
+    /**
+     * Algorithm of the checksum, MD5 if absent
+     */
+    private String checkSumAlgorithm;
+
     public long getCreationTime() {
         return creationTime;
     }
@@ -41,4 +46,12 @@ public class FileSummary {
     public void setCheckSum(String checkSum) {
         this.checkSum = checkSum;
     }
+
+    public String getCheckSumAlgorithm() {
+        return checkSumAlgorithm;
+    }
+
+    public void setCheckSumAlgorithm(String checkSumAlgorithm) {
+        this.checkSumAlgorithm = checkSumAlgorithm;
+    }
 }
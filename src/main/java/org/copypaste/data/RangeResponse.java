@@ -0,0 +1,20 @@
+package org.copypaste.data;
+
+import java.util.List;
+
+/**
+ * Content of the requested byte range. It is not JSON but the raw partial content, cut to the parts of the journal
+ * chunk size.
+ */
+public class RangeResponse extends Response {
+
+    private List<byte[]> payload;
+
+    public List<byte[]> getPayload() {
+        return payload;
+    }
+
+    public void setPayload(List<byte[]> payload) {
+        this.payload = payload;
+    }
+}
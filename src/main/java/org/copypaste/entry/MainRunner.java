@@ -1,27 +1,44 @@
 package org.copypaste.entry;
 
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.copypaste.consts.Global;
-import org.copypaste.data.ChunkResponse;
-import org.copypaste.data.FileChunk;
 import org.copypaste.data.FileMetaResponse;
 import org.copypaste.data.FileSummary;
-import org.copypaste.interthread_data.FileChunkImmutable;
-import org.copypaste.service.AsyncSaveService;
+import org.copypaste.service.FileDownloadService;
+import org.copypaste.service.HttpClientFactory;
+import org.copypaste.service.ListingCache;
+import org.copypaste.service.MetricsService;
+import org.copypaste.util.ChecksumAlgorithm;
+import org.copypaste.util.ChunkDigest;
+import org.copypaste.util.FileListingDecoder;
 import org.copypaste.util.HttpConnector;
+import org.copypaste.util.ResponseDecoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
+
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 /**
  * Main algorithm executor.
@@ -30,10 +47,27 @@ import java.util.Map;
  * <li>The algorithm is as following: first, it tries to get the available files from server. As the second step it gets
  * chunk by chunk the file. Each chunk it gets is being put for async saver thread to not block the chunk getting.
  * As well, in case the queue of saver is full it will block in order to not inflate the memory.</li>
- * <li>Technically it works on Apache HttpClient it <b>reuses</b> the same Client. It is done from the reason to
- * preserve HTTP connection.
+ * <li>Technically it works on Apache HttpClient it <b>reuses</b> the same Client of {@link HttpClientFactory}. It is
+ * done from the reason to preserve HTTP connection.
  * From their documentation: <a href="https://hc.apache.org/httpcomponents-client-ga/tutorial/html/connmgmt.html#d5e425">
  * Connection keep alive strategy</a> the client caches open http connections by default</li>
+ * <li>In "newest" sync mode only the newest file is downloaded. In "all" sync mode every listed file which is missing
+ * in the incoming directory, or differs by size or checksum, is downloaded. Up to "files in flight" files are
+ * downloaded concurrently, see {@link FileDownloadService} on the download of the single file.</li>
+ * <li>The listing is parsed as it comes and its files are visited one by one, so the newest file and the missing ones
+ * are found in the memory of the files missing locally, however long the catalog is, see {@link FileListingDecoder}.
+ * The listing of many pages is asked for page by page, of "listing page size" files each (the server decides if
+ * 0), following the cursor of the next page.</li>
+ * <li>The listing is asked for only if it has changed since the last run, see {@link ListingCache}. If it has not,
+ * the kept one is used, and in "newest" sync mode the run is over as soon as the newest file is found in the incoming
+ * directory. In "all" sync mode the run is over right away if the listing was synced and the incoming directory is
+ * not modified since. The non-blocking client is not even started then.</li>
+ * <li>Once the run is over, successful or not, the transfer metrics are summarized, see {@link MetricsService}.</li>
+ * <li>With "daemon" the application does not exit after the run. It syncs again "poll interval ms" after the previous
+ * sync is over, so the HTTP client with its pooled connections, the threads and the warmed up code serve every sync.
+ * On shutdown, e.g. by SIGTERM, the download in progress is let to finish or, after "shutdown grace ms", stopped with
+ * its received chunks written and journaled, see {@link #stopPolling()}. The recently checked local files verified by
+ * checksum are not read again by the next polls unless they are modified.</li>
  * </ul>
  *
  * @author Sergey
@@ -43,9 +77,43 @@ public class MainRunner implements CommandLineRunner {
 
     private static final Logger log = LoggerFactory.getLogger(MainRunner.class);
 
+    // guards against the endless reply only
+    private static final int MAX_LISTING_PAGE = 256 * 1024 * 1024;
+
+    private static final long NOT_MODIFIED = -1;
+
+    // the stopped download still writes the chunks it has received
+    private static final long MIN_STOP_WAIT_MS = 5000;
+
+    // the least recently checked local files beyond it are read again by the next poll
+    private static final int MAX_VERIFIED_LOCALLY = 4096;
+
     private Map<String, String> configMap;
 
-    private AsyncSaveService asyncSaveService;
+    private FileDownloadService fileDownloadService;
+
+    private HttpClientFactory httpClientFactory;
+
+    private MetricsService metricsService;
+
+    private ListingCache listingCache;
+
+    private Path incomingDirectory = Paths.get(Global.INCOMING_DIRECTORY);
+
+    private final CountDownLatch stopRequested = new CountDownLatch(1);
+
+    private volatile Thread poller;
+
+    // true while the poller syncs, not waits for the next sync
+    private volatile boolean syncing;
+
+    // name -> size, modification time and checksum of the local files verified by checksum, used by the polls only
+    private final Map<String, String> verifiedLocally = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_VERIFIED_LOCALLY;
+        }
+    };
 
     @Autowired
     public void setConfigMap(Map<String, String> configMap) {
@@ -53,119 +121,319 @@ public class MainRunner implements CommandLineRunner {
     }
 
     @Autowired
-    public void setAsyncSaveService(AsyncSaveService asyncSaveService) {
-        this.asyncSaveService = asyncSaveService;
+    public void setFileDownloadService(FileDownloadService fileDownloadService) {
+        this.fileDownloadService = fileDownloadService;
+    }
+
+    @Autowired
+    public void setHttpClientFactory(HttpClientFactory httpClientFactory) {
+        this.httpClientFactory = httpClientFactory;
+    }
+
+    @Autowired
+    public void setMetricsService(MetricsService metricsService) {
+        this.metricsService = metricsService;
+    }
+
+    @Autowired
+    public void setListingCache(ListingCache listingCache) {
+        this.listingCache = listingCache;
+    }
+
+    /**
+     * @param incomingDirectory directory of the downloaded files, the incoming directory by default
+     */
+    public void setIncomingDirectory(Path incomingDirectory) {
+        this.incomingDirectory = incomingDirectory;
     }
 
     public void run(String... args) throws Exception {
 
         createIncomingIfAbsent();
 
-        int timeout = Integer.parseInt(configMap.get(Global.TIME_OUT_MS_KEY));
-        int retries = Integer.parseInt(configMap.get(Global.RETRIES_NUMBER_KEY));
+        if (Boolean.parseBoolean(configMap.get(Global.DAEMON_KEY))) {
+            startPolling();
+            return;
+        }
+        try {
+            sync();
+        } finally {
+            metricsService.logSummary();
+        }
+    }
 
-        CloseableHttpClient httpClient = null;
-        FileSummary newestFileSummary;
-        Thread asyncThread;
+    /**
+     * Stops the polling on the shutdown of the daemon. The download in progress is given "shutdown grace ms" to finish,
+     * then it is interrupted, right away if it is 0. The chunks already received are written and journaled, so the next
+     * start resumes it.
+     */
+    @PreDestroy
+    public void stopPolling() throws InterruptedException {
+        if (poller == null) {
+            return;
+        }
+        stopRequested.countDown();
+        long shutdownGraceMs = Long.parseLong(configMap.get(Global.SHUTDOWN_GRACE_MS_KEY));
+        if (shutdownGraceMs > 0) {
+            // join(0) waits forever
+            poller.join(shutdownGraceMs);
+        }
+        if (poller.isAlive()) {
+            if (syncing) {
+                log.warn("The sync is not over in {} ms, it is stopped, the written chunks are kept for the next run",
+                        shutdownGraceMs);
+            }
+            poller.interrupt();
+            // the queued chunks are written first
+            poller.join(Math.max(shutdownGraceMs, MIN_STOP_WAIT_MS));
+        }
+        metricsService.logSummary();
+    }
+
+    private void startPolling() {
+        long pollIntervalMs = Long.parseLong(configMap.get(Global.POLL_INTERVAL_MS_KEY));
+        // not a daemon thread, it keeps the application running till the shutdown
+        poller = new Thread(() -> poll(pollIntervalMs), "Poller");
+        poller.start();
+        log.info("Polling the server every {} ms", pollIntervalMs);
+    }
 
-        boolean lastFileMetaGot = false;
+    /**
+     * Syncs with the server, waits for "poll interval ms" after the sync is over and syncs again till the stop is
+     * requested. A failed sync does not stop the polling, the next one downloads what is left.
+     */
+    private void poll(long pollIntervalMs) {
         try {
-            httpClient = HttpClients.createDefault();
-            HttpConnector<FileMetaResponse> fileMetaResponseHttpConnector =
-                    HttpConnector.as(FileMetaResponse.class)
-                            .httpClient(httpClient)
-                            .serverUrl(Global.SERVER_URL)
-                            .endPoint(Global.META_END_POINT)
-                            .maxBuffer(1024 * 256) // 256KB -- the list should not be too long!
-                            .timeOutMS(timeout)
-                            .retries(retries)
-                            .build();
-
-            FileMetaResponse fileMetaResponse = fileMetaResponseHttpConnector.executeWithRetries();
+            do {
+                try {
+                    syncing = true;
+                    sync();
+                } catch (InterruptedException e) {
+                    log.info("The sync is interrupted");
+                    return;
+                } catch (IOException | RuntimeException e) {
+                    if (stopRequested.getCount() == 0) {
+                        log.info("The sync is stopped: {}", e.toString());
+                        return;
+                    }
+                    log.error("The sync failed, the next one is in {} ms", pollIntervalMs, e);
+                } finally {
+                    syncing = false;
+                }
+            } while (!stopRequested.await(pollIntervalMs, TimeUnit.MILLISECONDS));
+        } catch (InterruptedException e) {
+            log.debug("Interrupted while waiting for the next sync");
+        }
+        log.info("Polling is stopped");
+    }
+
+    private void sync() throws InterruptedException, IOException {
+        boolean syncAll = Global.SYNC_MODE_ALL.equals(configMap.get(Global.SYNC_MODE_KEY));
+        int filesInFlight = syncAll ? Integer.parseInt(configMap.get(Global.FILES_IN_FLIGHT_KEY)) : 1;
+
+        // the shared client is closed with the application context
+        CloseableHttpClient httpClient = httpClientFactory.getHttpClient();
+        if (syncAll) {
+            syncAll(httpClient, filesInFlight);
+        } else {
+            downloadNewest(httpClient);
+        }
+    }
+
+    /**
+     * Visits every listed file, page by page if the server pages the listing. The first page is asked for only if the
+     * listing has changed, see {@link ListingCache}.
+     *
+     * @return number of the listed files, or {@link #NOT_MODIFIED} if the listing is not modified since it was synced
+     * and is not visited
+     */
+    private long list(CloseableHttpClient httpClient, Consumer<FileSummary> visitor) {
+        long[] listed = new long[1];
+        Consumer<FileSummary> countingVisitor = fileSummary -> {
+            listed[0]++;
+            visitor.accept(fileSummary);
+        };
+        Map<String, String> params = new HashMap<>();
+        int pageSize = Integer.parseInt(configMap.get(Global.LISTING_PAGE_SIZE_KEY));
+        if (pageSize > 0) {
+            params.put(Global.LIMIT_PARAM, Integer.toString(pageSize));
+        }
+
+        HttpConnector.Builder<FileMetaResponse> firstPageConnector =
+                listingConnector(httpClient, listingCache.decoder(countingVisitor));
+        listingCache.conditionalHeaders().forEach(firstPageConnector::header);
+        FileMetaResponse fileMetaResponse = firstPageConnector.build().executeWithRetries(params);
+        if (fileMetaResponse.isNotModified()) {
+            return NOT_MODIFIED;
+        }
+        HttpConnector<FileMetaResponse> nextPageConnector = null;
+        while (true) {
             if (!fileMetaResponse.isSuccess()) {
-                log.error("Remote side signalizes error on files metadata {}. Giving up.", fileMetaResponse.getException());
+                log.error("Remote side signalizes error on files metadata {}. Giving up.",
+                        fileMetaResponse.getException());
                 throw new RuntimeException("Cannot retrieve metadata");
             }
-            List<FileSummary> fileSummaries = fileMetaResponse.getPayload();
-            newestFileSummary = fileSummaries.get(fileSummaries.size() - 1);
-            String newestFileName = newestFileSummary.getName();
-            if (Paths.get(Global.INCOMING_DIRECTORY, newestFileName).toFile().exists()) {
-                log.warn("The last available file {} already exists. Dropping.", newestFileName);
-                return;
+            String nextCursor = fileMetaResponse.getNextCursor();
+            if (nextCursor == null || nextCursor.isEmpty()) {
+                return listed[0];
             }
-
-            lastFileMetaGot = true;
-        } finally {
-            // I want to reuse the httpClient if it is not the method "return" or "exception"
-            if (!lastFileMetaGot && httpClient != null) {
-                try {
-                    httpClient.close();
-                } catch (Exception e) {
-                    log.error("Cannot close HttpClient", e);
-                }
+            if (nextPageConnector == null) {
+                nextPageConnector = listingConnector(httpClient, new FileListingDecoder(countingVisitor)).build();
             }
+            params.put(Global.CURSOR_PARAM, nextCursor);
+            fileMetaResponse = nextPageConnector.executeWithRetries(params);
         }
+    }
 
-        try {
-            log.info("Newest file: {}", newestFileSummary.getName());
-            asyncThread = asyncSaveService.startAndWaitForInput();
+    private HttpConnector.Builder<FileMetaResponse> listingConnector(CloseableHttpClient httpClient,
+                                                                     ResponseDecoder<FileMetaResponse> decoder) {
+        return HttpConnector.as(FileMetaResponse.class)
+                .httpClient(httpClient)
+                .serverUrl(configMap.get(Global.SERVER_URL_KEY))
+                .endPoint(Global.META_END_POINT)
+                // the listing is parsed as it comes, the page is not kept in memory
+                .maxBuffer(MAX_LISTING_PAGE)
+                .requestConfig(httpClientFactory.getRequestConfig())
+                .retryPolicy(httpClientFactory.getRetryPolicy())
+                .meterRegistry(metricsService.getRegistry())
+                .decoder(decoder)
+                .retries(Integer.parseInt(configMap.get(Global.RETRIES_NUMBER_KEY)));
+    }
 
-            asyncSaveService.setFileName(newestFileSummary.getName());
-            asyncSaveService.setFileCheckSum(newestFileSummary.getCheckSum());
+    /**
+     * The newest file is the last one listed.
+     */
+    private void downloadNewest(CloseableHttpClient httpClient) throws InterruptedException, IOException {
+        FileSummary[] newest = new FileSummary[1];
+        list(httpClient, fileSummary -> newest[0] = fileSummary);
+        FileSummary newestFileSummary = newest[0];
+        if (newestFileSummary == null) {
+            log.info("There are no files on server");
+            return;
+        }
+        String newestFileName = newestFileSummary.getName();
+        if (incomingDirectory.resolve(newestFileName).toFile().exists()) {
+            if (poller != null) {
+                // every poll of the unchanged server
+                log.debug("The last available file {} already exists. Dropping.", newestFileName);
+            } else {
+                log.warn("The last available file {} already exists. Dropping.", newestFileName);
+            }
+            return;
+        }
+        log.info("Newest file: {}", newestFileName);
+        fileDownloadService.download(httpClient, newestFileSummary);
+    }
 
-            boolean hasNextChunk = true;
-            int chunkNum = 0;
-            while (hasNextChunk) {
-                if (asyncSaveService.getThrowable() != null) {
-                    throw new RuntimeException("Async save error. Giving up", asyncSaveService.getThrowable());
-                }
-                Map<String, String> parameters = new HashMap<>();
-                parameters.put(Global.FILE_PARAM, newestFileSummary.getName());
-                parameters.put(Global.CHUNK_NUM_PARAM, "" + chunkNum++);
-                HttpConnector<ChunkResponse> chunkResponseHttpConnector =
-                        HttpConnector.as(ChunkResponse.class)
-                                .httpClient(httpClient)
-                                .serverUrl(Global.SERVER_URL)
-                                .endPoint(Global.CHUNK_END_POINT)
-                                .maxBuffer(1024 * 1024 * 5) // 5MB
-                                .timeOutMS(timeout)
-                                .retries(retries)
-                                .params(parameters)
-                                .build();
-                ChunkResponse chunkResponse = chunkResponseHttpConnector.executeWithRetries();
-                if (!chunkResponse.isSuccess()) {
-                    throw new RuntimeException("Remote error on chunk " + chunkNum + " . Remote reply is: " + chunkResponse.getException());
-                }
-                FileChunk fileChunk = chunkResponse.getPayload();
-                FileChunkImmutable fileChunkImmutable = new FileChunkImmutable(fileChunk);
-                asyncSaveService.put(fileChunkImmutable);
-                hasNextChunk = fileChunk.isHasNextChunk();
+    /**
+     * Downloads all the files which are not present locally. A failed file does not stop the others, however the run
+     * fails once all of them are done.<br/>
+     * Every listed file is checked locally as soon as it is visited, only the missing ones are kept.
+     */
+    private void syncAll(CloseableHttpClient httpClient, int filesInFlight) throws InterruptedException {
+        // before the listing, so the files added while it is synced are not missed next time
+        long incomingModified = listingCache.incomingModified();
+        // by name, a retried page visits its files again
+        Map<String, FileSummary> missingByName = new LinkedHashMap<>();
+        long listed = list(httpClient, fileSummary -> {
+            if (!isPresentLocally(fileSummary)) {
+                missingByName.put(fileSummary.getName(), fileSummary);
             }
+        });
+        if (listed == NOT_MODIFIED) {
+            log.info("The listing and the incoming directory are not modified since the last sync");
+            return;
+        }
+        if (listed == 0) {
+            log.info("There are no files on server");
+            return;
+        }
+        List<FileSummary> missing = new ArrayList<>(missingByName.values());
+        log.info("{} of {} files are missing locally", missing.size(), listed);
+        if (missing.isEmpty()) {
+            listingCache.synced(incomingModified);
+            return;
+        }
 
-            if (asyncSaveService.getThrowable() == null) {
-                // need to wait till saver will finish
-                asyncThread.join();
-                /*if (asyncSaveService.getThrowable() != null) {
-                    ???
-                }*/
+        AtomicInteger counter = new AtomicInteger();
+        ExecutorService downloaders = Executors.newFixedThreadPool(Math.min(filesInFlight, missing.size()), r -> {
+            Thread t = new Thread(r, "File Download " + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        int failed = 0;
+        try {
+            List<Future<?>> downloads = new ArrayList<>();
+            for (FileSummary fileSummary : missing) {
+                downloads.add(downloaders.submit(() -> {
+                    log.info("Downloading {}", fileSummary.getName());
+                    fileDownloadService.download(httpClient, fileSummary);
+                    return null;
+                }));
+            }
+            for (int i = 0; i < downloads.size(); i++) {
+                try {
+                    downloads.get(i).get();
+                } catch (ExecutionException e) {
+                    failed++;
+                    log.error("Cannot download {}", missing.get(i).getName(), e.getCause());
+                }
             }
         } finally {
-            try {
-                // client here cannot be null, no need to check for null
-                httpClient.close();
-            } catch (Exception e) {
-                log.error("Cannot close HttpClient", e);
+            downloaders.shutdownNow();
+            // the stopped downloads write and journal what they have received
+            if (!downloaders.awaitTermination(MIN_STOP_WAIT_MS, TimeUnit.MILLISECONDS)) {
+                log.warn("The stopped downloads are not over in {} ms", MIN_STOP_WAIT_MS);
+            }
+        }
+        if (failed > 0) {
+            throw new RuntimeException(failed + " of " + missing.size() + " files are not downloaded");
+        }
+        listingCache.synced(incomingModified);
+    }
+
+    private boolean isSameSizeLocally(FileSummary fileSummary) {
+        File local = incomingDirectory.resolve(fileSummary.getName()).toFile();
+        return local.isFile() && local.length() == fileSummary.getSize();
+    }
+
+    /**
+     * The file is present if it has the same name and size. Only then the checksum is calculated and compared. The
+     * file verified once is not read again while its size, modification time and the listed checksum are the same,
+     * up to {@link #MAX_VERIFIED_LOCALLY} of the recently checked files are remembered.
+     */
+    private boolean isPresentLocally(FileSummary fileSummary) {
+        File local = incomingDirectory.resolve(fileSummary.getName()).toFile();
+        if (!isSameSizeLocally(fileSummary)) {
+            return false;
+        }
+        String verified = local.length() + " " + local.lastModified() + " " + fileSummary.getCheckSumAlgorithm() + " "
+                + fileSummary.getCheckSum();
+        if (verified.equals(verifiedLocally.get(fileSummary.getName()))) {
+            return true;
+        }
+        try {
+            byte[] localCheckSum = ChecksumAlgorithm.of(fileSummary.getCheckSumAlgorithm()).hash(local);
+            if (!ChunkDigest.equalsHex(localCheckSum, fileSummary.getCheckSum())) {
+                log.warn("Local file {} differs by checksum, it will be downloaded again", fileSummary.getName());
+                verifiedLocally.remove(fileSummary.getName());
+                return false;
             }
-            asyncSaveService.clearTemp();
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn("Cannot calculate checksum of local file {}", fileSummary.getName(), e);
+            verifiedLocally.remove(fileSummary.getName());
+            return false;
         }
+        verifiedLocally.put(fileSummary.getName(), verified);
+        return true;
     }
 
     private void createIncomingIfAbsent() {
-        File incoming = new File(Global.INCOMING_DIRECTORY);
+        File incoming = incomingDirectory.toFile();
         if (incoming.exists() && !incoming.isDirectory()) {
             throw new IllegalStateException(
                     MessageFormat.format("Incoming directory \"{0}\" exists as not a directory",
-                            Global.INCOMING_DIRECTORY));
+                            incoming));
         } else if (!incoming.exists()) {
             boolean incomingCreated = incoming.mkdir();
             if (!incomingCreated) {
@@ -174,6 +442,4 @@ public class MainRunner implements CommandLineRunner {
         }
     }
 
-
-
 }
@@ -1,8 +1,7 @@
 package org.copypaste.interthread_data;
 
 import org.copypaste.data.FileChunk;
-
-import java.util.Base64;
+import org.copypaste.util.ChecksumAlgorithm;
 
 /**
  *
@@ -14,40 +13,75 @@ public class FileChunkImmutable {
 
     private final boolean hasNextChunk;
 
-    private final String chunkData;
+    private final byte[] chunkContent;
 
     private final String chunkHexMD5;
 
-    private volatile byte[] cachedEncodedContent;
+    private final ChecksumAlgorithm chunkCheckSumAlgorithm;
+
+    private final int chunkNum;
+
+    private final long offset;
 
     public boolean isHasNextChunk() {
         return hasNextChunk;
     }
 
-    public String getChunkData() {
-        return chunkData;
-    }
-
+    /**
+     * @return hex checksum of the chunk of {@link #getChunkCheckSumAlgorithm()}, null if the chunk has no own checksum
+     */
     public String getChunkHexMD5() {
         return chunkHexMD5;
     }
 
+    /**
+     * @return algorithm of the chunk checksum, null if the chunk has no own checksum (a part of the fetched range). Such
+     * chunk is verified only by the checksum of the whole file.
+     */
+    public ChecksumAlgorithm getChunkCheckSumAlgorithm() {
+        return chunkCheckSumAlgorithm;
+    }
+
+    public int getChunkNum() {
+        return chunkNum;
+    }
+
+    /**
+     * @return position of the chunk content in the assembled file
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return chunk content, already decoded from Base64 while parsing the response. The array is not copied, it
+     * should not be changed.
+     */
     public byte[] getChunkEncodedContent() {
-        if (cachedEncodedContent != null) {
-            return cachedEncodedContent;
-        }
-        cachedEncodedContent = Base64.getDecoder().decode(chunkData);
-        return cachedEncodedContent;
+        return chunkContent;
     }
 
-    public FileChunkImmutable(String chunkData, String chunkHexMD5, boolean hasNextChunk) {
+    public FileChunkImmutable(byte[] chunkContent, String chunkHexMD5, ChecksumAlgorithm chunkCheckSumAlgorithm,
+                              boolean hasNextChunk, int chunkNum, long offset) {
         this.hasNextChunk = hasNextChunk;
-        this.chunkData = chunkData;
+        this.chunkContent = chunkContent;
         this.chunkHexMD5 = chunkHexMD5;
+        this.chunkCheckSumAlgorithm = chunkCheckSumAlgorithm;
+        this.chunkNum = chunkNum;
+        this.offset = offset;
+    }
+
+    public FileChunkImmutable(byte[] chunkContent, String chunkHexMD5, boolean hasNextChunk, int chunkNum, long offset) {
+        this(chunkContent, chunkHexMD5, ChecksumAlgorithm.MD5, hasNextChunk, chunkNum, offset);
     }
 
-    public FileChunkImmutable(FileChunk fileChunk) {
-        this(fileChunk.getChunkData(), fileChunk.getChunkHexMD5(), fileChunk.isHasNextChunk());
+    /**
+     * @throws IllegalArgumentException if the chunk checksum algorithm is not supported
+     */
+    public FileChunkImmutable(FileChunk fileChunk, int chunkNum, long offset) {
+        this(fileChunk.getChunkData(), fileChunk.getChunkHexMD5(),
+                ChecksumAlgorithm.of(fileChunk.getChunkCheckSumAlgorithm()), fileChunk.isHasNextChunk(), chunkNum,
+                offset);
     }
 
 }
\ No newline at end of file
@@ -1,213 +1,132 @@
 package org.copypaste.service;
 
-import com.twmacinta.util.MD5;
 import org.copypaste.consts.Global;
-import org.copypaste.interthread_data.FileChunkImmutable;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.copypaste.util.ByteBudget;
+import org.copypaste.util.DirectBufferPool;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
 import org.springframework.stereotype.Service;
 
-import java.io.*;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * The "Consumer" of gotten chunks. Implemented as a daemon thread. The thread is defined to be daemon because in the case
- * of failure of the main thread it will need to be signalized somehow that application is about to shutdown. However,
- * if it is blocked on the queue it will never get the signal and process will not be down.<br/>
- * Once the file name is set to this object it creates a temp file.
- * It reads on demand the incoming queue in case there is a work chunk it:
- * <ol>
- * <li>Decode the chunk data by Base64</li>
- * <li>Compare the checksum of the chunk</li>
- * <li>If the chunk check sum is "bad" it drops</li>
- * </ol>
- * Once it has got all the chunks
- * <ol>
- * <li>The file is checked against the overall checksum if it fails it drops and file deleted</li>
- * <li>On success check the file is renamed to real name</li>
- * </ol>
+ * Creates the {@link SavePipeline} of every downloaded file. All the pipelines share the same bounded pools of verifier
+ * and writer threads, so the number of threads does not grow with the number of files downloaded at once. Chunks are
+ * verified in parallel, while the disk writing is left to the writer threads. As well, they share the
+ * memory budget of the queued chunks, its usage is exposed by JMX. A quarter of the budget is set aside for the chunks
+ * written out of order and held for the file digest. The pipelines are metered by the shared
+ * {@link org.copypaste.util.SaveMetrics} of {@link MetricsService}.
  */
 @Service
-public class AsyncSaveService implements Runnable {
+@ManagedResource(objectName = "org.copypaste:type=AsyncSaveService", description = "Save pipelines")
+public class AsyncSaveService {
 
-    private static final Logger log = LoggerFactory.getLogger(AsyncSaveService.class);
+    // chunks are written by slices of this size
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
 
-    // Assumption: network is slower than disk => no need big queue
-    private final BlockingQueue<FileChunkImmutable> chunks = new ArrayBlockingQueue<>(16);
+    // a quarter of the memory budget holds the chunks written out of order for the file digest
+    private static final int DIGEST_HOLD_SHARE = 4;
 
-    private final AtomicBoolean canRun = new AtomicBoolean(true);
+    private Map<String, String> configMap;
 
-    private volatile String fileName;
+    private ExecutorService verifiers;
 
-    private volatile String tempFileName;
+    private ExecutorService writers;
 
-    private volatile Throwable throwable;
+    private DirectBufferPool bufferPool;
 
-    private volatile RandomAccessFile tempRandomAccessFile;
+    private ByteBudget memoryBudget;
 
-    private volatile String fileCheckSum;
+    private ByteBudget digestHoldBudget;
 
-    @Override
-    public void run() {
-        boolean hasNextChunk = true;
-        while(canRun.get() && hasNextChunk) {
-            try {
-                FileChunkImmutable fileChunk = chunks.take();
-                requireCheckSum(fileChunk);
-                appendChunk(fileChunk.getChunkEncodedContent());
-                hasNextChunk = fileChunk.isHasNextChunk();
-            } catch (Exception e) {
-                log.error("Error while saving file", e);
-                throwable = e;
-                closeTempFile();
-                canRun.set(false);
-                break;
-            }
-        }
+    private MetricsService metricsService;
 
-        if (throwable != null) {
-            return;
-        }
+    private Path incomingDirectory = Paths.get(Global.INCOMING_DIRECTORY);
 
-        try {
-            postProcessingTempFile();
-        } catch (Exception e) {
-            log.error("Error while post processing temp file", e);
-            this.throwable = e;
-        }
+    @Autowired
+    public void setConfigMap(Map<String, String> configMap) {
+        this.configMap = configMap;
     }
 
-    private void postProcessingTempFile() {
-
-        Exception t = closeTempFile();
-
-        if (t != null) {
-            throw new RuntimeException("Cannot close temp file", t);
-        }
-
-        checkFileSum();
-
-        renameToReal();
-    }
-
-    public Thread startAndWaitForInput() {
-        Thread t = new Thread(this,"Save Service");
-        t.setDaemon(true);
-        t.start();
-        return t;
-    }
-
-    public void put(FileChunkImmutable fileChunkImmutable) throws InterruptedException {
-        try {
-            chunks.put(fileChunkImmutable);
-        } catch (InterruptedException e) {
-            String message = "Main thread is interrupter on waiting putting to chunk queue";
-            log.error(message);
-            canRun.set(false);
-            throw e;
-        }
-    }
-
-    public Throwable getThrowable() {
-        return throwable;
-    }
-
-    public void setFileName(String fileName) {
-        this.fileName = fileName;
-        try {
-            MessageDigest messageDigest = MessageDigest.getInstance("MD5");
-            byte[] md5Hash = messageDigest.digest(fileName.getBytes("UTF-8"));
-            this.tempFileName = MD5.asHex(md5Hash);
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("Check your JDK distribution. Cannot find MD5 digest", e);
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException("Check your JDK distribution. Cannot find UTF-8 encoding", e);
-        }
-
-        try {
-            tempRandomAccessFile = new RandomAccessFile(Paths.get(Global.INCOMING_DIRECTORY, tempFileName).toFile(), "rw");
-        } catch (FileNotFoundException e) {
-            throw new RuntimeException("Cannot create temp file");
-        }
+    @Autowired
+    public void setMetricsService(MetricsService metricsService) {
+        this.metricsService = metricsService;
     }
 
-    public void setFileCheckSum(String fileCheckSum) {
-        this.fileCheckSum = fileCheckSum;
+    /**
+     * @param incomingDirectory directory of the saved files, the incoming directory by default
+     */
+    public void setIncomingDirectory(Path incomingDirectory) {
+        this.incomingDirectory = incomingDirectory;
     }
 
-    public void clearTemp() {
-        closeTempFile();
-        File tempFile = Paths.get(Global.INCOMING_DIRECTORY, tempFileName).toFile();
-        if (tempFile.exists()) {
-            boolean deleted = tempFile.delete();
-            if (!deleted) {
-                log.warn("Cannot delete temp file {}", tempFile);
-            }
-        }
+    @PostConstruct
+    public void startThreads() {
+        int verifyThreads = Integer.parseInt(configMap.get(Global.VERIFY_THREADS_KEY));
+        AtomicInteger verifierCounter = new AtomicInteger();
+        verifiers = Executors.newFixedThreadPool(verifyThreads, r -> {
+            Thread t = new Thread(r, "Chunk Verifier " + verifierCounter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        int writerThreads = Integer.parseInt(configMap.get(Global.WRITER_THREADS_KEY));
+        AtomicInteger writerCounter = new AtomicInteger();
+        writers = Executors.newFixedThreadPool(writerThreads, r -> {
+            Thread t = new Thread(r, "Save Service " + writerCounter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        // a writer thread uses one buffer at a time
+        bufferPool = new DirectBufferPool(WRITE_BUFFER_SIZE, writerThreads);
+        long memoryBudgetBytes = Long.parseLong(configMap.get(Global.MEMORY_BUDGET_MB_KEY)) * 1024 * 1024;
+        long digestHoldBytes = memoryBudgetBytes / DIGEST_HOLD_SHARE;
+        memoryBudget = new ByteBudget(memoryBudgetBytes - digestHoldBytes);
+        digestHoldBudget = new ByteBudget(digestHoldBytes);
+        metricsService.getRegistry().gauge("copypaste.save.memory.used", memoryBudget, ByteBudget::getUsedBytes);
+        metricsService.getRegistry().gauge("copypaste.save.memory.held", digestHoldBudget, ByteBudget::getUsedBytes);
     }
 
-    public Exception closeTempFile() {
-        try {
-            if (tempRandomAccessFile != null) {
-                tempRandomAccessFile.close();
-                tempRandomAccessFile = null;
-            }
-        } catch (IOException ignore) {
-            log.error("Cannot close temp file");
-            return ignore;
-        }
-        return null;
+    @PreDestroy
+    public void stopThreads() {
+        List<Runnable> dropped = new ArrayList<>(verifiers.shutdownNow());
+        dropped.addAll(writers.shutdownNow());
+        // the dropped tasks cannot schedule the next ones, so they fail their pipelines and nobody waits for them
+        dropped.forEach(Runnable::run);
     }
 
-    private void requireCheckSum(FileChunkImmutable fileChunkImmutable) {
-        byte[] chunkEncodedContent = fileChunkImmutable.getChunkEncodedContent();
-        MessageDigest messageDigest;
-        try {
-            messageDigest = MessageDigest.getInstance("MD5");
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("Check your JDK distribution. Cannot find MD5 digest", e);
-        }
-        byte[] md5Hash = messageDigest.digest(chunkEncodedContent);
-        String nowMessageHash = MD5.asHex(md5Hash);
-        if (!nowMessageHash.equals(fileChunkImmutable.getChunkHexMD5())) {
-            throw new RuntimeException("Message digests are not equal for chunk. Expected: " + fileChunkImmutable.getChunkHexMD5() +
-             " Got: " + nowMessageHash);
-        }
+    /**
+     * @return new pipeline saving to the incoming directory
+     */
+    public SavePipeline newPipeline() {
+        SavePipeline savePipeline =
+                new SavePipeline(verifiers, writers, bufferPool, memoryBudget, incomingDirectory);
+        savePipeline.setMetrics(metricsService.getSaveMetrics());
+        savePipeline.setDigestHoldBudget(digestHoldBudget);
+        return savePipeline;
     }
 
-    private void appendChunk(byte[] data) {
-        try {
-            tempRandomAccessFile.write(data);
-        } catch (IOException e) {
-            throw new RuntimeException("Cannot write to temp file", e);
-        }
+    @ManagedAttribute(description = "Memory budget of the queued chunks, bytes")
+    public long getMemoryBudgetBytes() {
+        return memoryBudget.getBudgetBytes();
     }
 
-    private void checkFileSum() {
-        File tempFile = Paths.get(Global.INCOMING_DIRECTORY, tempFileName).toFile();
-        String gotFileMD5;
-        try {
-            gotFileMD5 = MD5.asHex(MD5.getHash(tempFile));
-        } catch (IOException e) {
-            throw new RuntimeException("Cannot calculate MD5 checksum", e);
-        }
-
-        if (!gotFileMD5.equals(fileCheckSum)) {
-            throw new RuntimeException("Checksums are not equal");
-        }
+    @ManagedAttribute(description = "Memory used by the queued chunks, bytes")
+    public long getMemoryUsedBytes() {
+        return memoryBudget.getUsedBytes();
     }
 
-    private void renameToReal() {
-        File tempFile = Paths.get(Global.INCOMING_DIRECTORY, tempFileName).toFile();
-        File newName = Paths.get(Global.INCOMING_DIRECTORY, fileName).toFile();
-        boolean renamed = tempFile.renameTo(newName);
-        if (!renamed) {
-            throw new RuntimeException("Cannot rename temp file: " + tempFileName + " to real file: " + newName);
-        }
+    @ManagedAttribute(description = "Memory used by the chunks held for the file digest, bytes")
+    public long getDigestHeldBytes() {
+        return digestHoldBudget.getUsedBytes();
     }
 }
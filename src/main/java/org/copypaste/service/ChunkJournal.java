@@ -0,0 +1,253 @@
+package org.copypaste.service;
+
+import org.copypaste.consts.Global;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * On disk journal of the chunks which are verified and written to the temp file. It lives next to the temp file and
+ * lets a restarted run to fetch only the missing chunks.<br/>
+ * It is a text file of records, one per line:
+ * <ul>
+ * <li><code>file &lt;size&gt; &lt;checksum&gt;</code> -- the file the journal belongs to, always the first line</li>
+ * <li><code>chunkSize &lt;layout&gt; &lt;size&gt;</code> -- the transfer layout (<code>chunks</code> of the server
+ * chunk size or <code>ranges</code> of the client part size) and the size, defines the chunks offsets</li>
+ * <li><code>chunk &lt;number&gt; &lt;offset&gt; &lt;length&gt; &lt;last&gt;</code> -- the written chunk</li>
+ * </ul>
+ * The chunk record is appended only after the chunk is written and forced to the disk, see {@link SavePipeline}. A record that cannot be parsed (e.g. cut by a crash)
+ * or does not fit the chunk size is ignored, so such chunk is just fetched once more.
+ * If the journal belongs to another version of the file or to another layout it is started from scratch.
+ */
+public class ChunkJournal implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(ChunkJournal.class);
+
+    private static final String FILE_RECORD = "file";
+
+    private static final String CHUNK_SIZE_RECORD = "chunkSize";
+
+    private static final String CHUNK_RECORD = "chunk";
+
+    private final Path path;
+
+    private final BitSet writtenChunks = new BitSet();
+
+    // offset -> length
+    private final TreeMap<Long, Integer> writtenRanges = new TreeMap<>();
+
+    private final String layout;
+
+    private int chunkSize;
+
+    // layout of the loaded journal, null if it is not known
+    private String journaledLayout;
+
+    private int lastChunkNum = -1;
+
+    private boolean resumed;
+
+    private Writer writer;
+
+    private ChunkJournal(Path path, String layout) {
+        this.path = path;
+        this.layout = layout;
+    }
+
+    /**
+     * Opens the journal of the chunks of the server chunk size, see {@link #open(Path, long, String, String, int)}.
+     */
+    public static ChunkJournal open(Path path, long fileSize, String fileCheckSum) throws IOException {
+        return open(path, fileSize, fileCheckSum, Global.TRANSFER_MODE_CHUNKS, 0);
+    }
+
+    /**
+     * Loads the journal if it exists and belongs to the given file and layout. Otherwise, starts a new one.
+     *
+     * @param path journal file
+     * @param fileSize expected size of the file
+     * @param fileCheckSum expected checksum of the file
+     * @param layout transfer mode the chunks are fetched by
+     * @param chunkSize expected chunk size or 0 if it is defined by the server
+     * @return opened journal
+     */
+    public static ChunkJournal open(Path path, long fileSize, String fileCheckSum, String layout, int chunkSize)
+            throws IOException {
+        ChunkJournal journal = new ChunkJournal(path, layout);
+        String fileRecord = FILE_RECORD + " " + fileSize + " " + fileCheckSum;
+        if (Files.exists(path)) {
+            journal.resumed = journal.load(fileRecord, chunkSize);
+        }
+        if (journal.resumed) {
+            journal.writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+            if (!endsWithNewLine(path)) {
+                // the last record is cut, do not let it spoil the next one
+                journal.writer.write('\n');
+            }
+        } else {
+            journal.writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+            journal.append(fileRecord);
+        }
+        return journal;
+    }
+
+    /**
+     * @return true if the journal is loaded from the previous run, i.e. the temp file content should be kept
+     */
+    public boolean isResumed() {
+        return resumed;
+    }
+
+    public synchronized int getChunkSize() {
+        return chunkSize;
+    }
+
+    public synchronized void chunkSize(int chunkSize) throws IOException {
+        if (this.chunkSize == chunkSize) {
+            return;
+        }
+        if (this.chunkSize != 0) {
+            throw new IllegalStateException("Chunk size " + chunkSize + " differs from journaled " + this.chunkSize);
+        }
+        this.chunkSize = chunkSize;
+        append(CHUNK_SIZE_RECORD + " " + layout + " " + chunkSize);
+    }
+
+    public synchronized void written(int chunkNum, long offset, int length, boolean last) throws IOException {
+        append(CHUNK_RECORD + " " + chunkNum + " " + offset + " " + length + " " + last);
+        writtenChunks.set(chunkNum);
+        writtenRanges.put(offset, length);
+        if (last) {
+            lastChunkNum = chunkNum;
+        }
+    }
+
+    public synchronized boolean isWritten(int chunkNum) {
+        return writtenChunks.get(chunkNum);
+    }
+
+    public synchronized int getWrittenCount() {
+        return writtenChunks.cardinality();
+    }
+
+    /**
+     * @return offset to length map of the written chunks
+     */
+    public synchronized SortedMap<Long, Integer> getWrittenRanges() {
+        return new TreeMap<>(writtenRanges);
+    }
+
+    /**
+     * @return number of the written last chunk or -1 if it is not written yet
+     */
+    public synchronized int getLastChunkNum() {
+        return lastChunkNum;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    public void delete() {
+        try {
+            close();
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Cannot delete journal {}", path, e);
+        }
+    }
+
+    private boolean load(String fileRecord, int expectedChunkSize) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            if (!fileRecord.equals(reader.readLine())) {
+                log.info("Journal {} belongs to another file, starting from scratch", path);
+                return false;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    loadRecord(line.split(" "));
+                }
+            }
+        }
+        if (chunkSize != 0 && (!layout.equals(journaledLayout)
+                || expectedChunkSize != 0 && expectedChunkSize != chunkSize)) {
+            log.info("Journal {} is written by {} of {} bytes, now they are {} of {}, starting from scratch", path,
+                    journaledLayout, chunkSize, layout, expectedChunkSize == 0 ? "server size" : expectedChunkSize);
+            reset();
+            return false;
+        }
+        return true;
+    }
+
+    private void reset() {
+        chunkSize = 0;
+        lastChunkNum = -1;
+        writtenChunks.clear();
+        writtenRanges.clear();
+    }
+
+    private void loadRecord(String[] record) {
+        try {
+            if (CHUNK_SIZE_RECORD.equals(record[0]) && record.length == 3) {
+                journaledLayout = record[1];
+                chunkSize = Integer.parseInt(record[2]);
+            } else if (CHUNK_SIZE_RECORD.equals(record[0]) && record.length == 2) {
+                // written before the layout is journaled, it is unknown
+                chunkSize = Integer.parseInt(record[1]);
+            } else if (CHUNK_RECORD.equals(record[0]) && record.length == 5) {
+                int chunkNum = Integer.parseInt(record[1]);
+                long offset = Long.parseLong(record[2]);
+                int length = Integer.parseInt(record[3]);
+                if (chunkSize == 0 || offset != (long) chunkNum * chunkSize) {
+                    log.warn("Journaled chunk {} does not fit chunk size {}, ignoring", chunkNum, chunkSize);
+                    return;
+                }
+                writtenChunks.set(chunkNum);
+                writtenRanges.put(offset, length);
+                if (Boolean.parseBoolean(record[4])) {
+                    lastChunkNum = chunkNum;
+                }
+            } else {
+                log.warn("Unknown journal record {}, ignoring", String.join(" ", record));
+            }
+        } catch (NumberFormatException e) {
+            log.warn("Broken journal record {}, ignoring", String.join(" ", record));
+        }
+    }
+
+    private static boolean endsWithNewLine(Path path) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "r")) {
+            if (file.length() == 0) {
+                return true;
+            }
+            file.seek(file.length() - 1);
+            return file.read() == '\n';
+        }
+    }
+
+    private void append(String record) throws IOException {
+        if (writer == null) {
+            throw new IOException("Journal " + path + " is closed");
+        }
+        writer.write(record);
+        writer.write('\n');
+        writer.flush();
+    }
+}
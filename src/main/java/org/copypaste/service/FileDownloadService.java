@@ -0,0 +1,498 @@
+package org.copypaste.service;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.copypaste.consts.Global;
+import org.copypaste.data.ChunkResponse;
+import org.copypaste.data.FileChunk;
+import org.copypaste.data.FileSummary;
+import org.copypaste.data.RangeResponse;
+import org.copypaste.data.Response;
+import org.copypaste.interthread_data.FileChunkImmutable;
+import org.copypaste.util.AdaptiveWindow;
+import org.copypaste.util.BinaryChunkResponseDecoder;
+import org.copypaste.util.ChecksumAlgorithm;
+import org.copypaste.util.HttpConnector;
+import org.copypaste.util.RangeResponseDecoder;
+import org.copypaste.util.RangeSizer;
+import org.copypaste.util.ResponseDecoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Downloads one file by chunks. Several files may be downloaded at once, every download gets its own
+ * {@link SavePipeline}.
+ * <ul>
+ * <li>Chunks already written by the previous failed run are taken from the saver journal and are not fetched
+ * again.</li>
+ * <li>Chunks are fetched concurrently. The first chunk is fetched alone, its size defines the offsets of the others.
+ * After it up to "chunks in flight" requests are kept running over the given (pooled) client. Each fetched chunk is
+ * put to the saver with its offset, so the saver does not depend on the order of the replies.</li>
+ * <li>With "adaptive window" the number of the requests in flight starts from "chunks in flight" and follows the
+ * latency and the failures of the requests up to "max chunks in flight" (see {@link AdaptiveWindow}). Every download
+ * has its own window, so the concurrent downloads share the server like TCP connections share the link.</li>
+ * <li>With "ranges" transfer mode the file is fetched by HTTP Range requests of the client chosen size instead. The
+ * file size is cut to the parts of "range min" size, they are the journal chunks. A range is a run of the missing parts,
+ * the number of the parts follows the measured throughput and latency (see {@link RangeSizer}). Parts have no checksum
+ * of their own, the file checksum verifies them.</li>
+ * <li>With "blocking" HTTP engine every request in flight takes a fetcher thread. With "async" one the requests are
+ * sent by the non-blocking client of {@link HttpClientFactory}, so any number of them run on its few I/O threads.
+ * Either way a request is a {@link CompletableFuture}, completed requests are taken in the order they complete. When
+ * the download fails the requests in flight are cancelled before the saver is released.</li>
+ * </ul>
+ */
+@Service
+public class FileDownloadService {
+
+    private static final Logger log = LoggerFactory.getLogger(FileDownloadService.class);
+
+    private final ThreadFactory fetcherThreadFactory = new FetcherThreadFactory();
+
+    private Map<String, String> configMap;
+
+    private AsyncSaveService asyncSaveService;
+
+    private HttpClientFactory httpClientFactory;
+
+    private MetricsService metricsService;
+
+    // stateless, shared by all the chunk requests
+    private final BinaryChunkResponseDecoder binaryChunkDecoder = new BinaryChunkResponseDecoder();
+
+    @Autowired
+    public void setConfigMap(Map<String, String> configMap) {
+        this.configMap = configMap;
+    }
+
+    @Autowired
+    public void setAsyncSaveService(AsyncSaveService asyncSaveService) {
+        this.asyncSaveService = asyncSaveService;
+    }
+
+    @Autowired
+    public void setMetricsService(MetricsService metricsService) {
+        this.metricsService = metricsService;
+    }
+
+    @Autowired
+    public void setHttpClientFactory(HttpClientFactory httpClientFactory) {
+        this.httpClientFactory = httpClientFactory;
+    }
+
+    /**
+     * Downloads the file to the incoming directory. On failure the temp file and its journal stay for the next run.
+     *
+     * @param httpClient client to use, it is not closed
+     * @param fileSummary the file to download
+     */
+    public void download(CloseableHttpClient httpClient, FileSummary fileSummary)
+            throws InterruptedException, IOException {
+        AdaptiveWindow window = newWindow();
+
+        SavePipeline savePipeline = asyncSaveService.newPipeline();
+        // the non-blocking engine needs no threads of its own
+        ExecutorService fetchers = Global.HTTP_ENGINE_ASYNC.equals(configMap.get(Global.HTTP_ENGINE_KEY))
+                ? null : Executors.newFixedThreadPool(window.getMaxWindow(), fetcherThreadFactory);
+        Requests requests = new Requests(fetchers);
+        try {
+            savePipeline.setFileName(fileSummary.getName());
+            savePipeline.setFileCheckSum(fileSummary.getCheckSum());
+            savePipeline.setFileCheckSumAlgorithm(ChecksumAlgorithm.of(fileSummary.getCheckSumAlgorithm()));
+            savePipeline.setParanoidCheckSum(Boolean.parseBoolean(configMap.get(Global.PARANOID_CHECKSUM_KEY)));
+            savePipeline.setPreallocate(Boolean.parseBoolean(configMap.get(Global.PREALLOCATE_KEY)));
+            savePipeline.setMemoryMapped(Global.WRITE_MODE_MMAP.equals(configMap.get(Global.WRITE_MODE_KEY)));
+            savePipeline.setFsyncEveryChunks(Integer.parseInt(configMap.get(Global.FSYNC_EVERY_CHUNKS_KEY)));
+            boolean ranges = Global.TRANSFER_MODE_RANGES.equals(configMap.get(Global.TRANSFER_MODE_KEY));
+            // the chunks journaled by another layout do not fit this one, then the file is fetched from scratch
+            ChunkJournal journal = ranges
+                    ? savePipeline.openJournal(fileSummary.getSize(), Global.TRANSFER_MODE_RANGES, rangePartSize())
+                    : savePipeline.openJournal(fileSummary.getSize(), Global.TRANSFER_MODE_CHUNKS, 0);
+            if (journal.getWrittenCount() > 0) {
+                log.info("Resuming {}, {} chunks are already written", fileSummary.getName(),
+                        journal.getWrittenCount());
+            }
+            savePipeline.start();
+
+            if (ranges) {
+                fetchRanges(requests, httpClient, savePipeline, journal, fileSummary, window);
+            } else {
+                fetchChunks(requests, httpClient, savePipeline, journal, fileSummary, window);
+            }
+
+            // need to wait till saver will finish
+            savePipeline.awaitDone();
+            log.debug("Downloaded {} with window of {} requests", fileSummary.getName(), window.getWindow());
+        } finally {
+            // the replies of the failed download are of no use, the saver is released right after
+            requests.cancelAll();
+            if (fetchers != null) {
+                fetchers.shutdownNow();
+            }
+            // on failure the temp file and its journal stay for the next run, already queued chunks are written first
+            savePipeline.releaseTemp();
+        }
+    }
+
+    private void fetchChunks(Requests requests, CloseableHttpClient httpClient, SavePipeline savePipeline,
+                             ChunkJournal journal, FileSummary fileSummary, AdaptiveWindow window)
+            throws InterruptedException, IOException {
+        HttpConnector<ChunkResponse> chunkConnector = newChunkConnector(httpClient, window);
+        int chunkSize = journal.getChunkSize();
+        boolean hasNextChunk = journal.getLastChunkNum() != 0;
+        if (!journal.isWritten(0)) {
+            // the first chunk is fetched alone, it defines the chunk size and therefore the offsets of the others
+            FileChunkImmutable firstChunk = await(fetchChunk(requests, chunkConnector, fileSummary.getName(), 0, 0),
+                    "Cannot fetch chunk. Giving up");
+            hasNextChunk = firstChunk.isHasNextChunk();
+            chunkSize = firstChunk.getChunkEncodedContent().length;
+            if (journal.getChunkSize() != 0 && journal.getChunkSize() != chunkSize) {
+                // the server chunk size is changed, the journaled chunks are of no use
+                savePipeline.discardTemp();
+                throw new RuntimeException(MessageFormat.format(
+                        "Chunk size {0} differs from journaled {1}, the written chunks are dropped",
+                        chunkSize, journal.getChunkSize()));
+            }
+            journal.chunkSize(chunkSize);
+            savePipeline.put(firstChunk);
+        }
+        if (hasNextChunk) {
+            if (chunkSize == 0) {
+                throw new RuntimeException("Remote side returned empty first chunk of not empty file");
+            }
+            long chunksNumber = (fileSummary.getSize() + chunkSize - 1) / chunkSize;
+            if (chunksNumber < 2 || chunksNumber > Integer.MAX_VALUE) {
+                throw new RuntimeException(MessageFormat.format(
+                        "File size {0} does not match chunk size {1}",
+                        fileSummary.getSize(), chunkSize));
+            }
+            List<Integer> missingChunks = new ArrayList<>();
+            for (int chunkNum = 1; chunkNum < chunksNumber; chunkNum++) {
+                if (!journal.isWritten(chunkNum)) {
+                    missingChunks.add(chunkNum);
+                }
+            }
+            fetchConcurrently(requests, chunkConnector, savePipeline, fileSummary, chunkSize, (int) chunksNumber,
+                    missingChunks, window);
+        }
+    }
+
+    /**
+     * Keeps up to the window of range requests running. The next range is taken from the head of the first
+     * run of missing parts, its length is the current choice of the sizer.
+     */
+    private void fetchRanges(Requests requests, CloseableHttpClient httpClient, SavePipeline savePipeline,
+                             ChunkJournal journal, FileSummary fileSummary, AdaptiveWindow window)
+            throws InterruptedException, IOException {
+        int partSize = rangePartSize();
+        long maxRange = Long.parseLong(configMap.get(Global.RANGE_MAX_KB_KEY)) * 1024;
+        RangeSizer sizer = new RangeSizer(partSize, (int) Math.max(1, Math.min(maxRange, Integer.MAX_VALUE) / partSize));
+        journal.chunkSize(partSize);
+
+        long fileSize = fileSummary.getSize();
+        if (fileSize == 0) {
+            // nothing to ask the range of, the empty last part completes the file
+            if (!journal.isWritten(0)) {
+                savePipeline.put(new FileChunkImmutable(new byte[0], null, null, false, 0, 0));
+            }
+            return;
+        }
+        long partsNumber = (fileSize + partSize - 1) / partSize;
+        if (partsNumber > Integer.MAX_VALUE) {
+            throw new RuntimeException(MessageFormat.format(
+                    "File size {0} is too big for range size {1}", fileSize, partSize));
+        }
+
+        // the decoder checks the length of every range, the connector guards against the longest one
+        HttpConnector<RangeResponse> rangeConnector = newRangeConnector(httpClient, window,
+                (int) Math.min(fileSize, (long) sizer.getMaxParts() * partSize));
+
+        // runs of missing parts: first part, end part (exclusive)
+        Deque<int[]> missingRuns = new ArrayDeque<>();
+        for (int partNum = 0; partNum < partsNumber; partNum++) {
+            if (journal.isWritten(partNum)) {
+                continue;
+            }
+            int[] last = missingRuns.peekLast();
+            if (last != null && last[1] == partNum) {
+                last[1]++;
+            } else {
+                missingRuns.addLast(new int[] {partNum, partNum + 1});
+            }
+        }
+
+        BlockingQueue<Future<List<FileChunkImmutable>>> completed = new LinkedBlockingQueue<>();
+        int inFlight = 0;
+        while (inFlight > 0 || !missingRuns.isEmpty()) {
+            while (inFlight < window.getWindow() && !missingRuns.isEmpty()) {
+                int[] run = missingRuns.peekFirst();
+                int firstPart = run[0];
+                int parts = Math.min(sizer.getParts(), run[1] - run[0]);
+                run[0] += parts;
+                if (run[0] == run[1]) {
+                    missingRuns.pollFirst();
+                }
+                CompletableFuture<List<FileChunkImmutable>> range =
+                        fetchRange(requests, rangeConnector, fileSummary, sizer, firstPart, parts);
+                range.whenComplete((rangeParts, e) -> completed.add(range));
+                inFlight++;
+            }
+            if (savePipeline.getThrowable() != null) {
+                throw new RuntimeException("Async save error. Giving up", savePipeline.getThrowable());
+            }
+            List<FileChunkImmutable> rangeParts = await(completed.take(), "Cannot fetch range. Giving up");
+            inFlight--;
+            for (FileChunkImmutable part : rangeParts) {
+                savePipeline.put(part);
+            }
+        }
+    }
+
+    /**
+     * Keeps up to the window of chunk requests running. Every completed chunk is checked to fit the layout
+     * defined by the first chunk and is passed to the saver, after that the next request is submitted.
+     */
+    private void fetchConcurrently(Requests requests, HttpConnector<ChunkResponse> chunkConnector,
+                                   SavePipeline savePipeline, FileSummary fileSummary, int chunkSize,
+                                   int chunksNumber, List<Integer> chunkNums, AdaptiveWindow window)
+            throws InterruptedException {
+        BlockingQueue<Future<FileChunkImmutable>> completed = new LinkedBlockingQueue<>();
+        String fileName = fileSummary.getName();
+        Iterator<Integer> nextChunkNums = chunkNums.iterator();
+        int inFlight = 0;
+        int received = 0;
+        while (received < chunkNums.size()) {
+            while (inFlight < window.getWindow() && nextChunkNums.hasNext()) {
+                int chunkNum = nextChunkNums.next();
+                long offset = (long) chunkNum * chunkSize;
+                CompletableFuture<FileChunkImmutable> chunk =
+                        fetchChunk(requests, chunkConnector, fileName, chunkNum, offset);
+                chunk.whenComplete((fileChunk, e) -> completed.add(chunk));
+                inFlight++;
+            }
+            if (savePipeline.getThrowable() != null) {
+                throw new RuntimeException("Async save error. Giving up", savePipeline.getThrowable());
+            }
+            FileChunkImmutable fileChunk = await(completed.take(), "Cannot fetch chunk. Giving up");
+            inFlight--;
+            received++;
+            requireChunkLayout(savePipeline, fileChunk, fileSummary.getSize(), chunkSize, chunksNumber);
+            savePipeline.put(fileChunk);
+        }
+    }
+
+    /**
+     * @return connector of all the chunk requests of the download, they differ only by the parameters
+     */
+    private HttpConnector<ChunkResponse> newChunkConnector(CloseableHttpClient httpClient, AdaptiveWindow window) {
+        int retries = Integer.parseInt(configMap.get(Global.RETRIES_NUMBER_KEY));
+        boolean binaryChunks = Boolean.parseBoolean(configMap.get(Global.BINARY_CHUNKS_KEY));
+        return HttpConnector.as(ChunkResponse.class)
+                .httpClient(httpClient)
+                .asyncClient(httpClientFactory.getAsyncClient())
+                .serverUrl(configMap.get(Global.SERVER_URL_KEY))
+                .endPoint(Global.CHUNK_END_POINT)
+                .maxBuffer(1024 * 1024 * 5) // 5MB
+                .requestConfig(httpClientFactory.getRequestConfig())
+                .retryPolicy(httpClientFactory.getRetryPolicy())
+                .meterRegistry(metricsService.getRegistry())
+                .retries(retries)
+                .decoder(binaryChunks ? binaryChunkDecoder : null)
+                .listener(window)
+                .build();
+    }
+
+    private CompletableFuture<FileChunkImmutable> fetchChunk(Requests requests,
+                                                             HttpConnector<ChunkResponse> chunkConnector,
+                                                             String fileName, int chunkNum, long offset) {
+        Map<String, String> parameters = new HashMap<>(4);
+        parameters.put(Global.FILE_PARAM, fileName);
+        parameters.put(Global.CHUNK_NUM_PARAM, Integer.toString(chunkNum));
+        return requests.send(chunkConnector, parameters).thenApply(chunkResponse -> {
+            if (!chunkResponse.isSuccess()) {
+                throw new RuntimeException("Remote error on chunk " + chunkNum + " . Remote reply is: " + chunkResponse.getException());
+            }
+            FileChunk fileChunk = chunkResponse.getPayload();
+            return new FileChunkImmutable(fileChunk, chunkNum, offset);
+        });
+    }
+
+    /**
+     * @return connector of all the range requests of the download, the range and its decoder are given per request
+     */
+    private HttpConnector<RangeResponse> newRangeConnector(CloseableHttpClient httpClient, AdaptiveWindow window,
+                                                           int maxRange) {
+        int retries = Integer.parseInt(configMap.get(Global.RETRIES_NUMBER_KEY));
+        return HttpConnector.as(RangeResponse.class)
+                .httpClient(httpClient)
+                .asyncClient(httpClientFactory.getAsyncClient())
+                .serverUrl(configMap.get(Global.SERVER_URL_KEY))
+                .endPoint(configMap.get(Global.RANGE_END_POINT_KEY))
+                .maxBuffer(Math.max(1024, maxRange))
+                .requestConfig(httpClientFactory.getRequestConfig())
+                .retryPolicy(httpClientFactory.getRetryPolicy())
+                .meterRegistry(metricsService.getRegistry())
+                .retries(retries)
+                .listener(window)
+                .build();
+    }
+
+    private CompletableFuture<List<FileChunkImmutable>> fetchRange(Requests requests,
+                                                                   HttpConnector<RangeResponse> rangeConnector,
+                                                                   FileSummary fileSummary, RangeSizer sizer,
+                                                                   int firstPart, int parts) {
+        int partSize = sizer.getPartSize();
+        long fileSize = fileSummary.getSize();
+        long first = (long) firstPart * partSize;
+        long last = Math.min(fileSize, first + (long) parts * partSize) - 1;
+        // the decoder keeps the timings of its range
+        RangeResponseDecoder decoder = new RangeResponseDecoder(first, last, partSize);
+        Map<String, String> parameters = new HashMap<>(2);
+        parameters.put(Global.FILE_PARAM, fileSummary.getName());
+        Map<String, String> headers = Collections.singletonMap(HttpHeaders.RANGE, decoder.range());
+        long startNanos = System.nanoTime();
+        return requests.send(rangeConnector, parameters, headers, decoder).thenApply(rangeResponse -> {
+            sizer.completed(last - first + 1, decoder.getHeadersNanos() - startNanos, decoder.getTransferNanos());
+            return toParts(rangeResponse, fileSize, firstPart, first);
+        });
+    }
+
+    private static List<FileChunkImmutable> toParts(RangeResponse rangeResponse, long fileSize, int firstPart,
+                                                    long first) {
+        List<FileChunkImmutable> fileChunks = new ArrayList<>(rangeResponse.getPayload().size());
+        long offset = first;
+        int partNum = firstPart;
+        for (byte[] part : rangeResponse.getPayload()) {
+            boolean hasNextPart = offset + part.length < fileSize;
+            fileChunks.add(new FileChunkImmutable(part, null, null, hasNextPart, partNum++, offset));
+            offset += part.length;
+        }
+        return fileChunks;
+    }
+
+    private static <T> T await(Future<T> future, String message) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(message, e.getCause());
+        }
+    }
+
+    /**
+     * @return size of the range parts, they are the journal chunks of "ranges" transfer mode
+     */
+    private int rangePartSize() {
+        return Integer.parseInt(configMap.get(Global.RANGE_MIN_KB_KEY)) * 1024;
+    }
+
+    private AdaptiveWindow newWindow() {
+        int chunksInFlight = Integer.parseInt(configMap.get(Global.CHUNKS_IN_FLIGHT_KEY));
+        if (!Boolean.parseBoolean(configMap.get(Global.ADAPTIVE_WINDOW_KEY))) {
+            return AdaptiveWindow.fixed(chunksInFlight);
+        }
+        int maxChunksInFlight = Integer.parseInt(configMap.get(Global.MAX_CHUNKS_IN_FLIGHT_KEY));
+        return new AdaptiveWindow(chunksInFlight, 1, Math.max(chunksInFlight, maxChunksInFlight));
+    }
+
+    /**
+     * Chunks are written by offsets, therefore every chunk except the last one must be exactly of the first chunk
+     * size and only the last one may signalize there is no next chunk. Otherwise, the written chunks are dropped, the
+     * next run starts from scratch.
+     */
+    private void requireChunkLayout(SavePipeline savePipeline, FileChunkImmutable fileChunk, long fileSize,
+                                    int chunkSize, int chunksNumber) {
+        boolean last = fileChunk.getChunkNum() == chunksNumber - 1;
+        long expectedSize = last ? fileSize - fileChunk.getOffset() : chunkSize;
+        if (fileChunk.isHasNextChunk() == last || fileChunk.getChunkEncodedContent().length != expectedSize) {
+            savePipeline.discardTemp();
+            throw new RuntimeException(MessageFormat.format(
+                    "Chunk {0} does not fit the file layout. Expected size: {1} Got: {2}",
+                    fileChunk.getChunkNum(), expectedSize, fileChunk.getChunkEncodedContent().length));
+        }
+    }
+
+    /**
+     * Sends the requests of the download by the non-blocking engine if there are no fetcher threads, by a fetcher
+     * thread otherwise. Either way a request is a {@link CompletableFuture}. The requests in flight are kept, so the
+     * failed download cancels them.
+     */
+    private static class Requests {
+
+        private final Executor fetchers;
+
+        private final Set<CompletableFuture<?>> inFlight = ConcurrentHashMap.newKeySet();
+
+        Requests(Executor fetchers) {
+            this.fetchers = fetchers;
+        }
+
+        <T extends Response> CompletableFuture<T> send(HttpConnector<T> connector, Map<String, String> params) {
+            return track(fetchers == null
+                    ? connector.executeWithRetriesAsync(params)
+                    : CompletableFuture.supplyAsync(() -> connector.executeWithRetries(params), fetchers));
+        }
+
+        /**
+         * As {@link #send(HttpConnector, Map)}, the request has its own headers and decoder.
+         */
+        <T extends Response> CompletableFuture<T> send(HttpConnector<T> connector, Map<String, String> params,
+                                                       Map<String, String> headers, ResponseDecoder<T> decoder) {
+            return track(fetchers == null
+                    ? connector.executeWithRetriesAsync(params, headers, decoder)
+                    : CompletableFuture.supplyAsync(() -> connector.executeWithRetries(params, headers, decoder),
+                    fetchers));
+        }
+
+        /**
+         * Cancels the requests in flight. The non-blocking ones are aborted, the blocking ones are left to the
+         * interrupted fetcher threads.
+         */
+        void cancelAll() {
+            for (CompletableFuture<?> request : inFlight) {
+                request.cancel(true);
+            }
+        }
+
+        private <T> CompletableFuture<T> track(CompletableFuture<T> request) {
+            inFlight.add(request);
+            request.whenComplete((response, e) -> inFlight.remove(request));
+            return request;
+        }
+    }
+
+    private static class FetcherThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Chunk Fetcher " + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
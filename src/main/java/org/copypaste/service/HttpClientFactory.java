@@ -0,0 +1,238 @@
+package org.copypaste.service;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.SocketConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.copypaste.consts.Global;
+import org.copypaste.util.RetryBudget;
+import org.copypaste.util.RetryPolicy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * The HTTP client shared by all the requests, tuned by the config:
+ * <ul>
+ * <li>Pooled connections to the server, "max connections" or, if it is 0, as many as requests in flight of all the
+ * files at once plus one for the metadata.</li>
+ * <li>Connections are kept alive for the time the server tells in <code>Keep-Alive</code> header or for "keep alive
+ * ms". Expired and idle for longer connections are evicted in background.</li>
+ * <li>A pooled connection idle for longer than "validate after inactivity ms" is checked before it is reused.</li>
+ * <li>Sockets are of "tcp no delay" and of "socket buffer kb" buffers (system default if 0).</li>
+ * <li>With "gzip" compressed responses are asked for and decompressed.</li>
+ * <li>With "async" HTTP engine there is the non-blocking client as well, its connections are served by "io threads"
+ * threads. It is started on demand, so the run which downloads nothing does not start it. It shares the pool size, the keep alive and the socket settings, however it does not decompress.</li>
+ * </ul>
+ * The request config of the timeouts is shared as well, so requests do not build it. So is the retry policy of
+ * "backoff base ms" to "backoff max ms" delays, its retry budget of "retry budget percent" retries per 100 successful
+ * requests and "retry budget burst" is the budget of all the requests to the server.
+ */
+@Service
+public class HttpClientFactory {
+
+    private static final Logger log = LoggerFactory.getLogger(HttpClientFactory.class);
+
+    private Map<String, String> configMap;
+
+    private CloseableHttpClient httpClient;
+
+    private RequestConfig requestConfig;
+
+    private CloseableHttpAsyncClient asyncClient;
+
+    private Supplier<CloseableHttpAsyncClient> asyncClientFactory;
+
+    private RetryPolicy retryPolicy;
+
+    private MetricsService metricsService;
+
+    @Autowired
+    public void setConfigMap(Map<String, String> configMap) {
+        this.configMap = configMap;
+    }
+
+    @Autowired
+    public void setMetricsService(MetricsService metricsService) {
+        this.metricsService = metricsService;
+    }
+
+    @PostConstruct
+    public void createClient() {
+        int timeout = Integer.parseInt(configMap.get(Global.TIME_OUT_MS_KEY));
+        requestConfig = RequestConfig.custom()
+                .setConnectionRequestTimeout(timeout)
+                .setConnectTimeout(timeout)
+                .setSocketTimeout(timeout)
+                .build();
+        RetryBudget retryBudget = new RetryBudget(Integer.parseInt(configMap.get(Global.RETRY_BUDGET_PERCENT_KEY)),
+                Integer.parseInt(configMap.get(Global.RETRY_BUDGET_BURST_KEY)));
+        metricsService.getRegistry().gauge("copypaste.http.retry.budget", retryBudget, RetryBudget::getRetries);
+        retryPolicy = new RetryPolicy(
+                Long.parseLong(configMap.get(Global.BACKOFF_BASE_MS_KEY)),
+                Math.max(Long.parseLong(configMap.get(Global.BACKOFF_BASE_MS_KEY)),
+                        Long.parseLong(configMap.get(Global.BACKOFF_MAX_MS_KEY))),
+                retryBudget);
+
+        int maxConnections = maxConnections();
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+        connectionManager.setValidateAfterInactivity(
+                Integer.parseInt(configMap.get(Global.VALIDATE_AFTER_INACTIVITY_MS_KEY)));
+        int socketBuffer = Integer.parseInt(configMap.get(Global.SOCKET_BUFFER_KB_KEY)) * 1024;
+        SocketConfig.Builder socketConfig = SocketConfig.custom()
+                .setTcpNoDelay(Boolean.parseBoolean(configMap.get(Global.TCP_NO_DELAY_KEY)))
+                .setSoKeepAlive(true)
+                .setSoTimeout(timeout);
+        if (socketBuffer > 0) {
+            socketConfig.setRcvBufSize(socketBuffer).setSndBufSize(socketBuffer);
+        }
+        connectionManager.setDefaultSocketConfig(socketConfig.build());
+
+        long keepAlive = Long.parseLong(configMap.get(Global.KEEP_ALIVE_MS_KEY));
+        ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+            long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return serverKeepAlive > 0 ? serverKeepAlive : keepAlive;
+        };
+        if (Global.HTTP_ENGINE_ASYNC.equals(configMap.get(Global.HTTP_ENGINE_KEY))) {
+            // started by the first download
+            asyncClientFactory = () -> createAsyncClient(maxConnections, socketBuffer, keepAliveStrategy);
+        }
+
+        HttpClientBuilder builder = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy(keepAliveStrategy)
+                .setDefaultRequestConfig(requestConfig)
+                .evictExpiredConnections()
+                .evictIdleConnections(keepAlive, TimeUnit.MILLISECONDS);
+        if (!Boolean.parseBoolean(configMap.get(Global.GZIP_KEY))) {
+            builder.disableContentCompression();
+        }
+        httpClient = builder.build();
+        log.debug("HTTP client of {} connections is created", maxConnections);
+    }
+
+    @PreDestroy
+    public synchronized void closeClient() {
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            log.error("Cannot close HttpClient", e);
+        }
+        if (asyncClient != null) {
+            try {
+                asyncClient.close();
+            } catch (IOException e) {
+                log.error("Cannot close HttpAsyncClient", e);
+            }
+        }
+    }
+
+    /**
+     * @return the shared client, it should not be closed
+     */
+    public CloseableHttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    /**
+     * @return the shared non-blocking client, it should not be closed. Null unless the HTTP engine is "async".
+     */
+    public synchronized CloseableHttpAsyncClient getAsyncClient() {
+        if (asyncClient == null && asyncClientFactory != null) {
+            asyncClient = asyncClientFactory.get();
+        }
+        return asyncClient;
+    }
+
+    /**
+     * @return the request config of the configured timeouts
+     */
+    public RequestConfig getRequestConfig() {
+        return requestConfig;
+    }
+
+    /**
+     * @return the retry policy of the configured backoff and the shared retry budget
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    private CloseableHttpAsyncClient createAsyncClient(int maxConnections, int socketBuffer,
+                                                       ConnectionKeepAliveStrategy keepAliveStrategy) {
+        int timeout = Integer.parseInt(configMap.get(Global.TIME_OUT_MS_KEY));
+        IOReactorConfig.Builder reactorConfig = IOReactorConfig.custom()
+                .setIoThreadCount(Integer.parseInt(configMap.get(Global.IO_THREADS_KEY)))
+                .setTcpNoDelay(Boolean.parseBoolean(configMap.get(Global.TCP_NO_DELAY_KEY)))
+                .setSoKeepAlive(true)
+                .setConnectTimeout(timeout)
+                .setSoTimeout(timeout);
+        if (socketBuffer > 0) {
+            reactorConfig.setRcvBufSize(socketBuffer).setSndBufSize(socketBuffer);
+        }
+        // daemon threads as all the others, the reactor should not keep the application running
+        AtomicInteger dispatcherCounter = new AtomicInteger();
+        PoolingNHttpClientConnectionManager connectionManager;
+        try {
+            connectionManager = new PoolingNHttpClientConnectionManager(
+                    new DefaultConnectingIOReactor(reactorConfig.build(), r -> {
+                        Thread t = new Thread(r, "I/O Dispatcher " + dispatcherCounter.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }));
+        } catch (IOReactorException e) {
+            throw new RuntimeException("Cannot create I/O reactor", e);
+        }
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+        CloseableHttpAsyncClient asyncClient = HttpAsyncClients.custom()
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy(keepAliveStrategy)
+                .setDefaultRequestConfig(requestConfig)
+                .setThreadFactory(r -> {
+                    Thread t = new Thread(r, "I/O Reactor");
+                    t.setDaemon(true);
+                    return t;
+                })
+                .build();
+        asyncClient.start();
+        log.debug("Non-blocking HTTP client of {} connections is started", maxConnections);
+        return asyncClient;
+    }
+
+    private int maxConnections() {
+        int maxConnections = Integer.parseInt(configMap.get(Global.MAX_CONNECTIONS_KEY));
+        if (maxConnections > 0) {
+            return maxConnections;
+        }
+        int chunksInFlight = Integer.parseInt(configMap.get(Global.CHUNKS_IN_FLIGHT_KEY));
+        if (Boolean.parseBoolean(configMap.get(Global.ADAPTIVE_WINDOW_KEY))) {
+            chunksInFlight = Math.max(chunksInFlight, Integer.parseInt(configMap.get(Global.MAX_CHUNKS_IN_FLIGHT_KEY)));
+        }
+        boolean syncAll = Global.SYNC_MODE_ALL.equals(configMap.get(Global.SYNC_MODE_KEY));
+        int filesInFlight = syncAll ? Integer.parseInt(configMap.get(Global.FILES_IN_FLIGHT_KEY)) : 1;
+        // one more for the case the metadata connection is still kept by the pool
+        return chunksInFlight * filesInFlight + 1;
+    }
+}
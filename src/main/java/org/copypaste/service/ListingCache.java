@@ -0,0 +1,355 @@
+package org.copypaste.service;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.copypaste.consts.Global;
+import org.copypaste.data.FileMetaResponse;
+import org.copypaste.data.FileSummary;
+import org.copypaste.util.FileListingDecoder;
+import org.copypaste.util.HttpStatusException;
+import org.copypaste.util.ResponseDecoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.Consumer;
+
+/**
+ * The last listing of the server kept on the disk with its validators, the ETag and the Last-Modified of the reply:
+ * <ul>
+ * <li>The listing request carries the validators as <code>If-None-Match</code> and <code>If-Modified-Since</code>, see
+ * {@link #conditionalHeaders()}. The listing is kept only if the server sent any of them.</li>
+ * <li>The decoder of the listing copies the reply to the disk while it is parsed and keeps every successful listing of
+ * a single page. On 304 the kept listing is visited. In "newest" sync mode that is the newest file alone, kept next to
+ * the validators, so the unchanged listing is not parsed at all.</li>
+ * <li>In "all" sync mode the listing is marked once all its files are in the incoming directory, along with the
+ * modification time of the directory, see {@link #synced(long)}. On 304 of the marked listing, if the directory is not
+ * modified since, the listing is not visited and the response is "not modified". Otherwise the kept listing is parsed
+ * again.</li>
+ * <li>The listing is the raw reply in <code>listing.json</code>, the validators and the newest file are in
+ * <code>listing.properties</code>, both in the config directory. Each one is replaced at once, the properties are
+ * written last.</li>
+ * </ul>
+ * Without "listing cache" no validators are sent and nothing is kept.
+ */
+@Service
+public class ListingCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ListingCache.class);
+
+    private static final String ETAG = "etag";
+
+    private static final String LAST_MODIFIED = "last_modified";
+
+    private static final String NEWEST_NAME = "newest.name";
+
+    private static final String NEWEST_SIZE = "newest.size";
+
+    private static final String NEWEST_CHECK_SUM = "newest.check_sum";
+
+    private static final String NEWEST_CHECK_SUM_ALGORITHM = "newest.check_sum_algorithm";
+
+    private static final String NEWEST_CREATION_TIME = "newest.creation_time";
+
+    private static final String SYNCED_INCOMING_MODIFIED = "synced.incoming_modified";
+
+    private Map<String, String> configMap;
+
+    private Path directory = Paths.get(Global.CONFIG_DIRECTORY);
+
+    private Path incomingDirectory = Paths.get(Global.INCOMING_DIRECTORY);
+
+    @Autowired
+    public void setConfigMap(Map<String, String> configMap) {
+        this.configMap = configMap;
+    }
+
+    /**
+     * @param directory directory of the kept listing, the config directory by default
+     */
+    public void setDirectory(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @param incomingDirectory directory of the synced files, the incoming directory by default
+     */
+    public void setIncomingDirectory(Path incomingDirectory) {
+        this.incomingDirectory = incomingDirectory;
+    }
+
+    /**
+     * @return modification time of the incoming directory, it changes once a file is added, removed or renamed there
+     */
+    public long incomingModified() {
+        return incomingDirectory.toFile().lastModified();
+    }
+
+    /**
+     * Marks the kept listing as synced, i.e. all its files are in the incoming directory.
+     *
+     * @param incomingModified modification time of the incoming directory taken before the listing was asked for, see
+     *                         {@link #incomingModified()}
+     */
+    public void synced(long incomingModified) {
+        Properties meta = loadMeta();
+        if (meta == null || Long.toString(incomingModified).equals(meta.getProperty(SYNCED_INCOMING_MODIFIED))) {
+            return;
+        }
+        meta.setProperty(SYNCED_INCOMING_MODIFIED, Long.toString(incomingModified));
+        try {
+            storeMeta(meta);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Cannot mark the kept listing as synced", e);
+        }
+    }
+
+    /**
+     * @return validators of the kept listing as request headers, empty if nothing is kept
+     */
+    public Map<String, String> conditionalHeaders() {
+        Properties meta = loadMeta();
+        if (meta == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> headers = new HashMap<>();
+        String etag = meta.getProperty(ETAG);
+        if (etag != null) {
+            headers.put(HttpHeaders.IF_NONE_MATCH, etag);
+        }
+        String lastModified = meta.getProperty(LAST_MODIFIED);
+        if (lastModified != null) {
+            headers.put(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+        }
+        return headers;
+    }
+
+    /**
+     * @param visitor visitor of the listed files, see {@link FileListingDecoder}
+     * @return decoder of the listing which keeps it, or the plain one without "listing cache"
+     */
+    public ResponseDecoder<FileMetaResponse> decoder(Consumer<FileSummary> visitor) {
+        FileListingDecoder listingDecoder = new FileListingDecoder(visitor);
+        if (!Boolean.parseBoolean(configMap.get(Global.LISTING_CACHE_KEY))) {
+            return listingDecoder;
+        }
+        return new ResponseDecoder<FileMetaResponse>() {
+
+            @Override
+            public String accept() {
+                return listingDecoder.accept();
+            }
+
+            @Override
+            public FileMetaResponse decode(HttpResponse response, InputStream content, int maxBuffer)
+                    throws IOException {
+                Path temp;
+                try {
+                    Files.createDirectories(directory);
+                    temp = Files.createTempFile(directory, Global.LISTING_CACHE_FILE, ".tmp");
+                } catch (IOException e) {
+                    log.warn("Cannot keep the listing", e);
+                    return listingDecoder.decode(content);
+                }
+                try {
+                    FileSummary[] newest = new FileSummary[1];
+                    FileMetaResponse fileMetaResponse;
+                    try (OutputStream copy = Files.newOutputStream(temp)) {
+                        fileMetaResponse = new FileListingDecoder(fileSummary -> {
+                            newest[0] = fileSummary;
+                            visitor.accept(fileSummary);
+                        }).decode(new CopyingInputStream(content, copy));
+                    }
+                    String nextCursor = fileMetaResponse.getNextCursor();
+                    if (fileMetaResponse.isSuccess() && (nextCursor == null || nextCursor.isEmpty())) {
+                        keep(response, temp, newest[0]);
+                    } else {
+                        // paged listing is not kept
+                        forget();
+                    }
+                    return fileMetaResponse;
+                } finally {
+                    Files.deleteIfExists(temp);
+                }
+            }
+
+            @Override
+            public FileMetaResponse notModified(HttpResponse response) throws IOException {
+                return visitKept(response, listingDecoder, visitor);
+            }
+        };
+    }
+
+    private void keep(HttpResponse response, Path listing, FileSummary newest) {
+        Header etag = response.getFirstHeader(HttpHeaders.ETAG);
+        Header lastModified = response.getFirstHeader(HttpHeaders.LAST_MODIFIED);
+        if (etag == null && lastModified == null) {
+            // nothing to validate the listing by
+            forget();
+            return;
+        }
+        Properties meta = new Properties();
+        if (etag != null) {
+            meta.setProperty(ETAG, etag.getValue());
+        }
+        if (lastModified != null) {
+            meta.setProperty(LAST_MODIFIED, lastModified.getValue());
+        }
+        if (newest != null) {
+            meta.setProperty(NEWEST_NAME, newest.getName());
+            meta.setProperty(NEWEST_SIZE, Long.toString(newest.getSize()));
+            meta.setProperty(NEWEST_CHECK_SUM, newest.getCheckSum());
+            meta.setProperty(NEWEST_CREATION_TIME, Long.toString(newest.getCreationTime()));
+            if (newest.getCheckSumAlgorithm() != null) {
+                meta.setProperty(NEWEST_CHECK_SUM_ALGORITHM, newest.getCheckSumAlgorithm());
+            }
+        }
+        try {
+            // the properties refer to the listing, so the listing goes first
+            Files.move(listing, listingFile(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            storeMeta(meta);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Cannot keep the listing", e);
+            forget();
+        }
+    }
+
+    private void storeMeta(Properties meta) throws IOException {
+        Path temp = Files.createTempFile(directory, Global.LISTING_CACHE_META_FILE, ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                meta.store(out, null);
+            }
+            Files.move(temp, metaFile(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void forget() {
+        try {
+            Files.deleteIfExists(metaFile());
+        } catch (IOException e) {
+            log.warn("Cannot forget the kept listing", e);
+        }
+    }
+
+    private FileMetaResponse visitKept(HttpResponse response, FileListingDecoder listingDecoder,
+                                       Consumer<FileSummary> visitor) throws IOException {
+        Properties meta = loadMeta();
+        if (meta == null) {
+            throw HttpStatusException.of(response);
+        }
+        FileMetaResponse fileMetaResponse;
+        if (Global.SYNC_MODE_ALL.equals(configMap.get(Global.SYNC_MODE_KEY))) {
+            if (Long.toString(incomingModified()).equals(meta.getProperty(SYNCED_INCOMING_MODIFIED))) {
+                log.debug("The listing is not modified since it was synced");
+                fileMetaResponse = new FileMetaResponse();
+                fileMetaResponse.setSuccess(true);
+                fileMetaResponse.setNotModified(true);
+                return fileMetaResponse;
+            }
+            try (InputStream listing = Files.newInputStream(listingFile())) {
+                fileMetaResponse = listingDecoder.decode(listing);
+            }
+        } else {
+            newest(meta).forEach(visitor);
+            fileMetaResponse = new FileMetaResponse();
+            fileMetaResponse.setSuccess(true);
+        }
+        log.debug("The listing is not modified, the kept one is used");
+        return fileMetaResponse;
+    }
+
+    private static List<FileSummary> newest(Properties meta) {
+        if (meta.getProperty(NEWEST_NAME) == null) {
+            return Collections.emptyList();
+        }
+        FileSummary newest = new FileSummary();
+        newest.setName(meta.getProperty(NEWEST_NAME));
+        newest.setSize(Long.parseLong(meta.getProperty(NEWEST_SIZE)));
+        newest.setCheckSum(meta.getProperty(NEWEST_CHECK_SUM));
+        newest.setCheckSumAlgorithm(meta.getProperty(NEWEST_CHECK_SUM_ALGORITHM));
+        newest.setCreationTime(Long.parseLong(meta.getProperty(NEWEST_CREATION_TIME)));
+        return Collections.singletonList(newest);
+    }
+
+    /**
+     * @return validators and the newest file of the kept listing, null if it is not kept or cannot be read
+     */
+    private Properties loadMeta() {
+        if (!Boolean.parseBoolean(configMap.get(Global.LISTING_CACHE_KEY))
+                || !metaFile().toFile().isFile() || !listingFile().toFile().isFile()) {
+            return null;
+        }
+        Properties meta = new Properties();
+        try (InputStream in = Files.newInputStream(metaFile())) {
+            meta.load(in);
+        } catch (IOException e) {
+            log.warn("Cannot load the kept listing", e);
+            return null;
+        }
+        return meta;
+    }
+
+    private Path listingFile() {
+        return directory.resolve(Global.LISTING_CACHE_FILE);
+    }
+
+    private Path metaFile() {
+        return directory.resolve(Global.LISTING_CACHE_META_FILE);
+    }
+
+    /**
+     * Copies the reply to the disk as the parser reads it.
+     */
+    private static class CopyingInputStream extends FilterInputStream {
+
+        private final OutputStream copy;
+
+        CopyingInputStream(InputStream in, OutputStream copy) {
+            super(in);
+            this.copy = copy;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                copy.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                copy.write(b, off, read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] skipped = new byte[(int) Math.min(n, 8192)];
+            int read = read(skipped, 0, skipped.length);
+            return Math.max(read, 0);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package org.copypaste.service;
+
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.jmx.JmxConfig;
+import io.micrometer.jmx.JmxMeterRegistry;
+import org.copypaste.consts.Global;
+import org.copypaste.util.SaveMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The meter registry of the transfer. The meters are kept in memory for the summary logged at the end of the run and,
+ * with "metrics jmx", are exported by JMX under <code>org.copypaste.metrics</code> domain, so they are seen while the
+ * transfer goes. The requests are metered by {@link org.copypaste.util.HttpConnector}, the save pipelines by the shared
+ * {@link SaveMetrics}.
+ */
+@Service
+public class MetricsService {
+
+    private static final Logger log = LoggerFactory.getLogger(MetricsService.class);
+
+    private static final String JMX_DOMAIN = "org.copypaste.metrics";
+
+    // gauges of the timer percentiles, they are logged with their timers
+    private static final String PERCENTILE_SUFFIX = ".percentile";
+
+    private Map<String, String> configMap;
+
+    private CompositeMeterRegistry registry;
+
+    private SimpleMeterRegistry summaryRegistry;
+
+    private SaveMetrics saveMetrics;
+
+    private long startNanos;
+
+    @Autowired
+    public void setConfigMap(Map<String, String> configMap) {
+        this.configMap = configMap;
+    }
+
+    @PostConstruct
+    public void createRegistry() {
+        registry = new CompositeMeterRegistry();
+        summaryRegistry = new SimpleMeterRegistry();
+        registry.add(summaryRegistry);
+        if (Boolean.parseBoolean(configMap.get(Global.METRICS_JMX_KEY))) {
+            JmxMeterRegistry jmxRegistry = new JmxMeterRegistry(new JmxConfig() {
+                @Override
+                public String domain() {
+                    return JMX_DOMAIN;
+                }
+
+                @Override
+                public String get(String key) {
+                    return null;
+                }
+            }, Clock.SYSTEM);
+            registry.add(jmxRegistry);
+        }
+        saveMetrics = new SaveMetrics(registry);
+        startNanos = System.nanoTime();
+    }
+
+    @PreDestroy
+    public void closeRegistry() {
+        registry.close();
+    }
+
+    /**
+     * @return registry of all the meters
+     */
+    public MeterRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * @return meters of the save pipelines
+     */
+    public SaveMetrics getSaveMetrics() {
+        return saveMetrics;
+    }
+
+    /**
+     * Logs every meter and the throughput since the start. Timer percentiles and max are of the last minutes only.
+     */
+    public void logSummary() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        double writtenMB = saveMetrics.getWrittenBytes().count() / (1024.0 * 1024);
+        log.info("Transfer summary: written {} MB in {} s, {} MB/s", format(writtenMB), format(seconds),
+                format(writtenMB / seconds));
+        List<Meter> meters = new ArrayList<>(summaryRegistry.getMeters());
+        meters.sort(Comparator.comparing(meter -> meter.getId().getName() + meter.getId().getTags()));
+        for (Meter meter : meters) {
+            String name = name(meter);
+            if (meter instanceof Timer) {
+                HistogramSnapshot snapshot = ((Timer) meter).takeSnapshot();
+                if (snapshot.count() == 0) {
+                    continue;
+                }
+                StringBuilder percentiles = new StringBuilder();
+                for (ValueAtPercentile percentile : snapshot.percentileValues()) {
+                    percentiles.append(", p").append(Math.round(percentile.percentile() * 100)).append(' ')
+                            .append(format(percentile.value(TimeUnit.MILLISECONDS))).append(" ms");
+                }
+                log.info("{}: count {}, total {} ms, mean {} ms{}, max {} ms", name, snapshot.count(),
+                        format(snapshot.total(TimeUnit.MILLISECONDS)), format(snapshot.mean(TimeUnit.MILLISECONDS)),
+                        percentiles, format(snapshot.max(TimeUnit.MILLISECONDS)));
+            } else if (meter instanceof Counter) {
+                log.info("{}: {}", name, (long) ((Counter) meter).count());
+            } else if (meter instanceof Gauge && !meter.getId().getName().endsWith(PERCENTILE_SUFFIX)) {
+                log.info("{}: {}", name, format(((Gauge) meter).value()));
+            }
+        }
+    }
+
+    private static String name(Meter meter) {
+        StringBuilder name = new StringBuilder(meter.getId().getName());
+        for (Tag tag : meter.getId().getTags()) {
+            name.append(' ').append(tag.getKey()).append('=').append(tag.getValue());
+        }
+        return name.toString();
+    }
+
+    private static String format(double value) {
+        return String.format("%.2f", value);
+    }
+}
@@ -0,0 +1,782 @@
+package org.copypaste.service;
+
+import com.twmacinta.util.MD5;
+import org.copypaste.consts.Global;
+import org.copypaste.interthread_data.FileChunkImmutable;
+import org.copypaste.util.ByteBudget;
+import org.copypaste.util.ChannelChunkWriter;
+import org.copypaste.util.ChecksumAlgorithm;
+import org.copypaste.util.ChunkDigest;
+import org.copypaste.util.ChunkWriter;
+import org.copypaste.util.DirectBufferPool;
+import org.copypaste.util.Hasher;
+import org.copypaste.util.IncrementalFileDigest;
+import org.copypaste.util.MappedChunkWriter;
+import org.copypaste.util.SaveMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The "Consumer" of gotten chunks of the single file. Pipelines are created by {@link AsyncSaveService} and do not
+ * have threads of their own. A put chunk is verified against its checksum on the verifier threads, so chunks are
+ * verified in parallel. Once a chunk is verified it is queued and the pipeline schedules itself on the writer threads
+ * shared by all the pipelines and drains its queue there. A pipeline is drained by one writer thread at a time, so the
+ * temp file is written sequentially, while many files are saved at once by a bounded number of threads.<br/>
+ * The queue is limited by the bytes of the queued chunks rather than by their count. The bytes are taken from the
+ * {@link ByteBudget} shared by all the pipelines and are returned once the chunk is written, so the producer is
+ * blocked while the chunks of all the files waiting to be written use up the budget, whatever chunk size the server
+ * picks.<br/>
+ * Once the file name is set to this object it creates a temp file.
+ * For every put chunk it:
+ * <ol>
+ * <li>Compare the checksum of the chunk on a verifier thread</li>
+ * <li>If the chunk check sum is "bad" it drops</li>
+ * <li>Writes the chunk at its offset in the temp file, so chunks may come in any order. By default the chunk is copied
+ * to a pooled direct buffer and written by the positional {@link FileChannel} write, see {@link ChannelChunkWriter}.
+ * In memory mapped mode it is copied right to the mapped temp file, see {@link MappedChunkWriter}</li>
+ * </ol>
+ * The temp file may be preallocated to the file size, so the file system allocates it once instead of growing it chunk
+ * by chunk. The written data is forced to the disk every "fsync every chunks" chunks, or only once the file is done or
+ * stopped if it is 0.<br/>
+ * The last chunk is the one that has no next chunk. Since chunks are fetched concurrently it may arrive before the
+ * others, therefore the saver is done only when all the chunks up to the last one are written.<br/>
+ * Every written chunk is recorded to the {@link ChunkJournal} next to the temp file once it is forced to the disk, so
+ * the journal never claims a chunk a crash may have lost. When a run fails or is stopped the written chunks are forced
+ * and journaled, the temp file and the journal are kept, so the next run fetches only the missing chunks.<br/>
+ * Checksums of the chunks and of the file are of the algorithms named by the server, see {@link ChecksumAlgorithm}.
+ * The whole file checksum is updated as chunks are written, see {@link IncrementalFileDigest}. The chunks written out
+ * of order are held for it within the "digest hold budget", so they are not read back. Unless paranoid checksum is set,
+ * the file is not read again at the end.<br/>
+ * Every step is timed by the {@link SaveMetrics} shared by all the pipelines.<br/>
+ * Once it has got all the chunks
+ * <ol>
+ * <li>The file is checked against the overall checksum if it fails it drops and file and journal are deleted</li>
+ * <li>On success check the file is renamed to real name and the journal is deleted</li>
+ * </ol>
+ */
+public class SavePipeline {
+
+    private static final Logger log = LoggerFactory.getLogger(SavePipeline.class);
+
+    private static final String JOURNAL_SUFFIX = ".journal";
+
+    // chunks written in one turn on a writer thread before giving the thread to other pipelines
+    private static final int CHUNKS_PER_TURN = 16;
+
+    // memory mapped mode maps the temp file by windows of this size
+    private static final long MAPPED_WINDOW_SIZE = 64L * 1024 * 1024;
+
+    private static final int MAPPED_WINDOWS = 4;
+
+    private final Executor verifiers;
+
+    private final Executor writers;
+
+    private final DirectBufferPool bufferPool;
+
+    private final Path directory;
+
+    private final ByteBudget budget;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition idle = lock.newCondition();
+
+    private final Queue<FileChunkImmutable> chunks = new ArrayDeque<>();
+
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+
+    // guarded by lock, true while the drain is scheduled or running
+    private boolean draining;
+
+    // guarded by lock, number of the chunks being verified
+    private int verifying;
+
+    private volatile String fileName;
+
+    private volatile String tempFileName;
+
+    private volatile Throwable throwable;
+
+    private volatile RandomAccessFile tempRandomAccessFile;
+
+    private volatile ChunkWriter chunkWriter;
+
+    private volatile String fileCheckSum;
+
+    private volatile ChecksumAlgorithm fileCheckSumAlgorithm = ChecksumAlgorithm.MD5;
+
+    private volatile ChunkJournal journal;
+
+    private volatile long fileSize;
+
+    private volatile boolean paranoidCheckSum;
+
+    private volatile boolean preallocate;
+
+    private volatile boolean memoryMapped;
+
+    private volatile int fsyncEveryChunks;
+
+    private volatile SaveMetrics metrics = SaveMetrics.NONE;
+
+    private volatile ByteBudget digestHoldBudget;
+
+    private volatile boolean discarded;
+
+    // used by the drain only, the drains of the pipeline never run concurrently
+    private IncrementalFileDigest fileDigest;
+
+    private int writtenChunks;
+
+    private int lastChunkNum;
+
+    // written chunks to journal once they are forced to the disk
+    private final List<JournalRecord> notSyncedChunks = new ArrayList<>();
+
+    /**
+     * @param verifiers threads to verify chunks on
+     * @param writers threads to drain the pipeline on
+     * @param bufferPool direct buffers to write from
+     * @param directory directory of the temp and the real files
+     * @param budget budget of the bytes of the queued chunks
+     */
+    public SavePipeline(Executor verifiers, Executor writers, DirectBufferPool bufferPool, ByteBudget budget,
+                        Path directory) {
+        Objects.requireNonNull(verifiers, "Verifiers cannot be null");
+        Objects.requireNonNull(writers, "Writers cannot be null");
+        Objects.requireNonNull(bufferPool, "Buffer pool cannot be null");
+        Objects.requireNonNull(directory, "Directory cannot be null");
+        Objects.requireNonNull(budget, "Budget cannot be null");
+        this.verifiers = verifiers;
+        this.writers = writers;
+        this.bufferPool = bufferPool;
+        this.directory = directory;
+        this.budget = budget;
+    }
+
+    /**
+     * Starts the pipeline. Should be called once the journal is opened. If all the chunks are already journaled the
+     * file is post processed right away.
+     */
+    public void start() {
+        lock.lock();
+        try {
+            draining = true;
+        } finally {
+            lock.unlock();
+        }
+        scheduleDrain(this::startDrain);
+    }
+
+    public void put(FileChunkImmutable fileChunkImmutable) throws InterruptedException {
+        int size = fileChunkImmutable.getChunkEncodedContent().length;
+        long putNanos = System.nanoTime();
+        try {
+            budget.acquire(size);
+        } catch (InterruptedException e) {
+            log.error("Thread is interrupted on waiting putting to chunk queue");
+            throw e;
+        }
+        long acquiredNanos = System.nanoTime();
+        metrics.getPutWait().record(acquiredNanos - putNanos, TimeUnit.NANOSECONDS);
+        lock.lock();
+        try {
+            if (throwable != null) {
+                budget.release(size);
+                throw new RuntimeException("Async save error. Giving up", throwable);
+            }
+            verifying++;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            verifiers.execute(() -> verifyAndQueue(fileChunkImmutable, acquiredNanos));
+        } catch (RejectedExecutionException e) {
+            log.error("Cannot schedule verification of chunk {}", fileChunkImmutable.getChunkNum(), e);
+            budget.release(size);
+            lock.lock();
+            try {
+                verifying--;
+                failLater(e);
+                drainLater();
+                idle.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            throw new RuntimeException("Async save error. Giving up", e);
+        }
+    }
+
+    /**
+     * Waits till the file is saved.
+     *
+     * @throws RuntimeException if the pipeline failed
+     */
+    public void awaitDone() throws InterruptedException {
+        try {
+            completion.get();
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Async save error. Giving up", e.getCause());
+        }
+    }
+
+    public Throwable getThrowable() {
+        return throwable;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("MD5");
+            byte[] md5Hash = messageDigest.digest(fileName.getBytes("UTF-8"));
+            this.tempFileName = MD5.asHex(md5Hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Check your JDK distribution. Cannot find MD5 digest", e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException("Check your JDK distribution. Cannot find UTF-8 encoding", e);
+        }
+
+        try {
+            tempRandomAccessFile = new RandomAccessFile(directory.resolve(tempFileName).toFile(), "rw");
+        } catch (FileNotFoundException e) {
+            throw new RuntimeException("Cannot create temp file");
+        }
+    }
+
+    public void setFileCheckSum(String fileCheckSum) {
+        this.fileCheckSum = fileCheckSum;
+    }
+
+    /**
+     * @param fileCheckSumAlgorithm algorithm of the whole file checksum, MD5 by default
+     */
+    public void setFileCheckSumAlgorithm(ChecksumAlgorithm fileCheckSumAlgorithm) {
+        this.fileCheckSumAlgorithm = fileCheckSumAlgorithm;
+    }
+
+    /**
+     * Opens the journal of the chunks of the server chunk size, see {@link #openJournal(long, String, int)}.
+     */
+    public ChunkJournal openJournal(long fileSize) {
+        return openJournal(fileSize, Global.TRANSFER_MODE_CHUNKS, 0);
+    }
+
+    /**
+     * Opens the journal of the temp file. Should be called after the file name and the checksum are set and before the
+     * pipeline is started. If there is no journal of the same file and layout the temp file is truncated. If
+     * preallocation is set the temp file is extended to the file size, the memory mapped temp file is always of the
+     * file size.
+     *
+     * @param fileSize expected size of the file
+     * @param layout transfer mode the chunks are fetched by
+     * @param chunkSize expected chunk size or 0 if it is defined by the server
+     * @return the journal, it tells which chunks are already written
+     */
+    public ChunkJournal openJournal(long fileSize, String layout, int chunkSize) {
+        this.fileSize = fileSize;
+        try {
+            journal = ChunkJournal.open(directory.resolve(tempFileName + JOURNAL_SUFFIX), fileSize, fileCheckSum,
+                    layout, chunkSize);
+            if (!journal.isResumed()) {
+                tempRandomAccessFile.setLength(0);
+            }
+            if ((preallocate || memoryMapped) && tempRandomAccessFile.length() != fileSize) {
+                tempRandomAccessFile.setLength(fileSize);
+            }
+            FileChannel fileChannel = tempRandomAccessFile.getChannel();
+            chunkWriter = memoryMapped
+                    ? new MappedChunkWriter(fileChannel, fileSize, MAPPED_WINDOW_SIZE, MAPPED_WINDOWS)
+                    : new ChannelChunkWriter(fileChannel, bufferPool);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot open journal of temp file " + tempFileName, e);
+        }
+        return journal;
+    }
+
+    /**
+     * @param paranoidCheckSum if true the whole file checksum is calculated by reading the file once it is written,
+     *                         otherwise the checksum updated along the writing is used
+     */
+    public void setParanoidCheckSum(boolean paranoidCheckSum) {
+        this.paranoidCheckSum = paranoidCheckSum;
+    }
+
+    /**
+     * @param preallocate if true the temp file is extended to the file size once the journal is opened. Should be set
+     *                    before {@link #openJournal(long)}
+     */
+    public void setPreallocate(boolean preallocate) {
+        this.preallocate = preallocate;
+    }
+
+    /**
+     * @param memoryMapped if true the chunks are written to the memory mapped temp file. Should be set before
+     *                     {@link #openJournal(long)}
+     */
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+    }
+
+    /**
+     * @param metrics meters of the steps, none by default
+     */
+    public void setMetrics(SaveMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param digestHoldBudget budget of the out of order chunks held in memory for the file digest, see
+     *                         {@link IncrementalFileDigest}. None by default, then they are read back from the disk
+     */
+    public void setDigestHoldBudget(ByteBudget digestHoldBudget) {
+        this.digestHoldBudget = digestHoldBudget;
+    }
+
+    /**
+     * @param fsyncEveryChunks number of written chunks to force to the disk at once, 0 to force only the done file
+     */
+    public void setFsyncEveryChunks(int fsyncEveryChunks) {
+        this.fsyncEveryChunks = fsyncEveryChunks;
+    }
+
+    /**
+     * Waits till the already put chunks are verified and written and closes the temp file and the journal. If the file
+     * is not done they are kept for the next run, the written chunks are forced and journaled.
+     */
+    public void releaseTemp() {
+        lock.lock();
+        try {
+            while (draining || verifying > 0) {
+                idle.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+        checkpoint();
+        releaseDigest();
+        closeTempFile();
+        closeJournal();
+        if (discarded) {
+            clearTemp();
+        }
+    }
+
+    /**
+     * Makes {@link #releaseTemp()} to delete the temp file and the journal instead of keeping them for the next run,
+     * e.g. when the written chunks do not fit the layout of the server any more.
+     */
+    public void discardTemp() {
+        discarded = true;
+    }
+
+    public void clearTemp() {
+        closeTempFile();
+        if (journal != null) {
+            journal.delete();
+        }
+        File tempFile = directory.resolve(tempFileName).toFile();
+        if (tempFile.exists()) {
+            boolean deleted = tempFile.delete();
+            if (!deleted) {
+                log.warn("Cannot delete temp file {}", tempFile);
+            }
+        }
+    }
+
+    public synchronized Exception closeTempFile() {
+        try {
+            if (chunkWriter != null) {
+                // mapped windows should be released before the file is closed
+                chunkWriter.close();
+                chunkWriter = null;
+            }
+            if (tempRandomAccessFile != null) {
+                tempRandomAccessFile.close();
+                tempRandomAccessFile = null;
+            }
+        } catch (IOException ignore) {
+            log.error("Cannot close temp file");
+            return ignore;
+        }
+        return null;
+    }
+
+    /**
+     * The first drain, it prepares the digest of the chunks journaled by the previous run.
+     */
+    private void startDrain() {
+        writtenChunks = journal.getWrittenCount();
+        lastChunkNum = journal.getLastChunkNum();
+        try {
+            startFileDigest();
+        } catch (Exception e) {
+            log.error("Error while digesting temp file", e);
+            fail(e);
+            return;
+        }
+        drain();
+    }
+
+    private void verifyAndQueue(FileChunkImmutable fileChunk, long queuedNanos) {
+        long startNanos = System.nanoTime();
+        metrics.getVerifyWait().record(startNanos - queuedNanos, TimeUnit.NANOSECONDS);
+        Exception failure = null;
+        try {
+            requireCheckSum(fileChunk);
+        } catch (Exception e) {
+            log.error("Error while verifying chunk", e);
+            failure = e;
+        }
+        metrics.getVerify().record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        lock.lock();
+        try {
+            verifying--;
+            if (failure != null) {
+                failLater(failure);
+            }
+            if (throwable != null) {
+                budget.release(fileChunk.getChunkEncodedContent().length);
+            } else {
+                chunks.add(fileChunk);
+                metrics.getQueuedChunks().incrementAndGet();
+            }
+            drainLater();
+            idle.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void drain() {
+        try {
+            for (int i = 0; i < CHUNKS_PER_TURN; i++) {
+                if (throwable != null) {
+                    fail(throwable);
+                    return;
+                }
+                if (lastChunkNum >= 0 && writtenChunks > lastChunkNum) {
+                    postProcessingTempFile();
+                    done();
+                    return;
+                }
+                FileChunkImmutable fileChunk = poll();
+                if (fileChunk == null) {
+                    if (throwable != null) {
+                        fail(throwable);
+                    }
+                    return;
+                }
+                try {
+                    saveChunk(fileChunk);
+                } finally {
+                    budget.release(fileChunk.getChunkEncodedContent().length);
+                }
+            }
+        } catch (Exception e) {
+            log.error("Error while saving file", e);
+            fail(e);
+            return;
+        }
+        // let the other pipelines to use the thread
+        scheduleDrain(this::drain);
+    }
+
+    /**
+     * Schedules the drain unless it is scheduled or running. Should be called under the lock.
+     */
+    private void drainLater() {
+        if (!draining) {
+            draining = true;
+            scheduleDrain(this::drain);
+        }
+    }
+
+    /**
+     * Schedules the drain on a writer thread, draining should be set. If the writer threads are shut down the pipeline
+     * fails right away, so nobody waits for the drain that never runs.
+     */
+    private void scheduleDrain(Runnable drain) {
+        try {
+            writers.execute(drain);
+        } catch (RejectedExecutionException e) {
+            log.error("Cannot schedule writing of temp file {}", tempFileName, e);
+            fail(e);
+        }
+    }
+
+    /**
+     * Records the failure for the drain, so the temp file is not closed under the writing. Should be called under the
+     * lock.
+     */
+    private void failLater(Throwable e) {
+        if (throwable == null) {
+            throwable = e;
+        }
+    }
+
+    /**
+     * @return next chunk or null if the queue is empty, then the drain is over, or the pipeline is failed
+     */
+    private FileChunkImmutable poll() {
+        lock.lock();
+        try {
+            if (throwable != null) {
+                return null;
+            }
+            FileChunkImmutable fileChunk = chunks.poll();
+            if (fileChunk == null) {
+                draining = false;
+                idle.signalAll();
+                return null;
+            }
+            metrics.getQueuedChunks().decrementAndGet();
+            return fileChunk;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void saveChunk(FileChunkImmutable fileChunk) throws IOException {
+        byte[] content = fileChunk.getChunkEncodedContent();
+        long startNanos = System.nanoTime();
+        writeChunk(fileChunk.getOffset(), content);
+        long writtenNanos = System.nanoTime();
+        metrics.getWrite().record(writtenNanos - startNanos, TimeUnit.NANOSECONDS);
+        metrics.getWrittenBytes().increment(content.length);
+        fileDigest.written(fileChunk.getOffset(), content);
+        metrics.getDigest().record(System.nanoTime() - writtenNanos, TimeUnit.NANOSECONDS);
+        notSyncedChunks.add(new JournalRecord(fileChunk.getChunkNum(), fileChunk.getOffset(), content.length,
+                !fileChunk.isHasNextChunk()));
+        writtenChunks++;
+        if (!fileChunk.isHasNextChunk()) {
+            lastChunkNum = fileChunk.getChunkNum();
+        }
+        if (fsyncEveryChunks > 0 && notSyncedChunks.size() >= fsyncEveryChunks) {
+            syncAndJournal();
+        }
+    }
+
+    /**
+     * Forces the written chunks to the disk and only then journals them.
+     */
+    private void syncAndJournal() throws IOException {
+        if (notSyncedChunks.isEmpty()) {
+            return;
+        }
+        chunkWriter.force(false);
+        for (JournalRecord record : notSyncedChunks) {
+            journal.written(record.chunkNum, record.offset, record.length, record.last);
+        }
+        notSyncedChunks.clear();
+    }
+
+    /**
+     * Journals the written chunks of the stopped pipeline, they are not fetched by the next run. Should be called when
+     * no drain runs.
+     */
+    private synchronized void checkpoint() {
+        if (chunkWriter == null || notSyncedChunks.isEmpty()) {
+            return;
+        }
+        try {
+            syncAndJournal();
+        } catch (IOException | RuntimeException e) {
+            // the chunks are fetched once more
+            log.error("Cannot journal written chunks of temp file {}", tempFileName, e);
+        }
+    }
+
+    private void done() {
+        lock.lock();
+        try {
+            draining = false;
+            idle.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        completion.complete(null);
+    }
+
+    private void fail(Throwable e) {
+        lock.lock();
+        try {
+            throwable = e;
+        } finally {
+            lock.unlock();
+        }
+        checkpoint();
+        releaseDigest();
+        closeTempFile();
+        lock.lock();
+        try {
+            FileChunkImmutable fileChunk;
+            while ((fileChunk = chunks.poll()) != null) {
+                metrics.getQueuedChunks().decrementAndGet();
+                budget.release(fileChunk.getChunkEncodedContent().length);
+            }
+            draining = false;
+            idle.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        completion.completeExceptionally(e);
+    }
+
+    private void postProcessingTempFile() {
+
+        try {
+            chunkWriter.force(true);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot sync temp file", e);
+        }
+
+        Exception t = closeTempFile();
+
+        if (t != null) {
+            throw new RuntimeException("Cannot close temp file", t);
+        }
+
+        try {
+            checkFileSum();
+        } catch (RuntimeException e) {
+            // the journaled content is broken, nothing to resume
+            clearTemp();
+            throw e;
+        }
+
+        renameToReal();
+        journal.delete();
+    }
+
+    private synchronized void releaseDigest() {
+        if (fileDigest != null) {
+            fileDigest.release();
+        }
+    }
+
+    private void closeJournal() {
+        try {
+            if (journal != null) {
+                journal.close();
+            }
+        } catch (IOException e) {
+            log.error("Cannot close journal", e);
+        }
+    }
+
+    private void requireCheckSum(FileChunkImmutable fileChunkImmutable) {
+        byte[] chunkEncodedContent = fileChunkImmutable.getChunkEncodedContent();
+        ChecksumAlgorithm algorithm = fileChunkImmutable.getChunkCheckSumAlgorithm();
+        if (algorithm == null) {
+            // part of the range, the file checksum covers it
+            return;
+        }
+        if (!ChunkDigest.of(algorithm).matches(chunkEncodedContent, fileChunkImmutable.getChunkHexMD5())) {
+            // the failed chunk only, no need to be fast here
+            Hasher hasher = algorithm.newHasher();
+            hasher.update(chunkEncodedContent);
+            throw new RuntimeException("Message digests are not equal for chunk. Expected: " + fileChunkImmutable.getChunkHexMD5() +
+             " Got: " + MD5.asHex(hasher.digest()) + " (" + algorithm.getWireName() + ")");
+        }
+    }
+
+    private void writeChunk(long offset, byte[] data) {
+        try {
+            chunkWriter.write(offset, data);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot write to temp file", e);
+        }
+    }
+
+    /**
+     * Chunks journaled by the previous run are already in the temp file, the digest reads them back once they are
+     * reached.
+     */
+    private void startFileDigest() throws IOException {
+        fileDigest = new IncrementalFileDigest(fileCheckSumAlgorithm.newHasher(), tempRandomAccessFile.getChannel(),
+                digestHoldBudget);
+        for (Map.Entry<Long, Integer> range : journal.getWrittenRanges().entrySet()) {
+            fileDigest.writtenBefore(range.getKey(), range.getValue());
+        }
+    }
+
+    private void checkFileSum() {
+        byte[] gotFileCheckSum;
+        if (paranoidCheckSum) {
+            File tempFile = directory.resolve(tempFileName).toFile();
+            try {
+                gotFileCheckSum = fileCheckSumAlgorithm.hash(tempFile);
+            } catch (IOException e) {
+                throw new RuntimeException("Cannot calculate " + fileCheckSumAlgorithm.getWireName() + " checksum", e);
+            }
+        } else {
+            gotFileCheckSum = fileDigest.digest(fileSize);
+        }
+
+        if (!ChunkDigest.equalsHex(gotFileCheckSum, fileCheckSum)) {
+            throw new RuntimeException("Checksums are not equal");
+        }
+    }
+
+    /**
+     * Replaces the real file if it exists, e.g. another version of it is downloaded. The move is atomic unless the file
+     * system cannot do it.
+     */
+    private void renameToReal() {
+        Path tempFile = directory.resolve(tempFileName);
+        Path newName = directory.resolve(fileName);
+        try {
+            try {
+                Files.move(tempFile, newName, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, newName, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot rename temp file: " + tempFileName + " to real file: " + newName, e);
+        }
+    }
+
+    /**
+     * Record of the written chunk to journal once it is forced.
+     */
+    private static class JournalRecord {
+
+        final int chunkNum;
+
+        final long offset;
+
+        final int length;
+
+        final boolean last;
+
+        JournalRecord(int chunkNum, long offset, int length, boolean last) {
+            this.chunkNum = chunkNum;
+            this.offset = offset;
+            this.length = length;
+            this.last = last;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package org.copypaste.util;
+
+/**
+ * Number of the requests to keep in flight, adapted the way TCP adapts its congestion window (AIMD):
+ * <ul>
+ * <li>Every successful request grows the window by <code>1 / window</code>, i.e. by one per window of requests.</li>
+ * <li>A failed request halves the window.</li>
+ * <li>If the smoothed latency grows beyond {@link #LATENCY_TOLERANCE} times the base (the lowest seen) latency, the
+ * server or the link is queueing the requests, the window is shrunk by {@link #LATENCY_BACKOFF}.</li>
+ * </ul>
+ * The window is shrunk at most once per window of requests, so a burst of failures of the requests sent together does
+ * not collapse it. The base latency slowly follows the observed one, so a link which became slower for good is not
+ * seen as congested forever.
+ */
+public class AdaptiveWindow implements RequestListener {
+
+    private static final double FAILURE_BACKOFF = 0.5;
+
+    private static final double LATENCY_BACKOFF = 0.9;
+
+    private static final double LATENCY_TOLERANCE = 2;
+
+    private static final double SMOOTHING = 0.2;
+
+    private static final double BASE_LATENCY_DRIFT = 0.01;
+
+    private final int minWindow;
+
+    private final int maxWindow;
+
+    private final boolean adaptive;
+
+    private double window;
+
+    private double baseLatencyNanos;
+
+    private double latencyNanos;
+
+    private boolean measured;
+
+    private long requests;
+
+    // no shrinking till this number of the requests
+    private long shrinkAfter;
+
+    /**
+     * @param initialWindow window to start with
+     * @param minWindow the window is not shrunk below
+     * @param maxWindow the window is not grown above
+     */
+    public AdaptiveWindow(int initialWindow, int minWindow, int maxWindow) {
+        if (minWindow <= 0 || maxWindow < minWindow) {
+            throw new IllegalArgumentException("Wrong window bounds " + minWindow + " - " + maxWindow);
+        }
+        this.minWindow = minWindow;
+        this.maxWindow = maxWindow;
+        this.window = Math.max(minWindow, Math.min(maxWindow, initialWindow));
+        this.adaptive = minWindow != maxWindow;
+    }
+
+    /**
+     * @return window of the constant size
+     */
+    public static AdaptiveWindow fixed(int window) {
+        return new AdaptiveWindow(window, window, window);
+    }
+
+    /**
+     * @return number of the requests to keep in flight
+     */
+    public synchronized int getWindow() {
+        return (int) window;
+    }
+
+    public int getMaxWindow() {
+        return maxWindow;
+    }
+
+    @Override
+    public synchronized void succeeded(long latencyNanos) {
+        if (!adaptive) {
+            return;
+        }
+        requests++;
+        if (!measured) {
+            this.latencyNanos = latencyNanos;
+            baseLatencyNanos = latencyNanos;
+            measured = true;
+        } else {
+            this.latencyNanos += SMOOTHING * (latencyNanos - this.latencyNanos);
+            baseLatencyNanos = latencyNanos < baseLatencyNanos
+                    ? latencyNanos : baseLatencyNanos + BASE_LATENCY_DRIFT * (latencyNanos - baseLatencyNanos);
+        }
+        if (this.latencyNanos > LATENCY_TOLERANCE * baseLatencyNanos) {
+            shrink(LATENCY_BACKOFF);
+        } else {
+            window = Math.min(maxWindow, window + 1 / window);
+        }
+    }
+
+    @Override
+    public synchronized void failed(Exception e) {
+        if (!adaptive) {
+            return;
+        }
+        requests++;
+        shrink(FAILURE_BACKOFF);
+    }
+
+    private void shrink(double factor) {
+        if (requests < shrinkAfter) {
+            return;
+        }
+        window = Math.max(minWindow, window * factor);
+        shrinkAfter = requests + (long) window;
+    }
+}
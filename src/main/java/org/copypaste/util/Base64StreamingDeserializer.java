@@ -0,0 +1,74 @@
+package org.copypaste.util;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ *
+ * Decodes Base64 JSON string directly from the parser input without building the intermediate {@link String}.
+ * The decoded bytes go to the array of the size of the value last decoded by the current thread. The chunks of a file
+ * are of the same size but the last one, so the array is usually filled exactly and returned as is, without a copy.
+ * Only the size is kept per thread, not the array, so nothing stays allocated between the values.
+ */
+public class Base64StreamingDeserializer extends JsonDeserializer<byte[]> {
+
+    private static final int INITIAL_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<int[]> lastSizes = ThreadLocal.withInitial(() -> new int[] {INITIAL_SIZE});
+
+    @Override
+    public byte[] deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        if (p.getCurrentToken() != JsonToken.VALUE_STRING) {
+            return (byte[]) ctxt.handleUnexpectedToken(byte[].class, p);
+        }
+        int[] lastSize = lastSizes.get();
+        ArrayOutputStream buffer = new ArrayOutputStream(lastSize[0]);
+        p.readBinaryValue(buffer);
+        byte[] value = buffer.toExactArray();
+        lastSize[0] = value.length > 0 ? value.length : INITIAL_SIZE;
+        return value;
+    }
+
+    /**
+     * Collects bytes to the array given the expected size, grown if the value is larger.
+     */
+    private static class ArrayOutputStream extends OutputStream {
+
+        private byte[] buf;
+
+        private int count;
+
+        ArrayOutputStream(int expectedSize) {
+            buf = new byte[expectedSize];
+        }
+
+        @Override
+        public void write(int b) {
+            ensureCapacity(1);
+            buf[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensureCapacity(len);
+            System.arraycopy(b, off, buf, count, len);
+            count += len;
+        }
+
+        byte[] toExactArray() {
+            return count == buf.length ? buf : Arrays.copyOf(buf, count);
+        }
+
+        private void ensureCapacity(int len) {
+            if (buf.length - count < len) {
+                buf = Arrays.copyOf(buf, Math.max(Math.max(buf.length * 2, INITIAL_SIZE), count + len));
+            }
+        }
+    }
+}
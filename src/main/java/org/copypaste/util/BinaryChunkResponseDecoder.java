@@ -0,0 +1,72 @@
+package org.copypaste.util;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.ContentType;
+import org.copypaste.consts.Global;
+import org.copypaste.data.ChunkResponse;
+import org.copypaste.data.FileChunk;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Chunk responses in the binary format, falls back to JSON if the server replies with it. The binary chunk is the raw
+ * <code>application/octet-stream</code> body, so there is neither Base64 nor JSON parsing. Its metadata comes in the
+ * headers:
+ * <ul>
+ * <li><code>X-Has-Next-Chunk</code> -- true or false</li>
+ * <li><code>X-Chunk-Checksum</code> -- hex checksum of the chunk</li>
+ * <li><code>X-Chunk-Checksum-Algorithm</code> -- optional, MD5 if absent</li>
+ * </ul>
+ * The body is read right to the array of the declared content length.
+ */
+public class BinaryChunkResponseDecoder implements ResponseDecoder<ChunkResponse> {
+
+    private static final String OCTET_STREAM = ContentType.APPLICATION_OCTET_STREAM.getMimeType();
+
+    private final JsonResponseDecoder<ChunkResponse> jsonDecoder = new JsonResponseDecoder<>(ChunkResponse.class);
+
+    @Override
+    public String accept() {
+        return OCTET_STREAM + ", application/json;q=0.5";
+    }
+
+    @Override
+    public ChunkResponse decode(HttpResponse response, InputStream content, int maxBuffer) throws IOException {
+        HttpEntity entity = response.getEntity();
+        ContentType contentType = ContentType.get(entity);
+        if (contentType == null || !OCTET_STREAM.equalsIgnoreCase(contentType.getMimeType())) {
+            return jsonDecoder.decode(response, content, maxBuffer);
+        }
+
+        FileChunk fileChunk = new FileChunk();
+        fileChunk.setHasNextChunk(Boolean.parseBoolean(requireHeader(response, Global.HAS_NEXT_CHUNK_HEADER)));
+        fileChunk.setChunkHexMD5(requireHeader(response, Global.CHUNK_CHECKSUM_HEADER));
+        Header algorithm = response.getFirstHeader(Global.CHUNK_CHECKSUM_ALGORITHM_HEADER);
+        if (algorithm != null) {
+            fileChunk.setChunkCheckSumAlgorithm(algorithm.getValue());
+        }
+        try (GuardedInputStreamConverter converter = GuardedInputStreamConverter.asDefault()
+                .inputStream(content)
+                .contentLength(entity.getContentLength())
+                .maxBuffer(maxBuffer)
+                .build()) {
+            fileChunk.setChunkData(converter.readBytes());
+        }
+
+        ChunkResponse chunkResponse = new ChunkResponse();
+        chunkResponse.setSuccess(true);
+        chunkResponse.setPayload(fileChunk);
+        return chunkResponse;
+    }
+
+    private static String requireHeader(HttpResponse response, String name) throws IOException {
+        Header header = response.getFirstHeader(name);
+        if (header == null) {
+            throw new IOException("Binary chunk without " + name + " header");
+        }
+        return header.getValue();
+    }
+}
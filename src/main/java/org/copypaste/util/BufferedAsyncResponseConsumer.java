@@ -0,0 +1,98 @@
+package org.copypaste.util;
+
+import org.apache.http.ContentTooLongException;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Collects the non-blocking response in memory, so it is decoded once it is complete. The content is read right to the
+ * array of the declared length, an unknown length grows the array twice at a time. A response longer than the max
+ * buffer is dropped, as the blocking engine does.<br/>
+ * The response is given with the collected content as its entity. The consumer remembers when the headers came.
+ */
+public class BufferedAsyncResponseConsumer extends AbstractAsyncResponseConsumer<HttpResponse> {
+
+    private static final int START_BUFFER = 8 * 1024;
+
+    private final int maxBuffer;
+
+    private HttpResponse response;
+
+    private ContentType contentType;
+
+    private byte[] buffer = new byte[0];
+
+    private int length;
+
+    private long headersNanos;
+
+    public BufferedAsyncResponseConsumer(int maxBuffer) {
+        this.maxBuffer = maxBuffer;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} when the headers came
+     */
+    public long getHeadersNanos() {
+        return headersNanos;
+    }
+
+    @Override
+    protected void onResponseReceived(HttpResponse response) {
+        headersNanos = System.nanoTime();
+        this.response = response;
+    }
+
+    @Override
+    protected void onEntityEnclosed(HttpEntity entity, ContentType contentType) throws IOException {
+        this.contentType = contentType;
+        long contentLength = entity.getContentLength();
+        if (contentLength > maxBuffer) {
+            throw new ContentTooLongException("Too long response " + contentLength + ", dropping");
+        }
+        buffer = new byte[contentLength >= 0 ? (int) contentLength : Math.min(START_BUFFER, maxBuffer)];
+    }
+
+    @Override
+    protected void onContentReceived(ContentDecoder decoder, IOControl ioControl) throws IOException {
+        while (!decoder.isCompleted()) {
+            if (length == buffer.length) {
+                if (buffer.length >= maxBuffer) {
+                    // anything more is too long
+                    if (decoder.read(ByteBuffer.allocate(1)) > 0) {
+                        throw new ContentTooLongException("Too long response, dropping");
+                    }
+                    return;
+                }
+                buffer = Arrays.copyOf(buffer, (int) Math.min(Math.max((long) buffer.length * 2, START_BUFFER),
+                        maxBuffer));
+            }
+            int read = decoder.read(ByteBuffer.wrap(buffer, length, buffer.length - length));
+            if (read <= 0) {
+                return;
+            }
+            length += read;
+        }
+    }
+
+    @Override
+    protected HttpResponse buildResult(HttpContext context) {
+        response.setEntity(new ByteArrayEntity(buffer, 0, length, contentType));
+        return response;
+    }
+
+    @Override
+    protected void releaseResources() {
+        buffer = null;
+    }
+}
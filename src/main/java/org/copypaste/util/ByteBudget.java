@@ -0,0 +1,63 @@
+package org.copypaste.util;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Memory budget in bytes shared by producers. A producer blocks until the bytes it needs are returned to the budget by
+ * others. The budget is counted by kilobytes, so it may be up to terabytes. A request larger than the whole budget is
+ * granted the whole budget, i.e. it waits for all the others to be released, instead of waiting forever.<br/>
+ * The same number of bytes should be released as acquired.
+ */
+public class ByteBudget {
+
+    private static final int UNIT = 1024;
+
+    private final Semaphore permits;
+
+    private final int totalPermits;
+
+    /**
+     * @param budgetBytes the budget, at least one kilobyte is granted
+     */
+    public ByteBudget(long budgetBytes) {
+        if (budgetBytes <= 0 || budgetBytes / UNIT > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Budget should be greater than zero and less than 2TB");
+        }
+        this.totalPermits = (int) Math.max(1, budgetBytes / UNIT);
+        // fair, so the large requests are not starved by the small ones
+        this.permits = new Semaphore(totalPermits, true);
+    }
+
+    public void acquire(int bytes) throws InterruptedException {
+        permits.acquire(toPermits(bytes));
+    }
+
+    /**
+     * Takes the bytes only if they are available right away. Unlike {@link #acquire(int)} a request larger than the
+     * whole budget is not granted.
+     *
+     * @return true if the bytes are taken, they should be released then
+     */
+    public boolean tryAcquire(int bytes) {
+        return bytes <= getBudgetBytes() && permits.tryAcquire(toPermits(bytes));
+    }
+
+    public void release(int bytes) {
+        permits.release(toPermits(bytes));
+    }
+
+    public long getBudgetBytes() {
+        return (long) totalPermits * UNIT;
+    }
+
+    /**
+     * @return bytes currently acquired, rounded up to kilobytes
+     */
+    public long getUsedBytes() {
+        return (long) (totalPermits - permits.availablePermits()) * UNIT;
+    }
+
+    private int toPermits(int bytes) {
+        return Math.min(totalPermits, (bytes + UNIT - 1) / UNIT);
+    }
+}
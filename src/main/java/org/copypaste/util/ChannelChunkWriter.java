@@ -0,0 +1,54 @@
+package org.copypaste.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Objects;
+
+/**
+ * Copies the content by slices to a pooled direct buffer and writes it by the positional {@link FileChannel} write.
+ */
+public class ChannelChunkWriter implements ChunkWriter {
+
+    private final FileChannel fileChannel;
+
+    private final DirectBufferPool bufferPool;
+
+    public ChannelChunkWriter(FileChannel fileChannel, DirectBufferPool bufferPool) {
+        Objects.requireNonNull(fileChannel, "File channel cannot be null");
+        Objects.requireNonNull(bufferPool, "Buffer pool cannot be null");
+        this.fileChannel = fileChannel;
+        this.bufferPool = bufferPool;
+    }
+
+    @Override
+    public void write(long offset, byte[] content) throws IOException {
+        ByteBuffer buffer = bufferPool.acquire();
+        try {
+            int copied = 0;
+            while (copied < content.length) {
+                buffer.clear();
+                int length = Math.min(buffer.capacity(), content.length - copied);
+                buffer.put(content, copied, length);
+                buffer.flip();
+                long position = offset + copied;
+                while (buffer.hasRemaining()) {
+                    position += fileChannel.write(buffer, position);
+                }
+                copied += length;
+            }
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    @Override
+    public void force(boolean metaData) throws IOException {
+        fileChannel.force(metaData);
+    }
+
+    @Override
+    public void close() {
+        // nothing to release, the channel belongs to the file
+    }
+}
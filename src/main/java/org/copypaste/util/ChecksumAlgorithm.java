@@ -0,0 +1,209 @@
+package org.copypaste.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.Checksum;
+
+/**
+ * Checksum algorithms of files and chunks. The server names the algorithm of the file and of every chunk, if it does not
+ * the algorithm is MD5 as it was before. Checksums are passed as hex strings, CRC checksums as 8 hex digits of the big
+ * endian value.<br/>
+ * CRC32C is computed by <code>java.util.zip.CRC32C</code> on Java 9+, which is an intrinsic on CPUs with the CRC32
+ * instruction, and by {@link PureJavaCrc32C} on Java 8.
+ */
+public enum ChecksumAlgorithm {
+
+    MD5("MD5") {
+        @Override
+        public Hasher newHasher() {
+            return new MessageDigestHasher(messageDigest("MD5"));
+        }
+    },
+    SHA_256("SHA-256") {
+        @Override
+        public Hasher newHasher() {
+            return new MessageDigestHasher(messageDigest("SHA-256"));
+        }
+    },
+    CRC32("CRC32") {
+        @Override
+        public Hasher newHasher() {
+            return new ChecksumHasher(new java.util.zip.CRC32());
+        }
+    },
+    CRC32C("CRC32C") {
+        @Override
+        public Hasher newHasher() {
+            return new ChecksumHasher(newCrc32C());
+        }
+    };
+
+    private static final Logger log = LoggerFactory.getLogger(ChecksumAlgorithm.class);
+
+    private static final int READ_BUFFER = 64 * 1024;
+
+    private static final Constructor<? extends Checksum> JDK_CRC32C = findJdkCrc32C();
+
+    private final String wireName;
+
+    ChecksumAlgorithm(String wireName) {
+        this.wireName = wireName;
+    }
+
+    /**
+     * @return new hasher, hashers are not thread safe
+     */
+    public abstract Hasher newHasher();
+
+    /**
+     * @return name of the algorithm as the server sends it
+     */
+    public String getWireName() {
+        return wireName;
+    }
+
+    /**
+     * @param wireName name of the algorithm as the server sends it, case insensitive
+     * @return the algorithm, MD5 if the name is not given
+     * @throws IllegalArgumentException if the algorithm is not supported
+     */
+    public static ChecksumAlgorithm of(String wireName) {
+        if (wireName == null || wireName.isEmpty()) {
+            return MD5;
+        }
+        for (ChecksumAlgorithm algorithm : values()) {
+            if (algorithm.wireName.equalsIgnoreCase(wireName)) {
+                return algorithm;
+            }
+        }
+        throw new IllegalArgumentException("Unknown checksum algorithm " + wireName);
+    }
+
+    /**
+     * @return checksum of the whole file
+     */
+    public byte[] hash(File file) throws IOException {
+        Hasher hasher = newHasher();
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER);
+        try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (fileChannel.read(buffer) != -1) {
+                buffer.flip();
+                hasher.update(buffer);
+                buffer.clear();
+            }
+        }
+        return hasher.digest();
+    }
+
+    private static MessageDigest messageDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Check your JDK distribution. Cannot find " + algorithm + " digest", e);
+        }
+    }
+
+    private static Checksum newCrc32C() {
+        if (JDK_CRC32C != null) {
+            try {
+                return JDK_CRC32C.newInstance();
+            } catch (ReflectiveOperationException e) {
+                log.warn("Cannot create JDK CRC32C, using pure Java one", e);
+            }
+        }
+        return new PureJavaCrc32C();
+    }
+
+    private static Constructor<? extends Checksum> findJdkCrc32C() {
+        try {
+            return Class.forName("java.util.zip.CRC32C").asSubclass(Checksum.class).getConstructor();
+        } catch (ReflectiveOperationException e) {
+            // Java 8
+            return null;
+        }
+    }
+
+    private static class MessageDigestHasher implements Hasher {
+
+        private final MessageDigest messageDigest;
+
+        MessageDigestHasher(MessageDigest messageDigest) {
+            this.messageDigest = messageDigest;
+        }
+
+        @Override
+        public void update(byte[] content, int offset, int length) {
+            messageDigest.update(content, offset, length);
+        }
+
+        @Override
+        public void update(ByteBuffer buffer) {
+            messageDigest.update(buffer);
+        }
+
+        @Override
+        public int length() {
+            return messageDigest.getDigestLength();
+        }
+
+        @Override
+        public void digest(byte[] checksum) {
+            try {
+                messageDigest.digest(checksum, 0, messageDigest.getDigestLength());
+            } catch (DigestException e) {
+                throw new IllegalArgumentException("Checksum array is too short", e);
+            }
+        }
+    }
+
+    private static class ChecksumHasher implements Hasher {
+
+        private final Checksum checksum;
+
+        ChecksumHasher(Checksum checksum) {
+            this.checksum = checksum;
+        }
+
+        @Override
+        public void update(byte[] content, int offset, int length) {
+            checksum.update(content, offset, length);
+        }
+
+        @Override
+        public void update(ByteBuffer buffer) {
+            if (buffer.hasArray()) {
+                checksum.update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                buffer.position(buffer.limit());
+            } else {
+                while (buffer.hasRemaining()) {
+                    checksum.update(buffer.get());
+                }
+            }
+        }
+
+        @Override
+        public int length() {
+            return 4;
+        }
+
+        @Override
+        public void digest(byte[] checksum) {
+            int value = (int) this.checksum.getValue();
+            checksum[0] = (byte) (value >>> 24);
+            checksum[1] = (byte) (value >>> 16);
+            checksum[2] = (byte) (value >>> 8);
+            checksum[3] = (byte) value;
+            this.checksum.reset();
+        }
+    }
+}
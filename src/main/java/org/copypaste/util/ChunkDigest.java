@@ -0,0 +1,66 @@
+package org.copypaste.util;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Allocation free chunk checksum verification. Every thread keeps its own hasher and the checksum output buffer per
+ * algorithm, the checksum is compared right against the hex string, so there is neither provider lookup nor hex string
+ * per chunk.
+ */
+public final class ChunkDigest {
+
+    private static final ThreadLocal<Map<ChecksumAlgorithm, ChunkDigest>> DIGESTS =
+            ThreadLocal.withInitial(() -> new EnumMap<>(ChecksumAlgorithm.class));
+
+    private final Hasher hasher;
+
+    private final byte[] checksum;
+
+    private ChunkDigest(ChecksumAlgorithm algorithm) {
+        hasher = algorithm.newHasher();
+        checksum = new byte[hasher.length()];
+    }
+
+    /**
+     * @return digest of the current thread
+     */
+    public static ChunkDigest of(ChecksumAlgorithm algorithm) {
+        return DIGESTS.get().computeIfAbsent(algorithm, ChunkDigest::new);
+    }
+
+    /**
+     * @return MD5 digest of the current thread
+     */
+    public static ChunkDigest md5() {
+        return of(ChecksumAlgorithm.MD5);
+    }
+
+    /**
+     * @param content content to digest
+     * @param expectedHex expected checksum as hex string, case insensitive
+     * @return true if the content checksum equals the expected one
+     */
+    public boolean matches(byte[] content, String expectedHex) {
+        hasher.update(content);
+        hasher.digest(checksum);
+        return equalsHex(checksum, expectedHex);
+    }
+
+    /**
+     * @return true if the hex string represents exactly the given bytes, case insensitive
+     */
+    public static boolean equalsHex(byte[] bytes, String hex) {
+        if (hex == null || hex.length() != bytes.length * 2) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(hex.charAt(i * 2), 16);
+            int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (high < 0 || low < 0 || (byte) (high << 4 | low) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,23 @@
+package org.copypaste.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Writes chunks at their offsets to the file. The writer does not own the file, closing the writer does not close it.
+ */
+public interface ChunkWriter extends Closeable {
+
+    /**
+     * @param offset position of the content in the file
+     * @param content content to write
+     */
+    void write(long offset, byte[] content) throws IOException;
+
+    /**
+     * Forces the written content to the disk.
+     *
+     * @param metaData if true the file metadata is forced as well
+     */
+    void force(boolean metaData) throws IOException;
+}
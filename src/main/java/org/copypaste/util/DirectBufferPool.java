@@ -0,0 +1,49 @@
+package org.copypaste.util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Pool of direct buffers of the same size. Direct buffers are expensive to allocate and are freed only by GC, so they
+ * are kept and reused. A buffer is allocated when the pool is empty, the returned buffers above the pool size are just
+ * dropped.
+ */
+public class DirectBufferPool {
+
+    private final int bufferSize;
+
+    private final BlockingQueue<ByteBuffer> buffers;
+
+    /**
+     * @param bufferSize size of every buffer
+     * @param maxPooled max number of the kept buffers
+     */
+    public DirectBufferPool(int bufferSize, int maxPooled) {
+        if (bufferSize <= 0 || maxPooled <= 0) {
+            throw new IllegalArgumentException("Buffer size and pool size should be greater than zero");
+        }
+        this.bufferSize = bufferSize;
+        this.buffers = new ArrayBlockingQueue<>(maxPooled);
+    }
+
+    /**
+     * @return cleared buffer, should be returned by {@link #release(ByteBuffer)}
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(bufferSize);
+        }
+        return buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        buffer.clear();
+        buffers.offer(buffer);
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+}
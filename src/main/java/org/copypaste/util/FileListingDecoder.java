@@ -0,0 +1,92 @@
+package org.copypaste.util;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.apache.http.HttpResponse;
+import org.copypaste.data.FileMetaResponse;
+import org.copypaste.data.FileSummary;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * The listing of the server parsed as it comes: every {@link FileSummary} of the payload is handed to the visitor
+ * once it is parsed and is not kept, so the listing of any length takes the memory of a single file. The decoded
+ * response has no payload, only the success, the exception and the cursor of the next page.<br/>
+ * The files are visited in the order of the listing, and before the response is known to be successful if the server
+ * sends the payload first.
+ */
+public class FileListingDecoder implements ResponseDecoder<FileMetaResponse> {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final ObjectReader SUMMARY_READER = OBJECT_MAPPER.readerFor(FileSummary.class);
+
+    private final Consumer<FileSummary> visitor;
+
+    public FileListingDecoder(Consumer<FileSummary> visitor) {
+        this.visitor = Objects.requireNonNull(visitor, "Visitor cannot be null");
+    }
+
+    @Override
+    public String accept() {
+        return "application/json";
+    }
+
+    @Override
+    public FileMetaResponse decode(HttpResponse response, InputStream content, int maxBuffer) throws IOException {
+        return decode(content);
+    }
+
+    /**
+     * @param content the listing, a JSON object of {@link FileMetaResponse}
+     */
+    public FileMetaResponse decode(InputStream content) throws IOException {
+        FileMetaResponse fileMetaResponse = new FileMetaResponse();
+        try (JsonParser parser = OBJECT_MAPPER.getFactory().createParser(content)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("The listing is not a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "success":
+                        fileMetaResponse.setSuccess(parser.getValueAsBoolean());
+                        break;
+                    case "exception":
+                        fileMetaResponse.setException(parser.getValueAsString());
+                        break;
+                    case "nextCursor":
+                        fileMetaResponse.setNextCursor(parser.getValueAsString());
+                        break;
+                    case "payload":
+                        visitPayload(parser, value);
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+        }
+        return fileMetaResponse;
+    }
+
+    private void visitPayload(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_NULL) {
+            return;
+        }
+        if (value != JsonToken.START_ARRAY) {
+            throw new IOException("The payload of the listing is not an array");
+        }
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            visitor.accept(SUMMARY_READER.readValue(parser));
+        }
+        if (parser.currentToken() != JsonToken.END_ARRAY) {
+            throw new IOException("Unexpected " + parser.currentToken() + " in the payload of the listing");
+        }
+    }
+}
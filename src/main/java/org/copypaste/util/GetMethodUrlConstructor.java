@@ -1,7 +1,5 @@
 package org.copypaste.util;
 
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
 import java.util.Map;
 
 /**
@@ -11,6 +9,8 @@ import java.util.Map;
  */
 public class GetMethodUrlConstructor {
 
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
     /**
      *
      * Constructs get URL
@@ -37,31 +37,56 @@ public class GetMethodUrlConstructor {
                 prefix = "&";
             }
             sb.append(prefix);
-            sb.append(parameter.getKey()).append('=').append(encodeURI(parameter.getValue()));
+            sb.append(parameter.getKey()).append('=');
+            encodeURI(sb, parameter.getValue());
         }
         return sb.toString();
     }
 
     /**
+     * Same as JavaScript encodeURIComponent: the unreserved characters are kept, the others are percent encoded as
+     * UTF-8. It is written right to the builder, so there is neither regular expression nor intermediate string.
      * From here: https://stackoverflow.com/questions/607176/java-equivalent-to-javascripts-encodeuricomponent-that-produces-identical-outpu
      *
+     * @param sb builder to append to
      * @param s string to be encoded
-     * @return encoded URI
      */
-    private String encodeURI(String s) {
-        String result;
-        try {
-            result = URLEncoder.encode(s, "UTF-8")
-                    .replaceAll("\\+", "%20")
-                    .replaceAll("\\%21", "!")
-                    .replaceAll("\\%27", "'")
-                    .replaceAll("\\%28", "(")
-                    .replaceAll("\\%29", ")")
-                    .replaceAll("\\%7E", "~");
-        } catch (UnsupportedEncodingException e) {
-            result = s;
+    private void encodeURI(StringBuilder sb, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (isUnreserved(c)) {
+                sb.append(c);
+            } else if (c < 0x80) {
+                appendEscaped(sb, c);
+            } else if (c < 0x800) {
+                appendEscaped(sb, 0xC0 | c >> 6);
+                appendEscaped(sb, 0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                appendEscaped(sb, 0xF0 | codePoint >> 18);
+                appendEscaped(sb, 0x80 | codePoint >> 12 & 0x3F);
+                appendEscaped(sb, 0x80 | codePoint >> 6 & 0x3F);
+                appendEscaped(sb, 0x80 | codePoint & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                // lone surrogate, as URLEncoder does
+                appendEscaped(sb, '?');
+            } else {
+                appendEscaped(sb, 0xE0 | c >> 12);
+                appendEscaped(sb, 0x80 | c >> 6 & 0x3F);
+                appendEscaped(sb, 0x80 | c & 0x3F);
+            }
         }
-        return result;
+    }
+
+    private static boolean isUnreserved(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9'
+                || c == '-' || c == '_' || c == '.' || c == '!' || c == '~' || c == '*' || c == '\'' || c == '('
+                || c == ')';
+    }
+
+    private static void appendEscaped(StringBuilder sb, int b) {
+        sb.append('%').append(HEX[b >> 4 & 0xF]).append(HEX[b & 0xF]);
     }
 
 }
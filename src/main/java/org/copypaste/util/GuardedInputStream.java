@@ -0,0 +1,73 @@
+package org.copypaste.util;
+
+import org.apache.http.ContentTooLongException;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ *
+ * Byte counting {@link InputStream} wrapper. As {@link GuardedInputStreamConverter} it throws exception once more than
+ * allowed maximum is read, but it does not collect the content. It lets a parser to read directly from the connection
+ * while still dropping on long "impossible" server replies.
+ */
+public class GuardedInputStream extends FilterInputStream {
+
+    private final long maxBytes;
+
+    private long count;
+
+    public GuardedInputStream(InputStream inputStream, long maxBytes) {
+        super(inputStream);
+        if (inputStream == null) {
+            throw new NullPointerException("InputStream cannot be null");
+        }
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Max bytes should be greater than zero");
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int aByte = super.read();
+        if (aByte != -1) {
+            count(1);
+        }
+        return aByte;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = super.read(b, off, len);
+        if (read > 0) {
+            count(read);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        count(skipped);
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    private void count(long read) throws IOException {
+        count += read;
+        if (count > maxBytes) {
+            // not retried, the same reply is as long next time
+            throw new ContentTooLongException("Too long response, dropping");
+        }
+    }
+}
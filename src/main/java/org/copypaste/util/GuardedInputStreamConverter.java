@@ -3,25 +3,36 @@ package org.copypaste.util;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.Objects;
 
 /**
  *
  * Guarded InputStream to String converter. The meaning of guard is in that it will throw exception if the gotten
  * {@link InputStream} is greater than some allowed maximum. This is done in order to drop on long "impossible" server
- * replies.
+ * replies.<br/>
+ * The stream is read by blocks. When the content length is known (e.g. from Content-Length header) the first buffer is
+ * allocated exactly of that size and the reply that declares more than the allowed maximum is dropped before reading.
  *
  * @author Sergey
  */
 public class GuardedInputStreamConverter implements Closeable {
 
+    private static final long UNKNOWN_LENGTH = -1;
+
     private final int maxBuffer;
 
     private final int startBuffer;
 
+    private final long contentLength;
+
     private final InputStream inputStream;
 
-    private GuardedInputStreamConverter(InputStream inputStream, int startBuffer, int maxBuffer) {
+    private GuardedInputStreamConverter(InputStream inputStream, int startBuffer, int maxBuffer, long contentLength) {
         Objects.requireNonNull(inputStream, "InputStream cannot be null");
         this.inputStream = inputStream;
         if (startBuffer <= 0 || maxBuffer <= 0) {
@@ -29,23 +40,58 @@ public class GuardedInputStreamConverter implements Closeable {
         }
         this.startBuffer = startBuffer;
         this.maxBuffer = maxBuffer;
+        this.contentLength = contentLength;
     }
 
+    /**
+     * @return content decoded as UTF-8
+     */
     public String readContent() throws IOException {
-        char[] buffer = new char[startBuffer];
-        int pos = 0;
-        int aByte;
-        while((aByte = inputStream.read()) != -1) {
-            if (pos == buffer.length) {
-                char[] newBuf = new char[buffer.length * 2];
-                System.arraycopy(buffer, 0, newBuf, 0, buffer.length);
-                buffer = newBuf;
-            } else if (pos > maxBuffer - 1) {
+        ByteBuffer content = read();
+        return new String(content.array(), 0, content.limit(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return content as exactly sized array
+     */
+    public byte[] readBytes() throws IOException {
+        ByteBuffer content = read();
+        byte[] buffer = content.array();
+        if (buffer.length == content.limit()) {
+            return buffer;
+        }
+        byte[] result = new byte[content.limit()];
+        System.arraycopy(buffer, 0, result, 0, result.length);
+        return result;
+    }
+
+    /**
+     * Reads the whole content to the given buffer starting from its position. The buffer may be direct.
+     *
+     * @param target buffer to read into, its position is advanced by the read bytes
+     * @return number of read bytes
+     * @throws BufferOverflowException if the content does not fit the remaining of the buffer
+     */
+    public int readInto(ByteBuffer target) throws IOException {
+        requireDeclaredLength();
+        int start = target.position();
+        ByteBuffer window = target.duplicate();
+        window.limit(start + Math.min(target.remaining(), maxBuffer));
+        ReadableByteChannel channel = Channels.newChannel(inputStream);
+        while (window.hasRemaining()) {
+            if (channel.read(window) == -1) {
+                target.position(window.position());
+                return window.position() - start;
+            }
+        }
+        if (inputStream.read() != -1) {
+            if (window.limit() < target.limit()) {
                 throw new RuntimeException("Too long response, dropping");
             }
-            buffer[pos++] = (char)aByte;
+            throw new BufferOverflowException();
         }
-        return new String(buffer, 0, pos);
+        target.position(window.position());
+        return window.position() - start;
     }
 
     @Override
@@ -53,6 +99,47 @@ public class GuardedInputStreamConverter implements Closeable {
         inputStream.close();
     }
 
+    /**
+     * @return buffer holding the read bytes from zero to its limit
+     */
+    private ByteBuffer read() throws IOException {
+        requireDeclaredLength();
+        int initial = contentLength == UNKNOWN_LENGTH ? startBuffer : (int) contentLength;
+        byte[] buffer = new byte[Math.min(initial, maxBuffer)];
+        int pos = 0;
+        while (true) {
+            if (pos == buffer.length) {
+                // the buffer is full, grow it only if there is something more (e.g. exact Content-Length)
+                int aByte = inputStream.read();
+                if (aByte == -1) {
+                    break;
+                } else if (pos == maxBuffer) {
+                    throw new RuntimeException("Too long response, dropping");
+                }
+                long grown = Math.max((long) buffer.length * 2, startBuffer);
+                byte[] newBuf = new byte[(int) Math.min(grown, maxBuffer)];
+                System.arraycopy(buffer, 0, newBuf, 0, pos);
+                buffer = newBuf;
+                buffer[pos++] = (byte) aByte;
+                continue;
+            }
+            int read = inputStream.read(buffer, pos, buffer.length - pos);
+            if (read == -1) {
+                break;
+            }
+            pos += read;
+        }
+        ByteBuffer content = ByteBuffer.wrap(buffer);
+        content.limit(pos);
+        return content;
+    }
+
+    private void requireDeclaredLength() {
+        if (contentLength > maxBuffer) {
+            throw new RuntimeException("Too long response, dropping");
+        }
+    }
+
     public static Builder asDefault() {
         Builder builder = new Builder();
         builder.startBuffer(1024);
@@ -65,6 +152,8 @@ public class GuardedInputStreamConverter implements Closeable {
 
         private int startBuffer;
 
+        private long contentLength = UNKNOWN_LENGTH;
+
         private InputStream inputStream;
 
 
@@ -78,13 +167,21 @@ public class GuardedInputStreamConverter implements Closeable {
             return this;
         }
 
+        /**
+         * @param contentLength declared length of the content, negative if unknown
+         */
+        public Builder contentLength(long contentLength) {
+            this.contentLength = contentLength < 0 ? UNKNOWN_LENGTH : contentLength;
+            return this;
+        }
+
         public Builder inputStream(InputStream inputStream) {
             this.inputStream = inputStream;
             return this;
         }
 
         public GuardedInputStreamConverter build() {
-            return new GuardedInputStreamConverter(inputStream, startBuffer, maxBuffer);
+            return new GuardedInputStreamConverter(inputStream, startBuffer, maxBuffer, contentLength);
         }
 
     }
@@ -0,0 +1,41 @@
+package org.copypaste.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental checksum of some {@link ChecksumAlgorithm}. Not thread safe.
+ */
+public interface Hasher {
+
+    void update(byte[] content, int offset, int length);
+
+    default void update(byte[] content) {
+        update(content, 0, content.length);
+    }
+
+    /**
+     * Consumes the remaining bytes of the buffer.
+     */
+    void update(ByteBuffer buffer);
+
+    /**
+     * @return length of the checksum in bytes
+     */
+    int length();
+
+    /**
+     * Writes the checksum to the array and resets the hasher.
+     *
+     * @param checksum array of at least {@link #length()} bytes
+     */
+    void digest(byte[] checksum);
+
+    /**
+     * @return the checksum, the hasher is reset
+     */
+    default byte[] digest() {
+        byte[] checksum = new byte[length()];
+        digest(checksum);
+        return checksum;
+    }
+}
@@ -1,23 +1,55 @@
 package org.copypaste.util;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
 import org.copypaste.data.Response;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  *
  * Utility class that connects to server with given URL and endpoint. It does not create HttpClient but expects it as
- * input
+ * input. The response is decoded by the given {@link ResponseDecoder}, JSON by default. Every attempt is reported to the
+ * given {@link RequestListener}.<br/>
+ * The connector may be reused for the requests which differ only by the parameters, see
+ * {@link #executeWithRetries(Map)}, or also by the headers and the decoder, see
+ * {@link #executeWithRetries(Map, Map, ResponseDecoder)}.<br/>
+ * The reply 304 to the conditional request is not decoded, the decoder tells the response, see
+ * {@link ResponseDecoder#notModified(HttpResponse)}.<br/>
+ * Given the non-blocking client the connector executes the requests without a thread per request, see
+ * {@link #executeWithRetriesAsync(Map)}. The response is collected in memory (up to the max buffer) and decoded on the
+ * I/O thread once it is complete.<br/>
+ * Failures are retried as the {@link RetryPolicy} tells: only the retryable ones, after the growing random delay and
+ * while the shared retry budget allows.<br/>
+ * Requests are metered to the given registry, tagged by the end point: <code>copypaste.http.request</code> times every
+ * attempt by its outcome, <code>copypaste.http.decode</code> the decoding, <code>copypaste.http.call</code> the call
+ * with all its retries and <code>copypaste.http.retries</code> counts the retries.
  *
  * @param <T> type of the Response object. Passed as parameter to the builder factory method
  */
@@ -25,13 +57,16 @@ public class HttpConnector<T extends Response> {
 
     private static final Logger log = LoggerFactory.getLogger(HttpConnector.class);
 
+    private static final GetMethodUrlConstructor URL_CONSTRUCTOR = new GetMethodUrlConstructor();
+
+    // meters of no registry
+    private static final MeterRegistry NO_METERS = new CompositeMeterRegistry();
+
     private final String serverUrl;
 
     private final String endPoint;
 
-    private final int timeOutMS;
-
-    private final Class<T> resultClass;
+    private final RequestConfig requestConfig;
 
     private final int maxBuffer;
 
@@ -39,11 +74,34 @@ public class HttpConnector<T extends Response> {
 
     private final Map<String, String> params;
 
+    private final Map<String, String> headers;
+
     private final CloseableHttpClient httpClient;
 
+    private final CloseableHttpAsyncClient asyncClient;
+
+    private final ResponseDecoder<T> decoder;
+
+    private final RequestListener listener;
+
+    private final RetryPolicy retryPolicy;
+
+    private final Timer succeededTimer;
+
+    private final Timer failedTimer;
+
+    private final Timer decodeTimer;
+
+    private final Timer callTimer;
+
+    private final Counter retriesCounter;
 
-    private HttpConnector(String serverUrl, String endPoint, int timeOutMS, Class<T> resultClass,
-                          int maxBuffer, int retries, Map<String, String> params, CloseableHttpClient httpClient) {
+
+    private HttpConnector(String serverUrl, String endPoint, int timeOutMS, RequestConfig requestConfig,
+                          Class<T> resultClass, int maxBuffer, int retries, Map<String, String> params,
+                          Map<String, String> headers, CloseableHttpClient httpClient,
+                          CloseableHttpAsyncClient asyncClient, ResponseDecoder<T> decoder, RequestListener listener,
+                          RetryPolicy retryPolicy, MeterRegistry meterRegistry) {
         if (serverUrl == null || "".equals(serverUrl)) {
             throw new IllegalArgumentException("Server url cannot be empty");
         }
@@ -52,9 +110,12 @@ public class HttpConnector<T extends Response> {
             throw new IllegalArgumentException("End point cannot be empty");
         }
         this.endPoint = endPoint;
-        this.timeOutMS = timeOutMS;
+        this.requestConfig = requestConfig != null ? requestConfig : RequestConfig.custom()
+                .setConnectionRequestTimeout(timeOutMS)
+                .setConnectTimeout(timeOutMS)
+                .setSocketTimeout(timeOutMS)
+                .build();
         Objects.requireNonNull(resultClass, "Result class cannot should not be null");
-        this.resultClass = resultClass;
         if (maxBuffer < 1024) {
             throw new IllegalArgumentException("Max Buffer should not be less than 1KB");
         }
@@ -64,8 +125,28 @@ public class HttpConnector<T extends Response> {
         }
         this.retries = retries;
         this.params = params;
-        Objects.requireNonNull(httpClient, "Http Client cannot be null");
+        this.headers = headers;
+        if (httpClient == null && asyncClient == null) {
+            throw new NullPointerException("Http Client cannot be null");
+        }
         this.httpClient = httpClient;
+        this.asyncClient = asyncClient;
+        this.decoder = decoder != null ? decoder : new JsonResponseDecoder<>(resultClass);
+        this.listener = listener != null ? listener : RequestListener.NONE;
+        this.retryPolicy = retryPolicy != null ? retryPolicy : RetryPolicy.defaultPolicy();
+        MeterRegistry registry = meterRegistry != null ? meterRegistry : NO_METERS;
+        this.succeededTimer = requestTimer(registry, "success");
+        this.failedTimer = requestTimer(registry, "failure");
+        this.decodeTimer = registry.timer("copypaste.http.decode", "endpoint", endPoint);
+        this.callTimer = registry.timer("copypaste.http.call", "endpoint", endPoint);
+        this.retriesCounter = registry.counter("copypaste.http.retries", "endpoint", endPoint);
+    }
+
+    private Timer requestTimer(MeterRegistry registry, String outcome) {
+        return Timer.builder("copypaste.http.request")
+                .tags("endpoint", endPoint, "outcome", outcome)
+                .publishPercentiles(0.5, 0.99)
+                .register(registry);
     }
 
     public static<U extends Response> Builder<U> as(Class<U> resultClass) {
@@ -76,49 +157,273 @@ public class HttpConnector<T extends Response> {
 
 
     public T execute() {
+        return execute(params);
+    }
+
+    /**
+     * @param params parameters of this request instead of the built ones
+     */
+    public T execute(Map<String, String> params) {
+        return execute(params, Collections.emptyMap(), decoder);
+    }
+
+    private T execute(Map<String, String> params, Map<String, String> headers, ResponseDecoder<T> decoder) {
+        long startNanos = System.nanoTime();
+        try {
+            T result = request(params, headers, decoder);
+            succeededTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            return result;
+        } catch (RuntimeException e) {
+            failedTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            listener.failed(e);
+            throw e;
+        }
+    }
 
+    private T request(Map<String, String> params, Map<String, String> headers, ResponseDecoder<T> decoder) {
+        if (httpClient == null) {
+            throw new IllegalStateException("Blocking request without blocking client");
+        }
         try {
-            RequestConfig custom = RequestConfig.custom()
-                    .setConnectionRequestTimeout(timeOutMS)
-                    .setConnectTimeout(timeOutMS)
-                    .setSocketTimeout(timeOutMS)
-                    .build();
-            GetMethodUrlConstructor constructor = new GetMethodUrlConstructor();
-            HttpGet getMeta = new HttpGet(constructor.construct(serverUrl, endPoint, params));
-            getMeta.setConfig(custom);
+            HttpGet getMeta = newGet(params, headers, decoder);
+            long startNanos = System.nanoTime();
             try (CloseableHttpResponse response = httpClient.execute(getMeta)) {
-                if (response.getStatusLine().getStatusCode() != 200) {
-                    throw new IllegalStateException("Response status != 200");
+                long headersNanos = System.nanoTime();
+                if (isNotModified(response)) {
+                    T result = decoder.notModified(response);
+                    listener.succeeded(headersNanos - startNanos);
+                    return result;
                 }
+                requireSuccess(response);
                 HttpEntity entity = response.getEntity();
 
-                String result;
-                try(GuardedInputStreamConverter converter =
-                            GuardedInputStreamConverter.asDefault()
-                                    .inputStream(entity.getContent())
-                                    .maxBuffer(maxBuffer).build()) {
-                    result = converter.readContent();
+                // decoder reads directly from the connection, the guard still drops too long replies
+                T result;
+                try (InputStream content = new GuardedInputStream(entity.getContent(), maxBuffer)) {
+                    decoder.headersReceived(headersNanos);
+                    result = decoder.decode(response, content, maxBuffer);
                 }
-
-                ObjectMapper objectMapper = new ObjectMapper();
-                return objectMapper.readValue(result, resultClass);
+                decodeTimer.record(System.nanoTime() - headersNanos, TimeUnit.NANOSECONDS);
+                listener.succeeded(headersNanos - startNanos);
+                return result;
             }
         } catch(IOException ioe) {
             throw new RuntimeException("IO error", ioe);
         }
     }
 
+    /**
+     * Non-blocking request, the future is completed on the I/O thread.
+     *
+     * @param params parameters of this request instead of the built ones
+     */
+    public CompletableFuture<T> executeAsync(Map<String, String> params) {
+        return executeAsync(params, Collections.emptyMap(), decoder);
+    }
+
+    private CompletableFuture<T> executeAsync(Map<String, String> params, Map<String, String> headers,
+                                              ResponseDecoder<T> decoder) {
+        if (asyncClient == null) {
+            throw new IllegalStateException("Non-blocking request without non-blocking client");
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        BufferedAsyncResponseConsumer consumer = new BufferedAsyncResponseConsumer(maxBuffer);
+        long startNanos = System.nanoTime();
+        Future<HttpResponse> request = asyncClient.execute(HttpAsyncMethods.create(newGet(params, headers, decoder)),
+                consumer, null,
+                new FutureCallback<HttpResponse>() {
+
+                    @Override
+                    public void completed(HttpResponse response) {
+                        T decoded;
+                        try {
+                            if (isNotModified(response)) {
+                                decoded = decoder.notModified(response);
+                            } else {
+                                requireSuccess(response);
+                                long decodeNanos = System.nanoTime();
+                                try (InputStream content = response.getEntity().getContent()) {
+                                    decoder.headersReceived(consumer.getHeadersNanos());
+                                    decoded = decoder.decode(response, content, maxBuffer);
+                                }
+                                decodeTimer.record(System.nanoTime() - decodeNanos, TimeUnit.NANOSECONDS);
+                            }
+                        } catch (IOException e) {
+                            failed(new RuntimeException("IO error", e));
+                            return;
+                        } catch (RuntimeException e) {
+                            failed(e);
+                            return;
+                        }
+                        succeededTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+                        listener.succeeded(consumer.getHeadersNanos() - startNanos);
+                        result.complete(decoded);
+                    }
+
+                    @Override
+                    public void failed(Exception e) {
+                        failedTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+                        listener.failed(e);
+                        result.completeExceptionally(e);
+                    }
+
+                    @Override
+                    public void cancelled() {
+                        result.completeExceptionally(new CancellationException("Request is cancelled"));
+                    }
+                });
+        // the cancelled future aborts the request
+        result.whenComplete((decoded, e) -> {
+            if (result.isCancelled()) {
+                request.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Non-blocking request retried on failure, the future is completed on the I/O thread.
+     *
+     * @param params parameters of this request instead of the built ones
+     */
+    public CompletableFuture<T> executeWithRetriesAsync(Map<String, String> params) {
+        return executeWithRetriesAsync(params, Collections.emptyMap(), decoder);
+    }
+
+    /**
+     * Non-blocking request retried on failure, the future is completed on the I/O thread.
+     *
+     * @param params parameters of this request instead of the built ones
+     * @param headers headers of this request in addition to the built ones
+     * @param decoder decoder of this response instead of the built one
+     */
+    public CompletableFuture<T> executeWithRetriesAsync(Map<String, String> params, Map<String, String> headers,
+                                                        ResponseDecoder<T> decoder) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        long startNanos = System.nanoTime();
+        result.whenComplete((response, e) -> callTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS));
+        attemptAsync(params, headers, decoder, 0, result);
+        // the result itself, so the caller can cancel it
+        return result;
+    }
+
+    private void attemptAsync(Map<String, String> params, Map<String, String> headers, ResponseDecoder<T> decoder,
+                              int retry, CompletableFuture<T> result) {
+        if (result.isDone()) {
+            // cancelled while waiting to retry
+            return;
+        }
+        CompletableFuture<T> attempt = executeAsync(params, headers, decoder);
+        // the cancelled call aborts the attempt in flight
+        result.whenComplete((response, e) -> attempt.cancel(true));
+        attempt.whenComplete((response, e) -> {
+            if (result.isDone()) {
+                return;
+            }
+            if (e == null) {
+                retryPolicy.succeeded();
+                result.complete(response);
+                return;
+            }
+            long delayMs;
+            try {
+                delayMs = retryDelayMs(retry, e);
+            } catch (RuntimeException giveUp) {
+                result.completeExceptionally(giveUp);
+                return;
+            }
+            RetryScheduler.INSTANCE.schedule(() -> attemptAsync(params, headers, decoder, retry + 1, result),
+                    delayMs, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    /**
+     * @param retry number of the retry, from 0
+     * @return delay before the retry
+     * @throws RuntimeException if the failure should not be retried
+     */
+    private long retryDelayMs(int retry, Throwable e) {
+        if (!retryPolicy.isRetryable(e)) {
+            throw new RuntimeException("Failed to retrieve from end point: " + endPoint + ". Not retryable", e);
+        }
+        if (retry >= retries) {
+            throw new RuntimeException("Failed to retrieve from end point: " + endPoint + ". Giving up", e);
+        }
+        if (!retryPolicy.tryRetry()) {
+            throw new RuntimeException("Failed to retrieve from end point: " + endPoint
+                    + ". Retry budget is spent, giving up", e);
+        }
+        long delayMs = retryPolicy.delayMs(retry, e);
+        retriesCounter.increment();
+        Throwable reason = e.getCause() != null ? e.getCause() : e;
+        log.warn("Error while connecting to end point {} on server {}: {}. Retry {} of {} in {}ms",
+                endPoint, serverUrl, reason, retry + 1, retries, delayMs);
+        log.debug("Retried error", e);
+        return delayMs;
+    }
+
+    private HttpGet newGet(Map<String, String> params, Map<String, String> requestHeaders, ResponseDecoder<T> decoder) {
+        HttpGet get = new HttpGet(URL_CONSTRUCTOR.construct(serverUrl, endPoint, params));
+        get.setConfig(requestConfig);
+        get.setHeader(HttpHeaders.ACCEPT, decoder.accept());
+        headers.forEach(get::setHeader);
+        requestHeaders.forEach(get::setHeader);
+        return get;
+    }
+
+    private static boolean isNotModified(HttpResponse response) {
+        return response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED;
+    }
+
+    private static void requireSuccess(HttpResponse response) {
+        int status = response.getStatusLine().getStatusCode();
+        // partial content is the reply to the range request
+        if (status != HttpStatus.SC_OK && status != HttpStatus.SC_PARTIAL_CONTENT) {
+            throw HttpStatusException.of(response);
+        }
+    }
+
     public T executeWithRetries() {
-        int retry = 0;
-        do {
+        return executeWithRetries(params);
+    }
+
+    /**
+     * @param params parameters of this request instead of the built ones
+     */
+    public T executeWithRetries(Map<String, String> params) {
+        return executeWithRetries(params, Collections.emptyMap(), decoder);
+    }
+
+    /**
+     * @param params parameters of this request instead of the built ones
+     * @param headers headers of this request in addition to the built ones
+     * @param decoder decoder of this response instead of the built one
+     */
+    public T executeWithRetries(Map<String, String> params, Map<String, String> headers, ResponseDecoder<T> decoder) {
+        long startNanos = System.nanoTime();
+        try {
+            return attempt(params, headers, decoder);
+        } finally {
+            callTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private T attempt(Map<String, String> params, Map<String, String> headers, ResponseDecoder<T> decoder) {
+        for (int retry = 0; ; retry++) {
             try {
-                return execute();
-            } catch (Exception e) {
-                log.info("Error while connecting to end point {} on server {} will retry {} attempts",
-                        endPoint, serverUrl, retries - retry, e);
+                T result = execute(params, headers, decoder);
+                retryPolicy.succeeded();
+                return result;
+            } catch (RuntimeException e) {
+                long delayMs = retryDelayMs(retry, e);
+                try {
+                    Thread.sleep(delayMs);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while waiting to retry", ie);
+                }
             }
-        } while (retry++ < retries);
-        throw new RuntimeException("Failed to retrieve from end point: " + endPoint + ". Giving up");
+        }
     }
 
     public static class Builder<U extends Response> {
@@ -129,6 +434,8 @@ public class HttpConnector<T extends Response> {
 
         private int timeOutMS;
 
+        private RequestConfig requestConfig;
+
         private Class<U> resultClass;
 
         private int maxBuffer;
@@ -137,8 +444,20 @@ public class HttpConnector<T extends Response> {
 
         private Map<String, String> params;
 
+        private final Map<String, String> headers = new HashMap<>();
+
         private CloseableHttpClient httpClient;
 
+        private CloseableHttpAsyncClient asyncClient;
+
+        private ResponseDecoder<U> decoder;
+
+        private RequestListener listener;
+
+        private RetryPolicy retryPolicy;
+
+        private MeterRegistry meterRegistry;
+
         public Builder<U> serverUrl(String serverUrl) {
             this.serverUrl = serverUrl;
             return this;
@@ -154,6 +473,14 @@ public class HttpConnector<T extends Response> {
             return this;
         }
 
+        /**
+         * @param requestConfig shared config of the requests, the config of the time out is built if not set
+         */
+        public Builder<U> requestConfig(RequestConfig requestConfig) {
+            this.requestConfig = requestConfig;
+            return this;
+        }
+
         public Builder<U> resultClass(Class<U> resultClass) {
             this.resultClass = resultClass;
             return this;
@@ -174,15 +501,74 @@ public class HttpConnector<T extends Response> {
             return this;
         }
 
+        /**
+         * Sets additional request header, e.g. Range or If-None-Match
+         */
+        public Builder<U> header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
         public Builder<U> httpClient(CloseableHttpClient httpClient) {
             this.httpClient = httpClient;
             return this;
         }
 
+        /**
+         * @param asyncClient non-blocking client of the async requests
+         */
+        public Builder<U> asyncClient(CloseableHttpAsyncClient asyncClient) {
+            this.asyncClient = asyncClient;
+            return this;
+        }
+
+        /**
+         * @param decoder decoder of the response, JSON of the result class if not set
+         */
+        public Builder<U> decoder(ResponseDecoder<U> decoder) {
+            this.decoder = decoder;
+            return this;
+        }
+
+        public Builder<U> listener(RequestListener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        /**
+         * @param retryPolicy policy of the retries, the default one without budget if not set
+         */
+        public Builder<U> retryPolicy(RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * @param meterRegistry registry of the request meters, not metered if not set
+         */
+        public Builder<U> meterRegistry(MeterRegistry meterRegistry) {
+            this.meterRegistry = meterRegistry;
+            return this;
+        }
+
         public HttpConnector<U> build() {
-            return new HttpConnector<>(serverUrl, endPoint, timeOutMS, resultClass, maxBuffer, retries, params, httpClient);
+            return new HttpConnector<>(serverUrl, endPoint, timeOutMS, requestConfig, resultClass, maxBuffer, retries,
+                    params, new HashMap<>(headers), httpClient, asyncClient, decoder, listener, retryPolicy,
+                    meterRegistry);
         }
 
     }
 
+    /**
+     * Delays the non-blocking retries, the thread is started by the first one
+     */
+    private static class RetryScheduler {
+
+        private static final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "Retry Scheduler");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
 }
@@ -0,0 +1,60 @@
+package org.copypaste.util;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.utils.DateUtils;
+
+import java.util.Date;
+
+/**
+ * Unexpected status of the response. Keeps the status and the delay the server asked for by the Retry-After header, so
+ * {@link RetryPolicy} tells whether and when to retry.
+ */
+public class HttpStatusException extends RuntimeException {
+
+    private final int status;
+
+    private final long retryAfterMs;
+
+    /**
+     * @param retryAfterMs delay the server asked for, -1 if none
+     */
+    public HttpStatusException(int status, long retryAfterMs) {
+        super("Response status " + status + " is neither 200 nor 206");
+        this.status = status;
+        this.retryAfterMs = retryAfterMs;
+    }
+
+    public static HttpStatusException of(HttpResponse response) {
+        return new HttpStatusException(response.getStatusLine().getStatusCode(), retryAfterMs(response));
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * @return delay the server asked for, -1 if none
+     */
+    public long getRetryAfterMs() {
+        return retryAfterMs;
+    }
+
+    /**
+     * Retry-After is either the seconds to wait or the HTTP date to wait till
+     */
+    private static long retryAfterMs(HttpResponse response) {
+        Header retryAfter = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+        if (retryAfter == null) {
+            return -1;
+        }
+        String value = retryAfter.getValue().trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException e) {
+            Date date = DateUtils.parseDate(value);
+            return date == null ? -1 : Math.max(0, date.getTime() - System.currentTimeMillis());
+        }
+    }
+}
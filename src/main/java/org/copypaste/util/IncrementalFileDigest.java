@@ -0,0 +1,157 @@
+package org.copypaste.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Whole file digest which is updated while the file is written, so the final check does not read the file again.<br/>
+ * The digest must be fed in order. The content written at the current end of the digested part is digested right from
+ * memory. The content written out of order is held in memory while the hold budget allows and is digested once the gap
+ * before it is closed. Beyond the budget it is only remembered as a range and read back from the file then (it is most
+ * likely still in the page cache).
+ */
+public class IncrementalFileDigest {
+
+    private static final int READ_BUFFER = 64 * 1024;
+
+    private final Hasher hasher;
+
+    private final FileChannel fileChannel;
+
+    // may be null, then nothing is held
+    private final ByteBudget holdBudget;
+
+    // offset -> content of the written but not yet digested chunks held in memory
+    private final TreeMap<Long, byte[]> heldChunks = new TreeMap<>();
+
+    // offset -> length of the written but not yet digested ranges to read back
+    private final TreeMap<Long, Integer> pendingRanges = new TreeMap<>();
+
+    private ByteBuffer readBuffer;
+
+    private long digestedLength;
+
+    /**
+     * @param hasher checksum to update, should be fresh
+     * @param fileChannel channel of the file being written, used to read back out of order ranges
+     */
+    public IncrementalFileDigest(Hasher hasher, FileChannel fileChannel) {
+        this(hasher, fileChannel, null);
+    }
+
+    /**
+     * @param hasher checksum to update, should be fresh
+     * @param fileChannel channel of the file being written, used to read back out of order ranges
+     * @param holdBudget budget of the out of order content held in memory, may be shared by several digests. If null
+     *                   the out of order content is always read back
+     */
+    public IncrementalFileDigest(Hasher hasher, FileChannel fileChannel, ByteBudget holdBudget) {
+        Objects.requireNonNull(hasher, "Hasher cannot be null");
+        Objects.requireNonNull(fileChannel, "File channel cannot be null");
+        this.hasher = hasher;
+        this.fileChannel = fileChannel;
+        this.holdBudget = holdBudget;
+    }
+
+    /**
+     * @param offset position of the written content in the file
+     * @param content written content, it is held as is, so it should not be changed afterwards
+     */
+    public void written(long offset, byte[] content) throws IOException {
+        if (offset == digestedLength) {
+            hasher.update(content);
+            digestedLength += content.length;
+            digestPending();
+        } else if (holdBudget != null && holdBudget.tryAcquire(content.length)) {
+            heldChunks.put(offset, content);
+        } else {
+            pendingRanges.put(offset, content.length);
+        }
+    }
+
+    /**
+     * Remembers the range which is already in the file, e.g. written by the previous run.
+     */
+    public void writtenBefore(long offset, int length) throws IOException {
+        pendingRanges.put(offset, length);
+        digestPending();
+    }
+
+    /**
+     * @return length of the file prefix which is digested
+     */
+    public long getDigestedLength() {
+        return digestedLength;
+    }
+
+    /**
+     * @param fileLength expected length of the file
+     * @return the checksum of the whole file
+     * @throws IllegalStateException if not all the file is written
+     */
+    public byte[] digest(long fileLength) {
+        if (digestedLength != fileLength || !pendingRanges.isEmpty() || !heldChunks.isEmpty()) {
+            throw new IllegalStateException("File is digested up to " + digestedLength + " of " + fileLength);
+        }
+        return hasher.digest();
+    }
+
+    /**
+     * Drops the held content and returns its bytes to the hold budget, e.g. when the file is not done.
+     */
+    public void release() {
+        for (byte[] content : heldChunks.values()) {
+            holdBudget.release(content.length);
+        }
+        heldChunks.clear();
+    }
+
+    private void digestPending() throws IOException {
+        while (true) {
+            Map.Entry<Long, byte[]> held = heldChunks.firstEntry();
+            Map.Entry<Long, Integer> range = pendingRanges.firstEntry();
+            if (held != null && held.getKey() <= digestedLength) {
+                heldChunks.remove(held.getKey());
+                byte[] content = held.getValue();
+                holdBudget.release(content.length);
+                long end = held.getKey() + content.length;
+                if (end > digestedLength) {
+                    int from = (int) (digestedLength - held.getKey());
+                    hasher.update(content, from, content.length - from);
+                    digestedLength = end;
+                }
+            } else if (range != null && range.getKey() <= digestedLength) {
+                pendingRanges.remove(range.getKey());
+                long end = range.getKey() + range.getValue();
+                if (end > digestedLength) {
+                    readBack(digestedLength, end);
+                }
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void readBack(long from, long to) throws IOException {
+        if (readBuffer == null) {
+            readBuffer = ByteBuffer.allocate(READ_BUFFER);
+        }
+        long position = from;
+        while (position < to) {
+            readBuffer.clear();
+            readBuffer.limit((int) Math.min(readBuffer.capacity(), to - position));
+            int read = fileChannel.read(readBuffer, position);
+            if (read == -1) {
+                throw new IOException("Unexpected end of file at " + position);
+            }
+            readBuffer.flip();
+            hasher.update(readBuffer);
+            position += read;
+        }
+        digestedLength = to;
+    }
+}
@@ -0,0 +1,41 @@
+package org.copypaste.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.apache.http.HttpResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The JSON responses of the server. The parser reads right from the connection. All the decoders share the same
+ * mapper and the reader of every response type, so a decoder costs nothing to create.
+ *
+ * @param <T> type of the response object
+ */
+public class JsonResponseDecoder<T> implements ResponseDecoder<T> {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final ConcurrentMap<Class<?>, ObjectReader> READERS = new ConcurrentHashMap<>();
+
+    private final ObjectReader reader;
+
+    public JsonResponseDecoder(Class<T> resultClass) {
+        Objects.requireNonNull(resultClass, "Result class cannot should not be null");
+        this.reader = READERS.computeIfAbsent(resultClass, OBJECT_MAPPER::readerFor);
+    }
+
+    @Override
+    public String accept() {
+        return "application/json";
+    }
+
+    @Override
+    public T decode(HttpResponse response, InputStream content, int maxBuffer) throws IOException {
+        return reader.readValue(content);
+    }
+}
@@ -0,0 +1,155 @@
+package org.copypaste.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+
+/**
+ * Copies the content right to the memory mapped file, so there is no write call per chunk. The file is mapped by
+ * windows of the same size, only the few recently used windows are kept mapped. The file is extended to its size by the
+ * mapping.<br/>
+ * JDK unmaps a buffer only once it is collected by GC, which keeps the file locked on some systems and may exhaust the
+ * address space on large files. Therefore, evicted windows are unmapped explicitly by the JDK internal cleaner if it is
+ * accessible, otherwise they are left to GC. Unmapped windows must not be touched, the writer must not be used
+ * concurrently.
+ */
+public class MappedChunkWriter implements ChunkWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(MappedChunkWriter.class);
+
+    private static final Unmapper UNMAPPER = Unmapper.find();
+
+    private final FileChannel fileChannel;
+
+    private final long fileSize;
+
+    private final long windowSize;
+
+    private final int maxWindows;
+
+    // window index -> mapping, in access order
+    private final LinkedHashMap<Long, MappedByteBuffer> windows = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * @param fileChannel channel of the file opened for writing
+     * @param fileSize size of the file, content is not written beyond it
+     * @param windowSize size of the mapped window
+     * @param maxWindows max number of the windows mapped at once
+     */
+    public MappedChunkWriter(FileChannel fileChannel, long fileSize, long windowSize, int maxWindows) {
+        Objects.requireNonNull(fileChannel, "File channel cannot be null");
+        if (windowSize <= 0 || windowSize > Integer.MAX_VALUE || maxWindows <= 0) {
+            throw new IllegalArgumentException("Window size should be positive int, max windows greater than zero");
+        }
+        this.fileChannel = fileChannel;
+        this.fileSize = fileSize;
+        this.windowSize = windowSize;
+        this.maxWindows = maxWindows;
+    }
+
+    @Override
+    public void write(long offset, byte[] content) throws IOException {
+        if (offset < 0 || offset + content.length > fileSize) {
+            throw new IOException("Content at " + offset + " of length " + content.length +
+                    " is out of file size " + fileSize);
+        }
+        int copied = 0;
+        while (copied < content.length) {
+            long position = offset + copied;
+            long windowIndex = position / windowSize;
+            int windowOffset = (int) (position - windowIndex * windowSize);
+            ByteBuffer window = window(windowIndex).duplicate();
+            int length = Math.min(window.capacity() - windowOffset, content.length - copied);
+            window.position(windowOffset);
+            window.put(content, copied, length);
+            copied += length;
+        }
+    }
+
+    @Override
+    public void force(boolean metaData) throws IOException {
+        for (MappedByteBuffer window : windows.values()) {
+            window.force();
+        }
+        // pages of the evicted windows are in the page cache of the file
+        fileChannel.force(metaData);
+    }
+
+    @Override
+    public void close() {
+        Iterator<MappedByteBuffer> iterator = windows.values().iterator();
+        while (iterator.hasNext()) {
+            UNMAPPER.unmap(iterator.next());
+            iterator.remove();
+        }
+    }
+
+    private MappedByteBuffer window(long windowIndex) throws IOException {
+        MappedByteBuffer window = windows.get(windowIndex);
+        if (window == null) {
+            if (windows.size() >= maxWindows) {
+                Iterator<MappedByteBuffer> eldest = windows.values().iterator();
+                UNMAPPER.unmap(eldest.next());
+                eldest.remove();
+            }
+            long position = windowIndex * windowSize;
+            window = fileChannel.map(FileChannel.MapMode.READ_WRITE, position,
+                    Math.min(windowSize, fileSize - position));
+            windows.put(windowIndex, window);
+        }
+        return window;
+    }
+
+    /**
+     * Explicit unmapping by JDK internals: <code>Unsafe.invokeCleaner</code> since Java 9, the buffer cleaner on Java 8.
+     */
+    private interface Unmapper {
+
+        void unmap(ByteBuffer buffer);
+
+        static Unmapper find() {
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                Object unsafe = theUnsafe.get(null);
+                return buffer -> invoke(() -> invokeCleaner.invoke(unsafe, buffer));
+            } catch (NoSuchMethodException e) {
+                return buffer -> invoke(() -> {
+                    Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                    cleanerMethod.setAccessible(true);
+                    Object cleaner = cleanerMethod.invoke(buffer);
+                    if (cleaner != null) {
+                        cleaner.getClass().getMethod("clean").invoke(cleaner);
+                    }
+                    return null;
+                });
+            } catch (Exception e) {
+                log.warn("Cannot access JDK cleaner, mapped windows will be unmapped by GC", e);
+                return buffer -> { };
+            }
+        }
+
+        static void invoke(ReflectiveCall call) {
+            try {
+                call.call();
+            } catch (Exception e) {
+                log.debug("Cannot unmap window, it will be unmapped by GC", e);
+            }
+        }
+    }
+
+    private interface ReflectiveCall {
+        Object call() throws Exception;
+    }
+}
@@ -0,0 +1,67 @@
+package org.copypaste.util;
+
+import java.util.zip.Checksum;
+
+/**
+ * CRC32C (Castagnoli) for Java 8, which has no <code>java.util.zip.CRC32C</code>. Table driven, 8 bytes per step
+ * ("slicing by 8").
+ */
+public class PureJavaCrc32C implements Checksum {
+
+    // reversed Castagnoli polynomial
+    private static final int POLYNOMIAL = 0x82F63B78;
+
+    private static final int[] TABLE = new int[8 * 256];
+
+    static {
+        for (int n = 0; n < 256; n++) {
+            int crc = n;
+            for (int k = 0; k < 8; k++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+            }
+            TABLE[n] = crc;
+        }
+        for (int n = 0; n < 256; n++) {
+            int crc = TABLE[n];
+            for (int k = 1; k < 8; k++) {
+                crc = TABLE[crc & 0xff] ^ (crc >>> 8);
+                TABLE[k * 256 + n] = crc;
+            }
+        }
+    }
+
+    private int crc = 0xffffffff;
+
+    @Override
+    public void update(int b) {
+        crc = TABLE[(crc ^ b) & 0xff] ^ (crc >>> 8);
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        int c = crc;
+        while (len >= 8) {
+            c ^= (b[off] & 0xff) | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16 | (b[off + 3] & 0xff) << 24;
+            c = TABLE[7 * 256 + (c & 0xff)] ^ TABLE[6 * 256 + ((c >>> 8) & 0xff)]
+                    ^ TABLE[5 * 256 + ((c >>> 16) & 0xff)] ^ TABLE[4 * 256 + (c >>> 24)]
+                    ^ TABLE[3 * 256 + (b[off + 4] & 0xff)] ^ TABLE[2 * 256 + (b[off + 5] & 0xff)]
+                    ^ TABLE[256 + (b[off + 6] & 0xff)] ^ TABLE[b[off + 7] & 0xff];
+            off += 8;
+            len -= 8;
+        }
+        while (len-- > 0) {
+            c = TABLE[(c ^ b[off++]) & 0xff] ^ (c >>> 8);
+        }
+        crc = c;
+    }
+
+    @Override
+    public long getValue() {
+        return ~crc & 0xffffffffL;
+    }
+
+    @Override
+    public void reset() {
+        crc = 0xffffffff;
+    }
+}
@@ -0,0 +1,128 @@
+package org.copypaste.util;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.copypaste.data.RangeResponse;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Partial content reply to <code>Range: bytes=first-last</code>. The reply must be 206 of exactly the requested range,
+ * a server ignoring the range would send the whole file. The content is read right to the parts of the given size, so
+ * it is not copied once more to be cut to the chunks.<br/>
+ * The decoder measures the reply: when its headers came and how long its content was transferred.
+ */
+public class RangeResponseDecoder implements ResponseDecoder<RangeResponse> {
+
+    private final long first;
+
+    private final long last;
+
+    private final int partSize;
+
+    private long headersNanos;
+
+    private long transferNanos;
+
+    /**
+     * @param first first byte of the range
+     * @param last last byte of the range, inclusive
+     * @param partSize size of the parts the content is cut to, the last part may be shorter
+     */
+    public RangeResponseDecoder(long first, long last, int partSize) {
+        if (first < 0 || last < first || partSize <= 0) {
+            throw new IllegalArgumentException("Wrong range " + first + "-" + last + " of parts " + partSize);
+        }
+        this.first = first;
+        this.last = last;
+        this.partSize = partSize;
+    }
+
+    /**
+     * @return value of the Range header
+     */
+    public String range() {
+        return "bytes=" + first + "-" + last;
+    }
+
+    @Override
+    public String accept() {
+        return "application/octet-stream";
+    }
+
+    @Override
+    public void headersReceived(long nanos) {
+        headersNanos = nanos;
+    }
+
+    @Override
+    public RangeResponse decode(HttpResponse response, InputStream content, int maxBuffer) throws IOException {
+        if (response.getStatusLine().getStatusCode() != HttpStatus.SC_PARTIAL_CONTENT) {
+            throw new IOException("Server does not support ranges, status " + response.getStatusLine().getStatusCode());
+        }
+        requireContentRange(response.getFirstHeader(HttpHeaders.CONTENT_RANGE));
+        long length = last - first + 1;
+        long contentLength = response.getEntity().getContentLength();
+        if (contentLength >= 0 && contentLength != length) {
+            throw new IOException("Range " + range() + " of wrong content length " + contentLength);
+        }
+
+        List<byte[]> parts = new ArrayList<>((int) ((length + partSize - 1) / partSize));
+        for (long read = 0; read < length; read += partSize) {
+            byte[] part = new byte[(int) Math.min(partSize, length - read)];
+            readFully(content, part);
+            parts.add(part);
+        }
+        if (content.read() != -1) {
+            throw new IOException("Range " + range() + " is longer than requested");
+        }
+        transferNanos = System.nanoTime() - headersNanos;
+
+        RangeResponse rangeResponse = new RangeResponse();
+        rangeResponse.setSuccess(true);
+        rangeResponse.setPayload(parts);
+        return rangeResponse;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} when the headers of the last decoded reply came
+     */
+    public long getHeadersNanos() {
+        return headersNanos;
+    }
+
+    /**
+     * @return how long the content of the last decoded reply was transferred
+     */
+    public long getTransferNanos() {
+        return transferNanos;
+    }
+
+    /**
+     * <code>Content-Range: bytes first-last/total</code>, the total may be <code>*</code>
+     */
+    private void requireContentRange(Header contentRange) throws IOException {
+        String expected = "bytes " + first + "-" + last + "/";
+        if (contentRange == null || !contentRange.getValue().trim().startsWith(expected)) {
+            throw new IOException("Range " + range() + " is replied with " +
+                    (contentRange == null ? "no Content-Range" : contentRange.getValue()));
+        }
+    }
+
+    private static void readFully(InputStream content, byte[] part) throws IOException {
+        int pos = 0;
+        while (pos < part.length) {
+            int read = content.read(part, pos, part.length - pos);
+            if (read == -1) {
+                throw new EOFException("Range is cut at " + pos + " of the part");
+            }
+            pos += read;
+        }
+    }
+}
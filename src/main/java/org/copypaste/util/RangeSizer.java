@@ -0,0 +1,86 @@
+package org.copypaste.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks the size of the next range by the measured link. Ranges are counted in parts of the fixed size (so they fit the
+ * journal) between one part and the given maximum.<br/>
+ * Every completed range tells its latency, i.e. the time till the reply headers, and the throughput of its content.
+ * Both are smoothed, the next range is as long as the link transfers in the target time. The target time is several
+ * latencies, so the request round trip is a small share of it, but not less than {@link #MIN_TARGET_NANOS}. The size at
+ * most doubles or halves per range, so a single odd reply does not swing it.
+ */
+public class RangeSizer {
+
+    private static final double SMOOTHING = 0.3;
+
+    private static final int LATENCIES_PER_RANGE = 8;
+
+    private static final long MIN_TARGET_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+
+    // tiny replies are read in one go, do not let them to look infinitely fast
+    private static final long MIN_TRANSFER_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final int partSize;
+
+    private final int maxParts;
+
+    private int parts = 1;
+
+    private double bytesPerNano;
+
+    private double latencyNanos;
+
+    private boolean measured;
+
+    /**
+     * @param partSize size of the part, the range is a whole number of the parts
+     * @param maxParts max parts in the range
+     */
+    public RangeSizer(int partSize, int maxParts) {
+        if (partSize <= 0 || maxParts <= 0) {
+            throw new IllegalArgumentException("Part size and max parts should be greater than zero");
+        }
+        this.partSize = partSize;
+        this.maxParts = maxParts;
+    }
+
+    public int getPartSize() {
+        return partSize;
+    }
+
+    public int getMaxParts() {
+        return maxParts;
+    }
+
+    /**
+     * @return number of the parts in the next range
+     */
+    public synchronized int getParts() {
+        return parts;
+    }
+
+    /**
+     * @param bytes length of the completed range
+     * @param latencyNanos time from the request till the reply headers
+     * @param transferNanos time of the content transfer
+     */
+    public synchronized void completed(long bytes, long latencyNanos, long transferNanos) {
+        double sampleBytesPerNano = (double) bytes / Math.max(transferNanos, MIN_TRANSFER_NANOS);
+        double sampleLatencyNanos = Math.max(latencyNanos, 0);
+        if (measured) {
+            bytesPerNano += SMOOTHING * (sampleBytesPerNano - bytesPerNano);
+            this.latencyNanos += SMOOTHING * (sampleLatencyNanos - this.latencyNanos);
+        } else {
+            bytesPerNano = sampleBytesPerNano;
+            this.latencyNanos = sampleLatencyNanos;
+            measured = true;
+        }
+
+        double targetNanos = Math.max(MIN_TARGET_NANOS, LATENCIES_PER_RANGE * this.latencyNanos);
+        long wanted = (long) (bytesPerNano * targetNanos / partSize);
+        wanted = Math.max(wanted, parts / 2);
+        wanted = Math.min(wanted, (long) parts * 2);
+        parts = (int) Math.max(1, Math.min(maxParts, wanted));
+    }
+}
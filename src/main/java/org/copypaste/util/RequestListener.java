@@ -0,0 +1,23 @@
+package org.copypaste.util;
+
+/**
+ * Observer of the requests of {@link HttpConnector}. Every attempt is reported, so the retried failures are seen as
+ * well. Called on the requesting thread.
+ */
+public interface RequestListener {
+
+    RequestListener NONE = new RequestListener() {
+    };
+
+    /**
+     * @param latencyNanos time from the request till the response headers
+     */
+    default void succeeded(long latencyNanos) {
+    }
+
+    /**
+     * @param e the reason, either network error, unexpected status or broken response
+     */
+    default void failed(Exception e) {
+    }
+}
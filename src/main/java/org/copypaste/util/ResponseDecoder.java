@@ -0,0 +1,47 @@
+package org.copypaste.util;
+
+import org.apache.http.HttpResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes the successful response of {@link HttpConnector}. The decoder negotiates the format by the Accept header and
+ * decodes the format the server replied with.
+ *
+ * @param <T> type of the decoded response
+ */
+public interface ResponseDecoder<T> {
+
+    /**
+     * @return value of the Accept header
+     */
+    String accept();
+
+    /**
+     * Called right before {@link #decode(HttpResponse, InputStream, int)}, the non-blocking engine decodes the response
+     * once it is completely received.
+     *
+     * @param nanos {@link System#nanoTime()} when the response headers came
+     */
+    default void headersReceived(long nanos) {
+    }
+
+    /**
+     * @param response response, its headers tell the format
+     * @param content content of the response, already guarded to not exceed the max buffer
+     * @param maxBuffer max length of the content
+     */
+    T decode(HttpResponse response, InputStream content, int maxBuffer) throws IOException;
+
+    /**
+     * Called instead of {@link #decode(HttpResponse, InputStream, int)} on 304 reply to the conditional request, the
+     * decoder which sent the validators knows the response.
+     *
+     * @param response response without content
+     * @throws HttpStatusException unless the decoder keeps the response, by default
+     */
+    default T notModified(HttpResponse response) throws IOException {
+        throw HttpStatusException.of(response);
+    }
+}
@@ -0,0 +1,54 @@
+package org.copypaste.util;
+
+/**
+ * Retries shared by all the requests to the server. Every successful request earns a part of a retry, every retry
+ * spends a whole one. Once the budget is spent the failures are not retried, so a sick server gets no more requests
+ * than the healthy one does: the retries are at most the given percent of the successful requests, plus the burst the
+ * budget starts with.<br/>
+ * The budget is counted in hundredths of a retry, so it adds up exactly.
+ */
+public class RetryBudget {
+
+    private static final int RETRY = 100;
+
+    private final int earnedPerSuccess;
+
+    private final long maxBudget;
+
+    private long budget;
+
+    /**
+     * @param percent retries per 100 successful requests
+     * @param burst retries the budget starts with and keeps at most
+     */
+    public RetryBudget(int percent, int burst) {
+        if (percent < 0 || burst < 0) {
+            throw new IllegalArgumentException("Retry budget should not be negative");
+        }
+        this.earnedPerSuccess = percent;
+        this.maxBudget = (long) Math.max(1, burst) * RETRY;
+        this.budget = (long) burst * RETRY;
+    }
+
+    public synchronized void succeeded() {
+        budget = Math.min(maxBudget, budget + earnedPerSuccess);
+    }
+
+    /**
+     * @return true if there is a retry to spend, it is spent then
+     */
+    public synchronized boolean tryRetry() {
+        if (budget < RETRY) {
+            return false;
+        }
+        budget -= RETRY;
+        return true;
+    }
+
+    /**
+     * @return retries left
+     */
+    public synchronized double getRetries() {
+        return (double) budget / RETRY;
+    }
+}
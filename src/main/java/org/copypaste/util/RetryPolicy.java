@@ -0,0 +1,92 @@
+package org.copypaste.util;
+
+import org.apache.http.ContentTooLongException;
+import org.apache.http.HttpStatus;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Tells which failures of {@link HttpConnector} are retried and when. Retried are IO errors, 5xx, 408 and 429 statuses,
+ * the others would fail again anyway. The delay grows exponentially from the base delay up to the max delay and is
+ * picked at random below it ("full jitter"), so the clients failed at once do not retry at once. The delay the server
+ * asks for by Retry-After is respected up to the max delay.<br/>
+ * The optional {@link RetryBudget} is shared by all the connectors of the policy.
+ */
+public class RetryPolicy {
+
+    private static final RetryPolicy DEFAULT = new RetryPolicy(200, 30000, null);
+
+    private final long baseDelayMs;
+
+    private final long maxDelayMs;
+
+    private final RetryBudget budget;
+
+    /**
+     * @param budget budget of the retries, unlimited if null
+     */
+    public RetryPolicy(long baseDelayMs, long maxDelayMs, RetryBudget budget) {
+        if (baseDelayMs < 0 || maxDelayMs < baseDelayMs) {
+            throw new IllegalArgumentException("Delays should be 0 <= base <= max");
+        }
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.budget = budget;
+    }
+
+    /**
+     * @return policy of 200ms to 30s delays without budget
+     */
+    public static RetryPolicy defaultPolicy() {
+        return DEFAULT;
+    }
+
+    public boolean isRetryable(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof HttpStatusException) {
+                int status = ((HttpStatusException) cause).getStatus();
+                return status >= HttpStatus.SC_INTERNAL_SERVER_ERROR || status == HttpStatus.SC_REQUEST_TIMEOUT
+                        || status == 429;
+            }
+            if (cause instanceof IOException) {
+                // the same reply is as long next time
+                return !(cause instanceof ContentTooLongException);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param retry number of the retry, from 0
+     * @param e failure to retry
+     * @return delay before the retry
+     */
+    public long delayMs(int retry, Throwable e) {
+        long ceiling = baseDelayMs << Math.min(retry, 30);
+        long delay = ThreadLocalRandom.current().nextLong(Math.min(ceiling, maxDelayMs) + 1);
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof HttpStatusException) {
+                delay = Math.max(delay, Math.min(((HttpStatusException) cause).getRetryAfterMs(), maxDelayMs));
+                break;
+            }
+        }
+        return delay;
+    }
+
+    /**
+     * Called on the successful request, it earns a part of the retry
+     */
+    public void succeeded() {
+        if (budget != null) {
+            budget.succeeded();
+        }
+    }
+
+    /**
+     * @return true if the budget allows the retry, it is spent then
+     */
+    public boolean tryRetry() {
+        return budget == null || budget.tryRetry();
+    }
+}
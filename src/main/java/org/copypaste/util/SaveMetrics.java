@@ -0,0 +1,81 @@
+package org.copypaste.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Meters of the save pipelines, shared by all of them. The steps are timed by the nanos the pipeline measures itself,
+ * so the timing does not allocate per chunk:
+ * <ul>
+ * <li><code>copypaste.save.put.wait</code> -- the producer blocked by the memory budget</li>
+ * <li><code>copypaste.save.verify.wait</code> -- the chunk waiting for a verifier thread</li>
+ * <li><code>copypaste.save.verify</code> -- the chunk checksum</li>
+ * <li><code>copypaste.save.write</code> -- the chunk write to the temp file</li>
+ * <li><code>copypaste.save.digest</code> -- the file checksum update</li>
+ * <li><code>copypaste.save.bytes</code> -- written bytes</li>
+ * <li><code>copypaste.save.queued.chunks</code> -- verified chunks waiting to be written</li>
+ * </ul>
+ */
+public class SaveMetrics {
+
+    /**
+     * Meters of no registry, they measure nothing
+     */
+    public static final SaveMetrics NONE = new SaveMetrics(new CompositeMeterRegistry());
+
+    private final Timer putWait;
+
+    private final Timer verifyWait;
+
+    private final Timer verify;
+
+    private final Timer write;
+
+    private final Timer digest;
+
+    private final Counter writtenBytes;
+
+    private final AtomicInteger queuedChunks = new AtomicInteger();
+
+    public SaveMetrics(MeterRegistry registry) {
+        putWait = registry.timer("copypaste.save.put.wait");
+        verifyWait = registry.timer("copypaste.save.verify.wait");
+        verify = registry.timer("copypaste.save.verify");
+        write = registry.timer("copypaste.save.write");
+        digest = registry.timer("copypaste.save.digest");
+        writtenBytes = registry.counter("copypaste.save.bytes");
+        registry.gauge("copypaste.save.queued.chunks", queuedChunks);
+    }
+
+    public Timer getPutWait() {
+        return putWait;
+    }
+
+    public Timer getVerifyWait() {
+        return verifyWait;
+    }
+
+    public Timer getVerify() {
+        return verify;
+    }
+
+    public Timer getWrite() {
+        return write;
+    }
+
+    public Timer getDigest() {
+        return digest;
+    }
+
+    public Counter getWrittenBytes() {
+        return writtenBytes;
+    }
+
+    public AtomicInteger getQueuedChunks() {
+        return queuedChunks;
+    }
+}
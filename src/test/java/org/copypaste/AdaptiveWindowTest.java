@@ -0,0 +1,72 @@
+package org.copypaste;
+
+import org.copypaste.util.AdaptiveWindow;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+public class AdaptiveWindowTest {
+
+    @Test
+    public void additiveIncreaseTest() {
+        AdaptiveWindow window = new AdaptiveWindow(4, 1, 32);
+        // one per window of requests: 4 + 5 + 6 requests grow 4 to about 7
+        for (int i = 0; i < 4 + 5 + 6; i++) {
+            window.succeeded(ms(10));
+        }
+        Assert.assertTrue("Window " + window.getWindow(), window.getWindow() >= 6 && window.getWindow() <= 7);
+        for (int i = 0; i < 10000; i++) {
+            window.succeeded(ms(10));
+        }
+        Assert.assertEquals(32, window.getWindow());
+    }
+
+    @Test
+    public void failuresHalveOncePerWindowTest() {
+        AdaptiveWindow window = new AdaptiveWindow(16, 1, 32);
+        // failures of the requests sent together with the first failed one
+        for (int i = 0; i < 8; i++) {
+            window.failed(new IOException());
+        }
+        Assert.assertEquals(8, window.getWindow());
+        // the window after the shrink is failed too
+        window.failed(new IOException());
+        Assert.assertEquals(4, window.getWindow());
+        for (int i = 0; i < 100; i++) {
+            window.failed(new IOException());
+        }
+        Assert.assertEquals(1, window.getWindow());
+    }
+
+    @Test
+    public void growingLatencyShrinksTest() {
+        AdaptiveWindow window = new AdaptiveWindow(20, 1, 32);
+        window.succeeded(ms(10));
+        for (int i = 0; i < 40; i++) {
+            window.succeeded(ms(100));
+        }
+        Assert.assertTrue("Window " + window.getWindow(), window.getWindow() < 16);
+        // the base latency follows the link which became slower for good, the window grows again
+        int shrunk = window.getWindow();
+        for (int i = 0; i < 1000; i++) {
+            window.succeeded(ms(100));
+        }
+        Assert.assertTrue("Window " + window.getWindow(), window.getWindow() > shrunk);
+    }
+
+    @Test
+    public void fixedWindowTest() {
+        AdaptiveWindow window = AdaptiveWindow.fixed(4);
+        window.failed(new IOException());
+        for (int i = 0; i < 100; i++) {
+            window.succeeded(ms(10));
+        }
+        Assert.assertEquals(4, window.getWindow());
+    }
+
+    private static long ms(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+}
@@ -0,0 +1,86 @@
+package org.copypaste;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.message.BasicHttpResponse;
+import org.copypaste.consts.Global;
+import org.copypaste.data.ChunkResponse;
+import org.copypaste.interthread_data.FileChunkImmutable;
+import org.copypaste.util.BinaryChunkResponseDecoder;
+import org.copypaste.util.ChecksumAlgorithm;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+
+public class BinaryChunkDecodeTest {
+
+    final BinaryChunkResponseDecoder decoder = new BinaryChunkResponseDecoder();
+
+    @Test
+    public void binaryChunkDecodedTest() throws IOException {
+        byte[] data = new byte[100 * 1024];
+        new Random(42).nextBytes(data);
+        HttpResponse response = response(data, ContentType.APPLICATION_OCTET_STREAM);
+        response.setHeader(Global.HAS_NEXT_CHUNK_HEADER, "true");
+        response.setHeader(Global.CHUNK_CHECKSUM_HEADER, "abc");
+        response.setHeader(Global.CHUNK_CHECKSUM_ALGORITHM_HEADER, "CRC32");
+
+        ChunkResponse chunkResponse = decode(response, data.length);
+
+        Assert.assertTrue(chunkResponse.isSuccess());
+        Assert.assertTrue(chunkResponse.getPayload().isHasNextChunk());
+        Assert.assertEquals("abc", chunkResponse.getPayload().getChunkHexMD5());
+        Assert.assertArrayEquals(data, chunkResponse.getPayload().getChunkData());
+        FileChunkImmutable chunk = new FileChunkImmutable(chunkResponse.getPayload(), 0, 0);
+        Assert.assertEquals(ChecksumAlgorithm.CRC32, chunk.getChunkCheckSumAlgorithm());
+    }
+
+    @Test
+    public void jsonChunkFallbackTest() throws IOException {
+        byte[] data = new byte[] {1, 2, 3};
+        String json = "{\"success\":true,\"payload\":{\"hasNextChunk\":false,\"chunkData\":\""
+                + Base64.getEncoder().encodeToString(data) + "\",\"chunkHexMD5\":\"abc\"}}";
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+
+        ChunkResponse chunkResponse = decode(response(body, ContentType.APPLICATION_JSON), body.length);
+
+        Assert.assertFalse(chunkResponse.getPayload().isHasNextChunk());
+        Assert.assertArrayEquals(data, chunkResponse.getPayload().getChunkData());
+    }
+
+    @Test (expected = IOException.class)
+    public void binaryChunkWithoutChecksumTest() throws IOException {
+        byte[] data = new byte[16];
+        HttpResponse response = response(data, ContentType.APPLICATION_OCTET_STREAM);
+        response.setHeader(Global.HAS_NEXT_CHUNK_HEADER, "false");
+        decode(response, data.length);
+    }
+
+    @Test (expected = RuntimeException.class)
+    public void binaryChunkTooLongTest() throws IOException {
+        byte[] data = new byte[1024];
+        HttpResponse response = response(data, ContentType.APPLICATION_OCTET_STREAM);
+        response.setHeader(Global.HAS_NEXT_CHUNK_HEADER, "false");
+        response.setHeader(Global.CHUNK_CHECKSUM_HEADER, "abc");
+        decode(response, data.length - 1);
+    }
+
+    private ChunkResponse decode(HttpResponse response, int maxBuffer) throws IOException {
+        try (InputStream content = response.getEntity().getContent()) {
+            return decoder.decode(response, content, maxBuffer);
+        }
+    }
+
+    private HttpResponse response(byte[] body, ContentType contentType) {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        response.setEntity(new ByteArrayEntity(body, contentType));
+        return response;
+    }
+}
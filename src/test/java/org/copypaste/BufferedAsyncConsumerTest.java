@@ -0,0 +1,102 @@
+package org.copypaste;
+
+import org.apache.http.ContentTooLongException;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.util.EntityUtils;
+import org.copypaste.util.BufferedAsyncResponseConsumer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+public class BufferedAsyncConsumerTest {
+
+    @Test
+    public void declaredLengthTest() throws Exception {
+        byte[] data = randomBytes(20000);
+        HttpResponse response = consume(data, data.length, 1024 * 1024);
+        Assert.assertArrayEquals(data, EntityUtils.toByteArray(response.getEntity()));
+        Assert.assertEquals(ContentType.APPLICATION_OCTET_STREAM.getMimeType(),
+                ContentType.get(response.getEntity()).getMimeType());
+    }
+
+    @Test
+    public void unknownLengthTest() throws Exception {
+        byte[] data = randomBytes(50000);
+        HttpResponse response = consume(data, -1, data.length);
+        Assert.assertArrayEquals(data, EntityUtils.toByteArray(response.getEntity()));
+    }
+
+    @Test (expected = ContentTooLongException.class)
+    public void declaredTooLongTest() throws Exception {
+        byte[] data = randomBytes(2048);
+        consume(data, data.length, 1024);
+    }
+
+    @Test (expected = ContentTooLongException.class)
+    public void unknownTooLongTest() throws Exception {
+        byte[] data = randomBytes(20000);
+        consume(data, -1, 10000);
+    }
+
+    private HttpResponse consume(byte[] data, long contentLength, int maxBuffer) throws Exception {
+        BufferedAsyncResponseConsumer consumer = new BufferedAsyncResponseConsumer(maxBuffer);
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "");
+        BasicHttpEntity entity = new BasicHttpEntity();
+        entity.setContentLength(contentLength);
+        entity.setContentType(ContentType.APPLICATION_OCTET_STREAM.toString());
+        response.setEntity(entity);
+        consumer.responseReceived(response);
+        // the content comes in slices as it does from the socket
+        SlicedContentDecoder decoder = new SlicedContentDecoder(data, 3000);
+        while (!decoder.isCompleted()) {
+            consumer.consumeContent(decoder, null);
+        }
+        consumer.responseCompleted(new BasicHttpContext());
+        Assert.assertTrue(consumer.getHeadersNanos() > 0);
+        return consumer.getResult();
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] data = new byte[length];
+        new Random(42).nextBytes(data);
+        return data;
+    }
+
+    private static class SlicedContentDecoder implements ContentDecoder {
+
+        private final byte[] data;
+
+        private final int slice;
+
+        private int position;
+
+        SlicedContentDecoder(byte[] data, int slice) {
+            this.data = data;
+            this.slice = slice;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (position == data.length) {
+                return -1;
+            }
+            int length = Math.min(Math.min(slice, dst.remaining()), data.length - position);
+            dst.put(data, position, length);
+            position += length;
+            return length;
+        }
+
+        @Override
+        public boolean isCompleted() {
+            return position == data.length;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package org.copypaste;
+
+import org.copypaste.util.ByteBudget;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class ByteBudgetTest {
+
+    @Test
+    public void budgetBlocksTest() throws InterruptedException {
+        ByteBudget budget = new ByteBudget(10 * 1024);
+        budget.acquire(8 * 1024);
+        Assert.assertEquals(8 * 1024, budget.getUsedBytes());
+
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread producer = new Thread(() -> {
+            try {
+                budget.acquire(4 * 1024);
+                acquired.countDown();
+            } catch (InterruptedException ignore) {
+            }
+        });
+        producer.start();
+        Assert.assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+        budget.release(8 * 1024);
+        Assert.assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(4 * 1024, budget.getUsedBytes());
+    }
+
+    @Test
+    public void largerThanBudgetTest() throws InterruptedException {
+        ByteBudget budget = new ByteBudget(10 * 1024);
+        // granted the whole budget instead of waiting forever
+        budget.acquire(100 * 1024);
+        Assert.assertEquals(budget.getBudgetBytes(), budget.getUsedBytes());
+        budget.release(100 * 1024);
+        Assert.assertEquals(0, budget.getUsedBytes());
+        // rounded up to kilobytes
+        budget.acquire(1);
+        Assert.assertEquals(1024, budget.getUsedBytes());
+    }
+}
@@ -0,0 +1,84 @@
+package org.copypaste;
+
+import com.twmacinta.util.MD5;
+import org.copypaste.util.ChecksumAlgorithm;
+import org.copypaste.util.Hasher;
+import org.copypaste.util.PureJavaCrc32C;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+public class ChecksumAlgorithmTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    final byte[] check = "123456789".getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    public void knownValuesTest() {
+        Assert.assertEquals("25f9e794323b453885f5181f1b624d0b", hex(ChecksumAlgorithm.MD5, check));
+        Assert.assertEquals("15e2b0d3c33891ebb0f1ef609ec419420c20e320ce94c65fbc8c3312448eb225",
+                hex(ChecksumAlgorithm.SHA_256, check));
+        Assert.assertEquals("cbf43926", hex(ChecksumAlgorithm.CRC32, check));
+        Assert.assertEquals("e3069283", hex(ChecksumAlgorithm.CRC32C, check));
+    }
+
+    @Test
+    public void algorithmNamesTest() {
+        Assert.assertEquals(ChecksumAlgorithm.MD5, ChecksumAlgorithm.of(null));
+        Assert.assertEquals(ChecksumAlgorithm.MD5, ChecksumAlgorithm.of(""));
+        Assert.assertEquals(ChecksumAlgorithm.SHA_256, ChecksumAlgorithm.of("sha-256"));
+        Assert.assertEquals(ChecksumAlgorithm.CRC32C, ChecksumAlgorithm.of("CRC32C"));
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void unknownAlgorithmTest() {
+        ChecksumAlgorithm.of("xxHash64");
+    }
+
+    @Test
+    public void pureJavaCrc32CTest() {
+        byte[] data = new byte[1000];
+        new Random(42).nextBytes(data);
+        for (int length : new int[] {0, 1, 7, 8, 9, 63, 1000}) {
+            PureJavaCrc32C sliced = new PureJavaCrc32C();
+            sliced.update(data, 0, length);
+            PureJavaCrc32C byByte = new PureJavaCrc32C();
+            for (int i = 0; i < length; i++) {
+                byByte.update(data[i]);
+            }
+            Assert.assertEquals(byByte.getValue(), sliced.getValue());
+        }
+    }
+
+    @Test
+    public void fileHashTest() throws IOException {
+        byte[] data = new byte[200 * 1024 + 3];
+        new Random(42).nextBytes(data);
+        File file = folder.newFile();
+        Files.write(file.toPath(), data);
+        for (ChecksumAlgorithm algorithm : ChecksumAlgorithm.values()) {
+            Hasher hasher = algorithm.newHasher();
+            // direct buffer goes another way than the array
+            ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+            direct.put(data).flip();
+            hasher.update(direct);
+            Assert.assertArrayEquals(algorithm.name(), hasher.digest(), algorithm.hash(file));
+        }
+    }
+
+    private String hex(ChecksumAlgorithm algorithm, byte[] content) {
+        Hasher hasher = algorithm.newHasher();
+        hasher.update(content);
+        return MD5.asHex(hasher.digest());
+    }
+}
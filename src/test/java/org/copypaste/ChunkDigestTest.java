@@ -0,0 +1,34 @@
+package org.copypaste;
+
+import com.twmacinta.util.MD5;
+import org.copypaste.util.ChunkDigest;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class ChunkDigestTest {
+
+    final byte[] content = "The quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void matchesTest() {
+        String hex = "9e107d9d372bb6826bd81d3542a419d6";
+        Assert.assertTrue(ChunkDigest.md5().matches(content, hex));
+        Assert.assertTrue(ChunkDigest.md5().matches(content, hex.toUpperCase()));
+        // the digest is reset after every check
+        Assert.assertTrue(ChunkDigest.md5().matches(content, hex));
+        Assert.assertFalse(ChunkDigest.md5().matches(content, "9e107d9d372bb6826bd81d3542a419d7"));
+        Assert.assertTrue(ChunkDigest.md5().matches(new byte[0], "d41d8cd98f00b204e9800998ecf8427e"));
+    }
+
+    @Test
+    public void equalsHexTest() {
+        byte[] bytes = new byte[] {0x00, 0x7f, (byte) 0x80, (byte) 0xff};
+        Assert.assertTrue(ChunkDigest.equalsHex(bytes, MD5.asHex(bytes)));
+        Assert.assertTrue(ChunkDigest.equalsHex(bytes, "007F80FF"));
+        Assert.assertFalse(ChunkDigest.equalsHex(bytes, "007f80f"));
+        Assert.assertFalse(ChunkDigest.equalsHex(bytes, "007f80fg"));
+        Assert.assertFalse(ChunkDigest.equalsHex(bytes, null));
+    }
+}
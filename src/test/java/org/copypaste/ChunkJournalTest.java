@@ -0,0 +1,102 @@
+package org.copypaste;
+
+import org.copypaste.consts.Global;
+import org.copypaste.service.ChunkJournal;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class ChunkJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void journalResumedTest() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("temp.journal");
+        try (ChunkJournal journal = ChunkJournal.open(path, 250, "abc")) {
+            Assert.assertFalse(journal.isResumed());
+            journal.chunkSize(100);
+            journal.written(2, 200, 50, true);
+            journal.written(0, 0, 100, false);
+        }
+
+        try (ChunkJournal journal = ChunkJournal.open(path, 250, "abc")) {
+            Assert.assertTrue(journal.isResumed());
+            Assert.assertEquals(100, journal.getChunkSize());
+            Assert.assertEquals(2, journal.getWrittenCount());
+            Assert.assertTrue(journal.isWritten(0));
+            Assert.assertFalse(journal.isWritten(1));
+            Assert.assertEquals(2, journal.getLastChunkNum());
+        }
+    }
+
+    @Test
+    public void journalOfAnotherFileTest() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("temp.journal");
+        try (ChunkJournal journal = ChunkJournal.open(path, 250, "abc")) {
+            journal.chunkSize(100);
+            journal.written(0, 0, 100, false);
+        }
+
+        try (ChunkJournal journal = ChunkJournal.open(path, 250, "def")) {
+            Assert.assertFalse(journal.isResumed());
+            Assert.assertEquals(0, journal.getChunkSize());
+            Assert.assertEquals(0, journal.getWrittenCount());
+        }
+    }
+
+    @Test
+    public void journalBrokenRecordIgnoredTest() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("temp.journal");
+        try (ChunkJournal journal = ChunkJournal.open(path, 250, "abc")) {
+            journal.chunkSize(100);
+            journal.written(0, 0, 100, false);
+        }
+        // record cut by a crash and record that does not fit the chunk size
+        Files.write(path, "chunk 2 250 50 true\nchunk 1 10".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+
+        try (ChunkJournal journal = ChunkJournal.open(path, 250, "abc")) {
+            Assert.assertTrue(journal.isResumed());
+            Assert.assertEquals(1, journal.getWrittenCount());
+            Assert.assertFalse(journal.isWritten(1));
+            Assert.assertFalse(journal.isWritten(2));
+            journal.written(1, 100, 100, false);
+        }
+
+        try (ChunkJournal journal = ChunkJournal.open(path, 250, "abc")) {
+            Assert.assertEquals(2, journal.getWrittenCount());
+            Assert.assertTrue(journal.isWritten(1));
+        }
+    }
+
+    @Test
+    public void journalOfAnotherLayoutTest() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("temp.journal");
+        try (ChunkJournal journal = ChunkJournal.open(path, 250, "abc", Global.TRANSFER_MODE_RANGES, 100)) {
+            journal.chunkSize(100);
+            journal.written(0, 0, 100, false);
+        }
+
+        try (ChunkJournal journal = ChunkJournal.open(path, 250, "abc", Global.TRANSFER_MODE_RANGES, 50)) {
+            Assert.assertFalse(journal.isResumed());
+            Assert.assertEquals(0, journal.getWrittenCount());
+            journal.chunkSize(50);
+            journal.written(0, 0, 50, false);
+        }
+
+        try (ChunkJournal journal = ChunkJournal.open(path, 250, "abc")) {
+            Assert.assertFalse(journal.isResumed());
+            Assert.assertEquals(0, journal.getChunkSize());
+            Assert.assertEquals(0, journal.getWrittenCount());
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.copypaste;
+
+import org.copypaste.data.FileMetaResponse;
+import org.copypaste.data.FileSummary;
+import org.copypaste.util.FileListingDecoder;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class FileListingDecoderTest {
+
+    @Test
+    public void visitInOrderTest() throws IOException {
+        List<FileSummary> visited = new ArrayList<>();
+        FileMetaResponse response = new FileListingDecoder(visited::add).decode(json(
+                "{\"success\":true,\"payload\":["
+                        + "{\"creationTime\":1,\"name\":\"a.bin\",\"size\":10,\"checkSum\":\"aa\"},"
+                        + "{\"creationTime\":2,\"name\":\"b.bin\",\"size\":20,\"checkSum\":\"bb\","
+                        + "\"checkSumAlgorithm\":\"SHA-256\"}"
+                        + "],\"nextCursor\":\"next\"}"));
+        Assert.assertTrue(response.isSuccess());
+        Assert.assertEquals("next", response.getNextCursor());
+        Assert.assertNull(response.getPayload());
+        Assert.assertEquals(2, visited.size());
+        Assert.assertEquals("a.bin", visited.get(0).getName());
+        Assert.assertEquals(10, visited.get(0).getSize());
+        Assert.assertNull(visited.get(0).getCheckSumAlgorithm());
+        Assert.assertEquals("b.bin", visited.get(1).getName());
+        Assert.assertEquals(2, visited.get(1).getCreationTime());
+        Assert.assertEquals("SHA-256", visited.get(1).getCheckSumAlgorithm());
+    }
+
+    @Test
+    public void unknownFieldsAndErrorTest() throws IOException {
+        List<FileSummary> visited = new ArrayList<>();
+        FileMetaResponse response = new FileListingDecoder(visited::add).decode(json(
+                "{\"version\":{\"major\":2,\"tags\":[1,2]},\"success\":false,\"exception\":\"boom\","
+                        + "\"payload\":null}"));
+        Assert.assertFalse(response.isSuccess());
+        Assert.assertEquals("boom", response.getException());
+        Assert.assertNull(response.getNextCursor());
+        Assert.assertTrue(visited.isEmpty());
+    }
+
+    @Test
+    public void largeListingTest() throws IOException {
+        int files = 100_000;
+        StringBuilder listing = new StringBuilder("{\"success\":true,\"payload\":[");
+        for (int i = 0; i < files; i++) {
+            if (i > 0) {
+                listing.append(',');
+            }
+            listing.append("{\"creationTime\":").append(i).append(",\"name\":\"f").append(i)
+                    .append(".bin\",\"size\":").append(i).append(",\"checkSum\":\"00\"}");
+        }
+        listing.append("]}");
+        long[] count = new long[1];
+        FileSummary[] last = new FileSummary[1];
+        new FileListingDecoder(fileSummary -> {
+            count[0]++;
+            last[0] = fileSummary;
+        }).decode(json(listing.toString()));
+        Assert.assertEquals(files, count[0]);
+        Assert.assertEquals("f" + (files - 1) + ".bin", last[0].getName());
+    }
+
+    @Test(expected = IOException.class)
+    public void notObjectTest() throws IOException {
+        new FileListingDecoder(fileSummary -> {
+        }).decode(json("[]"));
+    }
+
+    private static InputStream json(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
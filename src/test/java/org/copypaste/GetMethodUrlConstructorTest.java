@@ -4,6 +4,8 @@ import org.copypaste.util.GetMethodUrlConstructor;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -31,4 +33,22 @@ public class GetMethodUrlConstructorTest {
         String construct = constructor.construct(url, endPoint, parameters);
         Assert.assertEquals(url + endPoint + "?file=alpha%20beta%20gamma&chunk=42", construct);
     }
+
+    @Test
+    public void getMethodUrlConstructorEncodingTest() throws UnsupportedEncodingException {
+        GetMethodUrlConstructor constructor = new GetMethodUrlConstructor();
+        String name = "Отчёт №1 (copy)~'!*._-+&=%/?#\u00e9\ud83d\ude00.bin";
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("file", name);
+        String construct = constructor.construct(url, endPoint, parameters);
+        // as encodeURIComponent
+        String expected = URLEncoder.encode(name, "UTF-8")
+                .replaceAll("\\+", "%20")
+                .replaceAll("\\%21", "!")
+                .replaceAll("\\%27", "'")
+                .replaceAll("\\%28", "(")
+                .replaceAll("\\%29", ")")
+                .replaceAll("\\%7E", "~");
+        Assert.assertEquals(url + endPoint + "?file=" + expected, construct);
+    }
 }
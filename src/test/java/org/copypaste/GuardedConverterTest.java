@@ -8,6 +8,9 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 public class GuardedConverterTest {
 
@@ -46,6 +49,77 @@ public class GuardedConverterTest {
         Assert.assertEquals(data, content);
     }
 
+    @Test
+    public void guardedConverterUtf8Test() throws IOException {
+        String utf8 = "Съешь же ещё этих мягких французских булок";
+        InputStream testStream = new ByteArrayInputStream(utf8.getBytes(StandardCharsets.UTF_8));
+        GuardedInputStreamConverter converter = GuardedInputStreamConverter.asDefault()
+                .inputStream(testStream)
+                .startBuffer(4)
+                .maxBuffer(1024)
+                .build();
+        Assert.assertEquals(utf8, converter.readContent());
+    }
+
+    @Test
+    public void guardedConverterContentLengthTest() throws IOException {
+        InputStream testStream = inputStreamFromString(data);
+        GuardedInputStreamConverter converter = GuardedInputStreamConverter.asDefault()
+                .inputStream(testStream)
+                .contentLength(data.length())
+                .maxBuffer(data.length())
+                .build();
+        Assert.assertArrayEquals(data.getBytes(StandardCharsets.UTF_8), converter.readBytes());
+    }
+
+    @Test (expected = RuntimeException.class)
+    public void guardedConverterContentLengthTooLongTest() throws IOException {
+        InputStream testStream = inputStreamFromString(data);
+        GuardedInputStreamConverter converter = GuardedInputStreamConverter.asDefault()
+                .inputStream(testStream)
+                .contentLength(data.length())
+                .maxBuffer(data.length() - 1)
+                .build();
+        converter.readBytes();
+    }
+
+    @Test
+    public void guardedConverterEmptyTest() throws IOException {
+        GuardedInputStreamConverter converter = GuardedInputStreamConverter.asDefault()
+                .inputStream(new ByteArrayInputStream(new byte[0]))
+                .contentLength(0)
+                .maxBuffer(1024)
+                .build();
+        Assert.assertEquals(0, converter.readBytes().length);
+    }
+
+    @Test
+    public void guardedConverterReadIntoTest() throws IOException {
+        InputStream testStream = inputStreamFromString(data);
+        GuardedInputStreamConverter converter = GuardedInputStreamConverter.asDefault()
+                .inputStream(testStream)
+                .maxBuffer(1024)
+                .build();
+        ByteBuffer target = ByteBuffer.allocateDirect(1024);
+        int read = converter.readInto(target);
+        Assert.assertEquals(data.length(), read);
+        Assert.assertEquals(data.length(), target.position());
+        target.flip();
+        byte[] content = new byte[target.remaining()];
+        target.get(content);
+        Assert.assertEquals(data, new String(content, StandardCharsets.UTF_8));
+    }
+
+    @Test (expected = BufferOverflowException.class)
+    public void guardedConverterReadIntoOverflowTest() throws IOException {
+        InputStream testStream = inputStreamFromString(data);
+        GuardedInputStreamConverter converter = GuardedInputStreamConverter.asDefault()
+                .inputStream(testStream)
+                .maxBuffer(1024)
+                .build();
+        converter.readInto(ByteBuffer.allocate(data.length() - 1));
+    }
+
     private InputStream inputStreamFromString(String str) {
         try {
             return new ByteArrayInputStream(data.getBytes("UTF-8"));
@@ -0,0 +1,105 @@
+package org.copypaste;
+
+import org.copypaste.util.ByteBudget;
+import org.copypaste.util.ChecksumAlgorithm;
+import org.copypaste.util.IncrementalFileDigest;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Random;
+
+public class IncrementalFileDigestTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    final byte[] data = new byte[300 * 1024];
+
+    {
+        new Random(42).nextBytes(data);
+    }
+
+    @Test
+    public void outOfOrderDigestTest() throws IOException, NoSuchAlgorithmException {
+        int chunkSize = 100 * 1024;
+        try (RandomAccessFile file = new RandomAccessFile(folder.newFile(), "rw")) {
+            IncrementalFileDigest digest = new IncrementalFileDigest(ChecksumAlgorithm.MD5.newHasher(), file.getChannel());
+            for (int chunkNum : new int[] {2, 0, 1}) {
+                byte[] chunk = Arrays.copyOfRange(data, chunkNum * chunkSize, (chunkNum + 1) * chunkSize);
+                file.seek(chunkNum * chunkSize);
+                file.write(chunk);
+                digest.written(chunkNum * chunkSize, chunk);
+            }
+            Assert.assertArrayEquals(MessageDigest.getInstance("MD5").digest(data), digest.digest(data.length));
+        }
+    }
+
+    @Test
+    public void heldDigestTest() throws IOException, NoSuchAlgorithmException {
+        int chunkSize = 100 * 1024;
+        ByteBudget holdBudget = new ByteBudget(chunkSize);
+        try (RandomAccessFile file = new RandomAccessFile(folder.newFile(), "rw")) {
+            IncrementalFileDigest digest =
+                    new IncrementalFileDigest(ChecksumAlgorithm.MD5.newHasher(), file.getChannel(), holdBudget);
+            for (int chunkNum : new int[] {2, 1, 0}) {
+                byte[] chunk = Arrays.copyOfRange(data, chunkNum * chunkSize, (chunkNum + 1) * chunkSize);
+                // the chunk held in memory is not read back, so it is not written at all
+                if (chunkNum == 1) {
+                    file.seek(chunkNum * chunkSize);
+                    file.write(chunk);
+                }
+                digest.written(chunkNum * chunkSize, chunk);
+                if (chunkNum == 2) {
+                    Assert.assertEquals(chunkSize, holdBudget.getUsedBytes());
+                }
+            }
+            Assert.assertArrayEquals(MessageDigest.getInstance("MD5").digest(data), digest.digest(data.length));
+            Assert.assertEquals(0, holdBudget.getUsedBytes());
+        }
+    }
+
+    @Test
+    public void heldReleasedTest() throws IOException {
+        ByteBudget holdBudget = new ByteBudget(data.length);
+        try (RandomAccessFile file = new RandomAccessFile(folder.newFile(), "rw")) {
+            IncrementalFileDigest digest =
+                    new IncrementalFileDigest(ChecksumAlgorithm.MD5.newHasher(), file.getChannel(), holdBudget);
+            digest.written(1024, Arrays.copyOfRange(data, 1024, 2048));
+            Assert.assertEquals(1024, holdBudget.getUsedBytes());
+            digest.release();
+            Assert.assertEquals(0, holdBudget.getUsedBytes());
+        }
+    }
+
+    @Test
+    public void writtenBeforeDigestTest() throws IOException, NoSuchAlgorithmException {
+        int half = data.length / 2;
+        try (RandomAccessFile file = new RandomAccessFile(folder.newFile(), "rw")) {
+            file.write(data, 0, half);
+            IncrementalFileDigest digest = new IncrementalFileDigest(ChecksumAlgorithm.MD5.newHasher(), file.getChannel());
+            digest.writtenBefore(0, half);
+            Assert.assertEquals(half, digest.getDigestedLength());
+
+            byte[] rest = Arrays.copyOfRange(data, half, data.length);
+            file.write(rest);
+            digest.written(half, rest);
+            Assert.assertArrayEquals(MessageDigest.getInstance("MD5").digest(data), digest.digest(data.length));
+        }
+    }
+
+    @Test (expected = IllegalStateException.class)
+    public void notAllWrittenTest() throws IOException, NoSuchAlgorithmException {
+        try (RandomAccessFile file = new RandomAccessFile(folder.newFile(), "rw")) {
+            IncrementalFileDigest digest = new IncrementalFileDigest(ChecksumAlgorithm.MD5.newHasher(), file.getChannel());
+            digest.written(1024, Arrays.copyOfRange(data, 1024, 2048));
+            digest.digest(2048);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package org.copypaste;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.copypaste.consts.Global;
+import org.copypaste.data.FileMetaResponse;
+import org.copypaste.data.FileSummary;
+import org.copypaste.service.ListingCache;
+import org.copypaste.util.HttpConnector;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+public class ListingCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StandInServer server;
+
+    private CloseableHttpClient httpClient;
+
+    @Before
+    public void startServer() throws IOException {
+        server = StandInServer.builder()
+                .directory(folder.newFolder("server").toPath())
+                .file("first.bin", 1000)
+                .file("second.bin", 2000)
+                .file("third.bin", 3000)
+                .build()
+                .start();
+        httpClient = HttpClients.createDefault();
+    }
+
+    @After
+    public void stopServer() throws IOException {
+        httpClient.close();
+        server.close();
+    }
+
+    @Test
+    public void newestOfKeptListingTest() throws IOException {
+        ListingCache listingCache = listingCache(Global.SYNC_MODE_NEWEST, "true");
+        Assert.assertTrue(listingCache.conditionalHeaders().isEmpty());
+
+        List<FileSummary> listed = list(listingCache);
+        Assert.assertEquals(3, listed.size());
+        Assert.assertEquals(0, server.getNotModified());
+        Assert.assertTrue(listingCache.conditionalHeaders().containsKey(HttpHeaders.IF_NONE_MATCH));
+
+        List<FileSummary> kept = list(listingCache);
+        Assert.assertEquals(1, server.getNotModified());
+        Assert.assertEquals(1, kept.size());
+        FileSummary newest = listed.get(2);
+        FileSummary keptNewest = kept.get(0);
+        Assert.assertEquals(newest.getName(), keptNewest.getName());
+        Assert.assertEquals(newest.getSize(), keptNewest.getSize());
+        Assert.assertEquals(newest.getCheckSum(), keptNewest.getCheckSum());
+        Assert.assertEquals(newest.getCreationTime(), keptNewest.getCreationTime());
+        Assert.assertNull(keptNewest.getCheckSumAlgorithm());
+    }
+
+    @Test
+    public void allOfKeptListingTest() throws IOException {
+        list(listingCache(Global.SYNC_MODE_NEWEST, "true"));
+        // the mode is changed, the listing is the same
+        List<FileSummary> kept = list(listingCache(Global.SYNC_MODE_ALL, "true"));
+        Assert.assertEquals(1, server.getNotModified());
+        List<String> names = new ArrayList<>();
+        for (FileSummary fileSummary : kept) {
+            names.add(fileSummary.getName());
+        }
+        Assert.assertEquals(server.getCheckSums().keySet(), new LinkedHashSet<>(names));
+        Assert.assertEquals(server.getCheckSums().get("second.bin"), kept.get(1).getCheckSum());
+    }
+
+    @Test
+    public void syncedListingTest() throws IOException {
+        ListingCache listingCache = listingCache(Global.SYNC_MODE_ALL, "true");
+        File incoming = folder.newFolder("incoming");
+        listingCache.setIncomingDirectory(incoming.toPath());
+        long incomingModified = listingCache.incomingModified();
+        Assert.assertEquals(3, list(listingCache).size());
+        listingCache.synced(incomingModified);
+
+        List<FileSummary> synced = new ArrayList<>();
+        FileMetaResponse notModified = listingConnector(listingCache, synced).execute();
+        Assert.assertEquals(1, server.getNotModified());
+        Assert.assertTrue(notModified.isNotModified());
+        Assert.assertTrue(synced.isEmpty());
+
+        // a file is added or removed
+        Assert.assertTrue(incoming.setLastModified(incomingModified + 10000));
+        List<FileSummary> kept = new ArrayList<>();
+        FileMetaResponse modified = listingConnector(listingCache, kept).execute();
+        Assert.assertEquals(2, server.getNotModified());
+        Assert.assertFalse(modified.isNotModified());
+        Assert.assertEquals(3, kept.size());
+    }
+
+    @Test
+    public void pagedListingTest() {
+        ListingCache listingCache = listingCache(Global.SYNC_MODE_ALL, "true");
+        List<FileSummary> listed = new ArrayList<>();
+        HttpConnector<FileMetaResponse> connector = HttpConnector.as(FileMetaResponse.class)
+                .httpClient(httpClient)
+                .serverUrl(server.getUrl())
+                .endPoint(Global.META_END_POINT)
+                .maxBuffer(1024)
+                .timeOutMS(5000)
+                .decoder(listingCache.decoder(listed::add))
+                .build();
+        Map<String, String> params = new HashMap<>();
+        params.put(Global.LIMIT_PARAM, "2");
+        FileMetaResponse firstPage = connector.execute(params);
+        Assert.assertEquals("2", firstPage.getNextCursor());
+        params.put(Global.CURSOR_PARAM, firstPage.getNextCursor());
+        FileMetaResponse lastPage = connector.execute(params);
+        Assert.assertNull(lastPage.getNextCursor());
+        Assert.assertEquals(3, listed.size());
+        Assert.assertEquals("third.bin", listed.get(2).getName());
+        // a page is not the listing
+        Assert.assertTrue(listingCache.conditionalHeaders().isEmpty());
+    }
+
+    @Test
+    public void noCacheTest() throws IOException {
+        ListingCache listingCache = listingCache(Global.SYNC_MODE_NEWEST, "false");
+        list(listingCache);
+        list(listingCache);
+        Assert.assertTrue(listingCache.conditionalHeaders().isEmpty());
+        Assert.assertEquals(0, server.getNotModified());
+        Assert.assertEquals(0, folder.getRoot().toPath().resolve("cache").toFile().list().length);
+    }
+
+    private ListingCache listingCache(String syncMode, String enabled) {
+        Map<String, String> configMap = new HashMap<>();
+        configMap.put(Global.SYNC_MODE_KEY, syncMode);
+        configMap.put(Global.LISTING_CACHE_KEY, enabled);
+        ListingCache listingCache = new ListingCache();
+        listingCache.setConfigMap(configMap);
+        File cache = folder.getRoot().toPath().resolve("cache").toFile();
+        if (!cache.exists()) {
+            Assert.assertTrue(cache.mkdir());
+        }
+        listingCache.setDirectory(cache.toPath());
+        return listingCache;
+    }
+
+    private List<FileSummary> list(ListingCache listingCache) {
+        List<FileSummary> listed = new ArrayList<>();
+        Assert.assertTrue(listingConnector(listingCache, listed).execute().isSuccess());
+        return listed;
+    }
+
+    private HttpConnector<FileMetaResponse> listingConnector(ListingCache listingCache, List<FileSummary> listed) {
+        HttpConnector.Builder<FileMetaResponse> builder = HttpConnector.as(FileMetaResponse.class)
+                .httpClient(httpClient)
+                .serverUrl(server.getUrl())
+                .endPoint(Global.META_END_POINT)
+                .maxBuffer(1024 * 256)
+                .timeOutMS(5000)
+                .decoder(listingCache.decoder(listed::add));
+        listingCache.conditionalHeaders().forEach(builder::header);
+        return builder.build();
+    }
+}
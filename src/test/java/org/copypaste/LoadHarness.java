@@ -0,0 +1,235 @@
+package org.copypaste;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import org.copypaste.consts.Global;
+import org.copypaste.service.MetricsService;
+import org.copypaste.util.ChecksumAlgorithm;
+import org.copypaste.util.ChunkDigest;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Whole download against the {@link StandInServer} on the loopback interface, run by the "load" profile only:
+ * <pre>
+ * mvn test -Pload -Dload.fileMb=512 -Dclient.http_engine=async
+ * </pre>
+ * The profile runs it in <code>target/load</code>, the client config and the incoming directory are created there.
+ * <ul>
+ * <li><code>load.*</code> properties shape the server: <code>files</code>, <code>fileMb</code>, <code>chunkKb</code>,
+ * <code>latencyMs</code>, <code>bandwidthKBps</code> (0 is no cap), <code>errorRate</code> (0 to 1),
+ * <code>pageSize</code> of the listing (0 is a single page)</li>
+ * <li><code>client.*</code> properties go to the client config as is, e.g. <code>client.transfer_mode=ranges</code>.
+ * The server URL is of the stand-in server, the sync mode is "all" unless given.</li>
+ * </ul>
+ * The downloaded files, all of them or the newest one as the sync mode tells, are verified by MD5 after the run. The report is logged and appended to <code>load-results.csv</code>:
+ * throughput of the transfer, p50/p99 of the successful chunk or range requests (of the last minutes, as the timers
+ * keep them), peak heap as the sum of the heap pool peaks and the GC count and time, all of the JVM which runs both the
+ * client and the server.
+ */
+public class LoadHarness {
+
+    private static final Logger log = LoggerFactory.getLogger(LoadHarness.class);
+
+    private static final String CLIENT_PREFIX = "client.";
+
+    private static final String RESULTS_FILE = "load-results.csv";
+
+    private static final String RESULTS_HEADER = "time,http_engine,transfer_mode,binary_chunks,files,file_mb,chunk_kb,"
+            + "latency_ms,bandwidth_kbps,error_rate,failed_requests,seconds,mb_per_s,p50_ms,p99_ms,peak_heap_mb,"
+            + "gc_count,gc_ms";
+
+    @Test
+    public void downloadTest() throws Exception {
+        Path workDirectory = Paths.get("").toAbsolutePath();
+        String loadDirectory = System.getProperty("load.directory");
+        // it cleans the incoming directory, so only where the profile runs it
+        Assume.assumeTrue("Run by the load profile only",
+                loadDirectory != null && workDirectory.equals(Paths.get(loadDirectory).toAbsolutePath()));
+
+        int fileCount = Integer.getInteger("load.files", 2);
+        int fileMb = Integer.getInteger("load.fileMb", 128);
+        int chunkKb = Integer.getInteger("load.chunkKb", 1024);
+        int latencyMs = Integer.getInteger("load.latencyMs", 0);
+        int bandwidthKBps = Integer.getInteger("load.bandwidthKBps", 0);
+        double errorRate = Double.parseDouble(System.getProperty("load.errorRate", "0"));
+        int pageSize = Integer.getInteger("load.pageSize", 0);
+
+        StandInServer.Builder serverBuilder = StandInServer.builder()
+                .directory(workDirectory.resolve("server"))
+                .chunkSize(chunkKb * 1024)
+                .latencyMs(latencyMs)
+                .bandwidthKBps(bandwidthKBps)
+                .errorRate(errorRate)
+                .pageSize(pageSize);
+        for (int i = 0; i < fileCount; i++) {
+            serverBuilder.file("load-" + i + ".bin", fileMb * 1024L * 1024);
+        }
+
+        try (StandInServer server = serverBuilder.build().start()) {
+            Properties config = clientConfig(server.getUrl());
+            deleteRecursively(workDirectory.resolve(Global.INCOMING_DIRECTORY));
+            Path configFile = workDirectory.resolve(Global.CONFIG_DIRECTORY).resolve(Global.CONFIG_FILE);
+            Files.createDirectories(configFile.getParent());
+            try (OutputStream out = Files.newOutputStream(configFile)) {
+                config.store(out, "load test");
+            }
+
+            System.gc();
+            ManagementFactory.getMemoryPoolMXBeans().forEach(MemoryPoolMXBean::resetPeakUsage);
+            long gcCount = gcCount();
+            long gcMs = gcMs();
+            long[] startNanos = new long[1];
+
+            ConfigurableApplicationContext context = new SpringApplicationBuilder()
+                    .sources(Application.class)
+                    .web(WebApplicationType.NONE)
+                    // the runners are called after the started event
+                    .listeners(event -> {
+                        if (event instanceof ApplicationStartedEvent) {
+                            startNanos[0] = System.nanoTime();
+                        }
+                    })
+                    .run();
+            try {
+                double seconds = (System.nanoTime() - startNanos[0]) / 1e9;
+                gcCount = gcCount() - gcCount;
+                gcMs = gcMs() - gcMs;
+                long peakHeap = ManagementFactory.getMemoryPoolMXBeans().stream()
+                        .filter(pool -> pool.getType() == MemoryType.HEAP)
+                        .mapToLong(pool -> pool.getPeakUsage().getUsed())
+                        .sum();
+
+                List<Map.Entry<String, String>> expected = new ArrayList<>(server.getCheckSums().entrySet());
+                if (Global.SYNC_MODE_NEWEST.equals(config.getProperty(Global.SYNC_MODE_KEY))) {
+                    expected = expected.subList(expected.size() - 1, expected.size());
+                }
+                long bytes = 0;
+                for (Map.Entry<String, String> checkSum : expected) {
+                    File downloaded = workDirectory.resolve(Global.INCOMING_DIRECTORY)
+                            .resolve(checkSum.getKey()).toFile();
+                    Assert.assertTrue("Not downloaded " + checkSum.getKey(), downloaded.isFile());
+                    Assert.assertTrue("Checksum of " + checkSum.getKey(),
+                            ChunkDigest.equalsHex(ChecksumAlgorithm.MD5.hash(downloaded), checkSum.getValue()));
+                    bytes += downloaded.length();
+                }
+
+                String endPoint = Global.TRANSFER_MODE_RANGES.equals(config.getProperty(Global.TRANSFER_MODE_KEY))
+                        ? config.getProperty(Global.RANGE_END_POINT_KEY, Global.RANGE_END_POINT_VAL)
+                        : Global.CHUNK_END_POINT;
+                Timer requests = context.getBean(MetricsService.class).getRegistry()
+                        .find("copypaste.http.request")
+                        .tags("endpoint", endPoint, "outcome", "success")
+                        .timer();
+                Assert.assertNotNull("No requests to " + endPoint, requests);
+                HistogramSnapshot snapshot = requests.takeSnapshot();
+
+                double megaBytes = bytes / (1024.0 * 1024);
+                double p50 = percentile(snapshot, 0.5);
+                double p99 = percentile(snapshot, 0.99);
+                log.info("Load test: {} MB in {} s, {} MB/s; {} p50 {} ms, p99 {} ms; {} of {} requests failed",
+                        format(megaBytes), format(seconds), format(megaBytes / seconds), endPoint, format(p50),
+                        format(p99), server.getFailures(), server.getRequests());
+                log.info("Load test: peak heap {} MB, {} GCs in {} ms", format(peakHeap / (1024.0 * 1024)),
+                        gcCount, gcMs);
+
+                String result = String.join(",", LocalDateTime.now().toString(),
+                        config.getProperty(Global.HTTP_ENGINE_KEY, Global.HTTP_ENGINE_VAL),
+                        config.getProperty(Global.TRANSFER_MODE_KEY, Global.TRANSFER_MODE_VAL),
+                        config.getProperty(Global.BINARY_CHUNKS_KEY, Global.BINARY_CHUNKS_VAL),
+                        Integer.toString(fileCount), Integer.toString(fileMb), Integer.toString(chunkKb),
+                        Integer.toString(latencyMs), Integer.toString(bandwidthKBps), Double.toString(errorRate),
+                        Integer.toString(server.getFailures()), format(seconds), format(megaBytes / seconds),
+                        format(p50), format(p99), format(peakHeap / (1024.0 * 1024)), Long.toString(gcCount),
+                        Long.toString(gcMs));
+                appendResult(workDirectory.resolve(RESULTS_FILE), result);
+            } finally {
+                context.close();
+            }
+        }
+    }
+
+    private static Properties clientConfig(String serverUrl) {
+        Properties config = new Properties();
+        config.setProperty(Global.SYNC_MODE_KEY, Global.SYNC_MODE_ALL);
+        System.getProperties().stringPropertyNames().stream()
+                .filter(name -> name.startsWith(CLIENT_PREFIX))
+                .forEach(name -> config.setProperty(name.substring(CLIENT_PREFIX.length()),
+                        System.getProperty(name)));
+        config.setProperty(Global.SERVER_URL_KEY, serverUrl);
+        return config;
+    }
+
+    private static void appendResult(Path results, String result) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        if (!results.toFile().exists()) {
+            lines.append(RESULTS_HEADER).append('\n');
+        }
+        lines.append(result).append('\n');
+        Files.write(results, lines.toString().getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private static double percentile(HistogramSnapshot snapshot, double percentile) {
+        for (ValueAtPercentile value : snapshot.percentileValues()) {
+            if (value.percentile() == percentile) {
+                return value.value(TimeUnit.MILLISECONDS);
+            }
+        }
+        return Double.NaN;
+    }
+
+    private static long gcCount() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .mapToLong(GarbageCollectorMXBean::getCollectionCount)
+                .sum();
+    }
+
+    private static long gcMs() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .mapToLong(GarbageCollectorMXBean::getCollectionTime)
+                .sum();
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        if (!directory.toFile().exists()) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private static String format(double value) {
+        return String.format("%.2f", value);
+    }
+}
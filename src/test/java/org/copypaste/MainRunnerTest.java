@@ -0,0 +1,240 @@
+package org.copypaste;
+
+import com.twmacinta.util.MD5;
+import org.copypaste.consts.Global;
+import org.copypaste.entry.MainRunner;
+import org.copypaste.service.AsyncSaveService;
+import org.copypaste.service.ChunkJournal;
+import org.copypaste.service.FileDownloadService;
+import org.copypaste.service.HttpClientFactory;
+import org.copypaste.service.ListingCache;
+import org.copypaste.service.MetricsService;
+import org.copypaste.util.ChecksumAlgorithm;
+import org.copypaste.util.ChunkDigest;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+public class MainRunnerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<AutoCloseable> closeables = new ArrayList<>();
+
+    private StandInServer server;
+
+    // settings of the next runner
+    private final Map<String, String> settings = new HashMap<>();
+
+    @After
+    public void stopAll() throws Exception {
+        for (int i = closeables.size() - 1; i >= 0; i--) {
+            closeables.get(i).close();
+        }
+    }
+
+    @Test (timeout = 30000)
+    public void pollingTest() throws Exception {
+        startServer(StandInServer.builder().file("first.bin", 100 * 1024).file("second.bin", 200 * 1024));
+        MainRunner runner = newRunner(true, "1000");
+        runner.run();
+        // the listing is asked for again and again
+        await(() -> server.getNotModified() >= 2);
+        assertDownloaded("first.bin");
+        assertDownloaded("second.bin");
+
+        runner.stopPolling();
+        Assert.assertFalse(isPolling());
+    }
+
+    @Test (timeout = 30000)
+    public void failedSyncRetriedTest() throws Exception {
+        // the listing with its retry
+        startServer(StandInServer.builder().file("first.bin", 100 * 1024).failFirst(2));
+        MainRunner runner = newRunner(true, "1000");
+        runner.run();
+        await(() -> incoming().resolve("first.bin").toFile().isFile());
+        assertDownloaded("first.bin");
+        Assert.assertEquals(2, server.getFailures());
+
+        runner.stopPolling();
+        Assert.assertFalse(isPolling());
+    }
+
+    @Test (timeout = 30000)
+    public void stoppedDownloadResumedTest() throws Exception {
+        long size = 2 * 1024 * 1024;
+        startServer(StandInServer.builder().file("big.bin", size).latencyMs(50));
+        MainRunner runner = newRunner(true, "0");
+        runner.run();
+        await(() -> server.getRequests() >= 10);
+
+        // interrupted right away
+        runner.stopPolling();
+        Assert.assertFalse(isPolling());
+        Assert.assertFalse(incoming().resolve("big.bin").toFile().exists());
+        String tempFileName = MD5.asHex(MessageDigest.getInstance("MD5")
+                .digest("big.bin".getBytes(StandardCharsets.UTF_8)));
+        String checkSum = server.getCheckSums().get("big.bin");
+        int written;
+        try (ChunkJournal journal = ChunkJournal.open(incoming().resolve(tempFileName + ".journal"), size, checkSum)) {
+            Assert.assertTrue(journal.isResumed());
+            written = journal.getWrittenCount();
+        }
+        Assert.assertTrue("Nothing is journaled", written > 0);
+
+        int requests = server.getRequests();
+        newRunner(false, "0").run();
+        assertDownloaded("big.bin");
+        // the listing and the chunks not journaled
+        Assert.assertTrue(server.getRequests() - requests <= 1 + size / CHUNK_SIZE - written);
+    }
+
+    @Test (timeout = 30000)
+    public void rangesResumedInChunksModeTest() throws Exception {
+        // the parts are not of the server chunk size
+        stopRangesDownload("16");
+
+        settings.put(Global.TRANSFER_MODE_KEY, Global.TRANSFER_MODE_CHUNKS);
+        newRunner(false, "0").run();
+        assertDownloaded("big.bin");
+    }
+
+    @Test (timeout = 30000)
+    public void rangeMinChangedTest() throws Exception {
+        stopRangesDownload("16");
+
+        settings.put(Global.RANGE_MIN_KB_KEY, "64");
+        newRunner(false, "0").run();
+        assertDownloaded("big.bin");
+    }
+
+    /**
+     * Stops the download of the ranges of the given minimum once some of them are journaled.
+     */
+    private void stopRangesDownload(String rangeMinKb) throws Exception {
+        long size = 2 * 1024 * 1024;
+        startServer(StandInServer.builder().file("big.bin", size).latencyMs(50));
+        settings.put(Global.TRANSFER_MODE_KEY, Global.TRANSFER_MODE_RANGES);
+        settings.put(Global.RANGE_MIN_KB_KEY, rangeMinKb);
+        settings.put(Global.RANGE_MAX_KB_KEY, rangeMinKb);
+        MainRunner runner = newRunner(true, "0");
+        runner.run();
+        String tempFileName = MD5.asHex(MessageDigest.getInstance("MD5")
+                .digest("big.bin".getBytes(StandardCharsets.UTF_8)));
+        Path journalPath = incoming().resolve(tempFileName + ".journal");
+        // read only, the journal is being written
+        await(() -> {
+            try {
+                return Files.exists(journalPath) && Files.readAllLines(journalPath).stream()
+                        .anyMatch(record -> record.startsWith("chunk "));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        runner.stopPolling();
+        Assert.assertFalse(incoming().resolve("big.bin").toFile().exists());
+    }
+
+    private static final int CHUNK_SIZE = 32 * 1024;
+
+    private void startServer(StandInServer.Builder builder) throws IOException {
+        server = builder.directory(folder.newFolder("server").toPath()).chunkSize(CHUNK_SIZE).build().start();
+        closeables.add(server);
+    }
+
+    private MainRunner newRunner(boolean daemon, String shutdownGraceMs) throws IOException {
+        Map<String, String> configMap = new Application().defaultConfiguration();
+        configMap.put(Global.SERVER_URL_KEY, server.getUrl());
+        configMap.put(Global.SYNC_MODE_KEY, Global.SYNC_MODE_ALL);
+        configMap.put(Global.METRICS_JMX_KEY, "false");
+        configMap.put(Global.CHUNKS_IN_FLIGHT_KEY, "2");
+        configMap.put(Global.RETRIES_NUMBER_KEY, "1");
+        configMap.put(Global.BACKOFF_BASE_MS_KEY, "10");
+        configMap.put(Global.BACKOFF_MAX_MS_KEY, "50");
+        configMap.put(Global.DAEMON_KEY, Boolean.toString(daemon));
+        configMap.put(Global.POLL_INTERVAL_MS_KEY, "100");
+        configMap.put(Global.SHUTDOWN_GRACE_MS_KEY, shutdownGraceMs);
+        configMap.putAll(settings);
+
+        MetricsService metricsService = new MetricsService();
+        metricsService.setConfigMap(configMap);
+        metricsService.createRegistry();
+        closeables.add(metricsService::closeRegistry);
+
+        HttpClientFactory httpClientFactory = new HttpClientFactory();
+        httpClientFactory.setConfigMap(configMap);
+        httpClientFactory.setMetricsService(metricsService);
+        httpClientFactory.createClient();
+        closeables.add(httpClientFactory::closeClient);
+
+        AsyncSaveService asyncSaveService = new AsyncSaveService();
+        asyncSaveService.setConfigMap(configMap);
+        asyncSaveService.setMetricsService(metricsService);
+        asyncSaveService.setIncomingDirectory(incoming());
+        asyncSaveService.startThreads();
+        closeables.add(asyncSaveService::stopThreads);
+
+        FileDownloadService fileDownloadService = new FileDownloadService();
+        fileDownloadService.setConfigMap(configMap);
+        fileDownloadService.setAsyncSaveService(asyncSaveService);
+        fileDownloadService.setMetricsService(metricsService);
+        fileDownloadService.setHttpClientFactory(httpClientFactory);
+
+        ListingCache listingCache = new ListingCache();
+        listingCache.setConfigMap(configMap);
+        listingCache.setDirectory(config());
+        listingCache.setIncomingDirectory(incoming());
+
+        MainRunner runner = new MainRunner();
+        runner.setConfigMap(configMap);
+        runner.setFileDownloadService(fileDownloadService);
+        runner.setHttpClientFactory(httpClientFactory);
+        runner.setMetricsService(metricsService);
+        runner.setListingCache(listingCache);
+        runner.setIncomingDirectory(incoming());
+        closeables.add(runner::stopPolling);
+        return runner;
+    }
+
+    private Path incoming() {
+        return folder.getRoot().toPath().resolve(Global.INCOMING_DIRECTORY);
+    }
+
+    private Path config() {
+        return folder.getRoot().toPath().resolve(Global.CONFIG_DIRECTORY);
+    }
+
+    private void assertDownloaded(String name) throws IOException {
+        File downloaded = incoming().resolve(name).toFile();
+        Assert.assertTrue("Not downloaded " + name, downloaded.isFile());
+        Assert.assertTrue("Checksum of " + name,
+                ChunkDigest.equalsHex(ChecksumAlgorithm.MD5.hash(downloaded), server.getCheckSums().get(name)));
+    }
+
+    private static boolean isPolling() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .anyMatch(thread -> "Poller".equals(thread.getName()) && thread.isAlive());
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        while (!condition.getAsBoolean()) {
+            Thread.sleep(20);
+        }
+    }
+}
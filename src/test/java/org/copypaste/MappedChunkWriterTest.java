@@ -0,0 +1,50 @@
+package org.copypaste;
+
+import org.copypaste.util.MappedChunkWriter;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+public class MappedChunkWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    final byte[] data = new byte[50 * 1000 + 13];
+
+    {
+        new Random(42).nextBytes(data);
+    }
+
+    @Test
+    public void chunksOverWindowsTest() throws IOException {
+        int chunkSize = 10 * 1000;
+        File file = folder.newFile();
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+             // chunks span the windows and windows are evicted
+             MappedChunkWriter writer = new MappedChunkWriter(randomAccessFile.getChannel(), data.length, 4096, 2)) {
+            for (int chunkNum : new int[] {5, 3, 0, 4, 1, 2}) {
+                int from = chunkNum * chunkSize;
+                writer.write(from, Arrays.copyOfRange(data, from, Math.min(data.length, from + chunkSize)));
+            }
+            writer.force(true);
+        }
+        Assert.assertArrayEquals(data, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test (expected = IOException.class)
+    public void beyondFileSizeTest() throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(folder.newFile(), "rw");
+             MappedChunkWriter writer = new MappedChunkWriter(randomAccessFile.getChannel(), 100, 4096, 2)) {
+            writer.write(90, new byte[20]);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package org.copypaste;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.message.BasicHttpResponse;
+import org.copypaste.data.RangeResponse;
+import org.copypaste.util.RangeResponseDecoder;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class RangeDecodeTest {
+
+    @Test
+    public void rangeCutToPartsTest() throws IOException {
+        byte[] data = new byte[10 * 1024 + 5];
+        new Random(42).nextBytes(data);
+        RangeResponseDecoder decoder = new RangeResponseDecoder(4096, 4096 + data.length - 1, 4096);
+        HttpResponse response = response(206, data, "bytes 4096-14340/20000");
+
+        RangeResponse rangeResponse = decode(decoder, response);
+
+        List<byte[]> parts = rangeResponse.getPayload();
+        Assert.assertEquals(3, parts.size());
+        Assert.assertArrayEquals(Arrays.copyOfRange(data, 0, 4096), parts.get(0));
+        Assert.assertArrayEquals(Arrays.copyOfRange(data, 4096, 8192), parts.get(1));
+        Assert.assertArrayEquals(Arrays.copyOfRange(data, 8192, data.length), parts.get(2));
+        Assert.assertEquals("bytes=4096-14340", decoder.range());
+    }
+
+    @Test (expected = IOException.class)
+    public void rangeIgnoredTest() throws IOException {
+        byte[] data = new byte[2048];
+        decode(new RangeResponseDecoder(0, 1023, 1024), response(200, data, null));
+    }
+
+    @Test (expected = IOException.class)
+    public void otherRangeTest() throws IOException {
+        byte[] data = new byte[1024];
+        decode(new RangeResponseDecoder(1024, 2047, 1024), response(206, data, "bytes 0-1023/4096"));
+    }
+
+    private RangeResponse decode(RangeResponseDecoder decoder, HttpResponse response) throws IOException {
+        try (InputStream content = response.getEntity().getContent()) {
+            return decoder.decode(response, content, 1024 * 1024);
+        }
+    }
+
+    private HttpResponse response(int status, byte[] body, String contentRange) {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, status, "");
+        response.setEntity(new ByteArrayEntity(body, ContentType.APPLICATION_OCTET_STREAM));
+        if (contentRange != null) {
+            response.setHeader(HttpHeaders.CONTENT_RANGE, contentRange);
+        }
+        return response;
+    }
+}
@@ -0,0 +1,60 @@
+package org.copypaste;
+
+import org.copypaste.util.RangeSizer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class RangeSizerTest {
+
+    final int partSize = 64 * 1024;
+
+    @Test
+    public void fastLinkGrowsTest() {
+        RangeSizer sizer = new RangeSizer(partSize, 256);
+        Assert.assertEquals(1, sizer.getParts());
+        // 100MB/s of 1ms latency, 200ms of it is 20MB
+        for (int i = 0; i < 20; i++) {
+            long bytes = (long) sizer.getParts() * partSize;
+            sizer.completed(bytes, ms(1), bytes * 10);
+        }
+        Assert.assertEquals(256, sizer.getParts());
+    }
+
+    @Test
+    public void slowLinkShrinksTest() {
+        RangeSizer sizer = new RangeSizer(partSize, 256);
+        for (int i = 0; i < 10; i++) {
+            long bytes = (long) sizer.getParts() * partSize;
+            sizer.completed(bytes, ms(1), bytes * 10);
+        }
+        int fastParts = sizer.getParts();
+        // 1MB/s: 200ms is ~3 parts
+        for (int i = 0; i < 20; i++) {
+            long bytes = (long) sizer.getParts() * partSize;
+            sizer.completed(bytes, ms(1), bytes * 1000);
+        }
+        Assert.assertTrue(sizer.getParts() < fastParts);
+        Assert.assertEquals(3, sizer.getParts());
+    }
+
+    @Test
+    public void latencyGrowsRangesTest() {
+        // 10MB/s both, 10ms latency allows 200ms ranges, 100ms latency allows 800ms ones
+        RangeSizer nearSizer = new RangeSizer(partSize, 1024);
+        RangeSizer farSizer = new RangeSizer(partSize, 1024);
+        for (int i = 0; i < 20; i++) {
+            long nearBytes = (long) nearSizer.getParts() * partSize;
+            nearSizer.completed(nearBytes, ms(10), nearBytes * 100);
+            long farBytes = (long) farSizer.getParts() * partSize;
+            farSizer.completed(farBytes, ms(100), farBytes * 100);
+        }
+        Assert.assertEquals(30, nearSizer.getParts());
+        Assert.assertEquals(122, farSizer.getParts());
+    }
+
+    private static long ms(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+}
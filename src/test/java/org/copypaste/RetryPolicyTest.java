@@ -0,0 +1,89 @@
+package org.copypaste;
+
+import org.apache.http.ContentTooLongException;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+import org.copypaste.util.GuardedInputStream;
+import org.copypaste.util.HttpStatusException;
+import org.copypaste.util.RetryBudget;
+import org.copypaste.util.RetryPolicy;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void retryableTest() {
+        RetryPolicy policy = new RetryPolicy(100, 1000, null);
+        Assert.assertTrue(policy.isRetryable(new RuntimeException("IO error", new SocketTimeoutException())));
+        Assert.assertTrue(policy.isRetryable(new HttpStatusException(503, -1)));
+        Assert.assertTrue(policy.isRetryable(new HttpStatusException(429, 1000)));
+        Assert.assertFalse(policy.isRetryable(new HttpStatusException(404, -1)));
+        Assert.assertFalse(policy.isRetryable(new RuntimeException("IO error", new ContentTooLongException("long"))));
+        Assert.assertFalse(policy.isRetryable(new IllegalStateException("bug")));
+    }
+
+    @Test
+    public void tooLongBlockingReplyTest() {
+        RetryPolicy policy = new RetryPolicy(100, 1000, null);
+        byte[] reply = new byte[100];
+        try (InputStream in = new GuardedInputStream(new ByteArrayInputStream(reply), 10)) {
+            in.read(reply);
+            Assert.fail("Too long reply is read");
+        } catch (IOException e) {
+            Assert.assertFalse(policy.isRetryable(new RuntimeException("Cannot read reply", e)));
+        }
+    }
+
+    @Test
+    public void backoffTest() {
+        RetryPolicy policy = new RetryPolicy(100, 1000, null);
+        Exception e = new HttpStatusException(500, -1);
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue(policy.delayMs(0, e) <= 100);
+            Assert.assertTrue(policy.delayMs(2, e) <= 400);
+            Assert.assertTrue(policy.delayMs(10, e) <= 1000);
+            Assert.assertTrue(policy.delayMs(100, e) >= 0);
+        }
+    }
+
+    @Test
+    public void retryAfterTest() {
+        RetryPolicy policy = new RetryPolicy(100, 5000, null);
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 429, "");
+        response.setHeader("Retry-After", "2");
+        HttpStatusException e = HttpStatusException.of(response);
+        Assert.assertEquals(2000, e.getRetryAfterMs());
+        Assert.assertTrue(policy.delayMs(0, e) >= 2000);
+
+        // not longer than the max delay
+        response.setHeader("Retry-After", "3600");
+        Assert.assertEquals(5000, policy.delayMs(0, HttpStatusException.of(response)));
+
+        response.setHeader("Retry-After", "garbage");
+        Assert.assertEquals(-1, HttpStatusException.of(response).getRetryAfterMs());
+    }
+
+    @Test
+    public void budgetTest() {
+        RetryPolicy policy = new RetryPolicy(100, 1000, new RetryBudget(10, 2));
+        Assert.assertTrue(policy.tryRetry());
+        Assert.assertTrue(policy.tryRetry());
+        Assert.assertFalse(policy.tryRetry());
+
+        // 10 successful requests earn a retry
+        for (int i = 0; i < 9; i++) {
+            policy.succeeded();
+        }
+        Assert.assertFalse(policy.tryRetry());
+        policy.succeeded();
+        Assert.assertTrue(policy.tryRetry());
+        Assert.assertFalse(policy.tryRetry());
+    }
+}
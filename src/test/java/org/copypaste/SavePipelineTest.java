@@ -0,0 +1,353 @@
+package org.copypaste;
+
+import com.twmacinta.util.MD5;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.copypaste.interthread_data.FileChunkImmutable;
+import org.copypaste.service.ChunkJournal;
+import org.copypaste.service.SavePipeline;
+import org.copypaste.util.ByteBudget;
+import org.copypaste.util.ChecksumAlgorithm;
+import org.copypaste.util.DirectBufferPool;
+import org.copypaste.util.Hasher;
+import org.copypaste.util.SaveMetrics;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class SavePipelineTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    final ExecutorService verifiers = Executors.newFixedThreadPool(2);
+
+    // single writer thread for several pipelines
+    final ExecutorService writers = Executors.newSingleThreadExecutor();
+
+    // smaller than the chunk, so a chunk is written by several slices
+    final DirectBufferPool bufferPool = new DirectBufferPool(4 * 1024, 1);
+
+    final int chunkSize = 10 * 1024;
+
+    @After
+    public void stopThreads() {
+        verifiers.shutdownNow();
+        writers.shutdownNow();
+    }
+
+    @Test
+    public void outOfOrderChunksTest() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        byte[] data = randomData(1, chunkSize * 3 + 100);
+        // budget of a single chunk makes the producer to wait for the writer
+        SavePipeline pipeline = newPipeline(dir, "file.bin", data, chunkSize);
+        for (int chunkNum : new int[] {3, 1, 0, 2}) {
+            pipeline.put(chunk(data, chunkNum));
+        }
+        pipeline.awaitDone();
+        pipeline.releaseTemp();
+        Assert.assertArrayEquals(data, Files.readAllBytes(dir.resolve("file.bin")));
+    }
+
+    @Test
+    public void existingFileReplacedTest() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        Files.write(dir.resolve("replaced.bin"), new byte[] {1, 2, 3});
+        byte[] data = randomData(15, chunkSize * 2 + 9);
+        SavePipeline pipeline = newPipeline(dir, "replaced.bin", data, 1024 * 1024);
+        for (int chunkNum = 0; chunkNum < 3; chunkNum++) {
+            pipeline.put(chunk(data, chunkNum));
+        }
+        pipeline.awaitDone();
+        pipeline.releaseTemp();
+        Assert.assertArrayEquals(data, Files.readAllBytes(dir.resolve("replaced.bin")));
+    }
+
+    @Test
+    public void severalPipelinesTest() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        byte[] first = randomData(2, chunkSize * 2);
+        byte[] second = randomData(3, chunkSize * 2 + 1);
+        SavePipeline firstPipeline = newPipeline(dir, "first.bin", first, 1024 * 1024);
+        SavePipeline secondPipeline = newPipeline(dir, "second.bin", second, 1024 * 1024);
+        for (int chunkNum = 0; chunkNum < 3; chunkNum++) {
+            if (chunkNum < 2) {
+                firstPipeline.put(chunk(first, chunkNum));
+            }
+            secondPipeline.put(chunk(second, chunkNum));
+        }
+        firstPipeline.awaitDone();
+        secondPipeline.awaitDone();
+        firstPipeline.releaseTemp();
+        secondPipeline.releaseTemp();
+        Assert.assertArrayEquals(first, Files.readAllBytes(dir.resolve("first.bin")));
+        Assert.assertArrayEquals(second, Files.readAllBytes(dir.resolve("second.bin")));
+    }
+
+    @Test
+    public void preallocatedSyncedTest() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        byte[] data = randomData(5, chunkSize * 4 + 7);
+        SavePipeline pipeline = new SavePipeline(verifiers, writers, bufferPool, new ByteBudget(1024 * 1024), dir);
+        pipeline.setFileName("preallocated.bin");
+        pipeline.setFileCheckSum(MD5.asHex(MessageDigest.getInstance("MD5").digest(data)));
+        pipeline.setPreallocate(true);
+        pipeline.setFsyncEveryChunks(2);
+        pipeline.openJournal(data.length);
+        Path temp = dir.resolve(MD5.asHex(MessageDigest.getInstance("MD5").digest("preallocated.bin".getBytes("UTF-8"))));
+        Assert.assertEquals(data.length, Files.size(temp));
+        pipeline.start();
+        for (int chunkNum : new int[] {4, 2, 0, 3, 1}) {
+            pipeline.put(chunk(data, chunkNum));
+        }
+        pipeline.awaitDone();
+        pipeline.releaseTemp();
+        Assert.assertArrayEquals(data, Files.readAllBytes(dir.resolve("preallocated.bin")));
+    }
+
+    @Test
+    public void stoppedPipelineJournaledTest() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        byte[] data = randomData(14, chunkSize * 4 + 3);
+        String checkSum = MD5.asHex(MessageDigest.getInstance("MD5").digest(data));
+        SavePipeline stopped = new SavePipeline(verifiers, writers, bufferPool, new ByteBudget(1024 * 1024), dir);
+        stopped.setFileName("stopped.bin");
+        stopped.setFileCheckSum(checkSum);
+        // nothing is forced while running
+        stopped.setFsyncEveryChunks(0);
+        stopped.openJournal(data.length).chunkSize(chunkSize);
+        stopped.start();
+        for (int chunkNum : new int[] {2, 0, 4}) {
+            stopped.put(chunk(data, chunkNum));
+        }
+        stopped.releaseTemp();
+
+        SavePipeline resumed = new SavePipeline(verifiers, writers, bufferPool, new ByteBudget(1024 * 1024), dir);
+        resumed.setFileName("stopped.bin");
+        resumed.setFileCheckSum(checkSum);
+        ChunkJournal journal = resumed.openJournal(data.length);
+        Assert.assertTrue(journal.isResumed());
+        Assert.assertEquals(3, journal.getWrittenCount());
+        Assert.assertEquals(4, journal.getLastChunkNum());
+        resumed.start();
+        for (int chunkNum : new int[] {3, 1}) {
+            resumed.put(chunk(data, chunkNum));
+        }
+        resumed.awaitDone();
+        resumed.releaseTemp();
+        Assert.assertArrayEquals(data, Files.readAllBytes(dir.resolve("stopped.bin")));
+    }
+
+    @Test
+    public void meteredTest() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        byte[] data = randomData(13, chunkSize * 3 + 11);
+        SaveMetrics metrics = new SaveMetrics(new SimpleMeterRegistry());
+        SavePipeline pipeline = new SavePipeline(verifiers, writers, bufferPool, new ByteBudget(1024 * 1024), dir);
+        pipeline.setMetrics(metrics);
+        pipeline.setFileName("metered.bin");
+        pipeline.setFileCheckSum(MD5.asHex(MessageDigest.getInstance("MD5").digest(data)));
+        pipeline.openJournal(data.length);
+        pipeline.start();
+        for (int chunkNum = 0; chunkNum < 4; chunkNum++) {
+            pipeline.put(chunk(data, chunkNum));
+        }
+        pipeline.awaitDone();
+        pipeline.releaseTemp();
+        Assert.assertEquals(data.length, (long) metrics.getWrittenBytes().count());
+        Assert.assertEquals(4, metrics.getPutWait().count());
+        Assert.assertEquals(4, metrics.getVerify().count());
+        Assert.assertEquals(4, metrics.getWrite().count());
+        Assert.assertEquals(4, metrics.getDigest().count());
+        Assert.assertEquals(0, metrics.getQueuedChunks().get());
+    }
+
+    @Test
+    public void memoryMappedTest() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        byte[] data = randomData(6, chunkSize * 3 + 1);
+        SavePipeline pipeline = new SavePipeline(verifiers, writers, bufferPool, new ByteBudget(1024 * 1024), dir);
+        pipeline.setFileName("mapped.bin");
+        pipeline.setFileCheckSum(MD5.asHex(MessageDigest.getInstance("MD5").digest(data)));
+        pipeline.setMemoryMapped(true);
+        pipeline.openJournal(data.length);
+        pipeline.start();
+        for (int chunkNum : new int[] {3, 0, 2, 1}) {
+            pipeline.put(chunk(data, chunkNum));
+        }
+        pipeline.awaitDone();
+        pipeline.releaseTemp();
+        Assert.assertArrayEquals(data, Files.readAllBytes(dir.resolve("mapped.bin")));
+    }
+
+    @Test
+    public void otherChecksumAlgorithmsTest() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        byte[] data = randomData(8, chunkSize * 2 + 5);
+        SavePipeline pipeline = new SavePipeline(verifiers, writers, bufferPool, new ByteBudget(1024 * 1024), dir);
+        pipeline.setFileName("sha.bin");
+        pipeline.setFileCheckSum(MD5.asHex(MessageDigest.getInstance("SHA-256").digest(data)));
+        pipeline.setFileCheckSumAlgorithm(ChecksumAlgorithm.SHA_256);
+        pipeline.openJournal(data.length);
+        pipeline.start();
+        for (int chunkNum : new int[] {2, 0, 1}) {
+            FileChunkImmutable chunk = chunk(data, chunkNum);
+            Hasher crc32c = ChecksumAlgorithm.CRC32C.newHasher();
+            crc32c.update(chunk.getChunkEncodedContent());
+            pipeline.put(new FileChunkImmutable(chunk.getChunkEncodedContent(), MD5.asHex(crc32c.digest()),
+                    ChecksumAlgorithm.CRC32C, chunk.isHasNextChunk(), chunkNum, chunk.getOffset()));
+        }
+        pipeline.awaitDone();
+        pipeline.releaseTemp();
+        Assert.assertArrayEquals(data, Files.readAllBytes(dir.resolve("sha.bin")));
+    }
+
+    @Test
+    public void rangePartsTest() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        byte[] data = randomData(9, chunkSize * 3 + 11);
+        SavePipeline pipeline = newPipeline(dir, "ranges.bin", data, 1024 * 1024);
+        for (int chunkNum : new int[] {1, 3, 0, 2}) {
+            FileChunkImmutable chunk = chunk(data, chunkNum);
+            // parts of a range have no checksum, the file checksum verifies them
+            pipeline.put(new FileChunkImmutable(chunk.getChunkEncodedContent(), null, null, chunk.isHasNextChunk(),
+                    chunkNum, chunk.getOffset()));
+        }
+        pipeline.awaitDone();
+        pipeline.releaseTemp();
+        Assert.assertArrayEquals(data, Files.readAllBytes(dir.resolve("ranges.bin")));
+    }
+
+    @Test
+    public void badRangePartTest() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        byte[] data = randomData(10, chunkSize * 2);
+        SavePipeline pipeline = newPipeline(dir, "bad-range.bin", data, 1024 * 1024);
+        for (int chunkNum = 0; chunkNum < 2; chunkNum++) {
+            FileChunkImmutable chunk = chunk(data, chunkNum);
+            byte[] content = chunk.getChunkEncodedContent().clone();
+            content[chunkNum] ^= 1;
+            pipeline.put(new FileChunkImmutable(content, null, null, chunk.isHasNextChunk(), chunkNum,
+                    chunk.getOffset()));
+        }
+        try {
+            pipeline.awaitDone();
+            Assert.fail("Bad range is saved");
+        } catch (RuntimeException e) {
+            Assert.assertNotNull(pipeline.getThrowable());
+        }
+        pipeline.releaseTemp();
+        Assert.assertFalse(Files.exists(dir.resolve("bad-range.bin")));
+    }
+
+    @Test
+    public void badChunkTest() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        byte[] data = randomData(4, chunkSize * 2);
+        SavePipeline pipeline = newPipeline(dir, "bad.bin", data, 1024 * 1024);
+        FileChunkImmutable good = chunk(data, 0);
+        pipeline.put(new FileChunkImmutable(good.getChunkEncodedContent(), "00", true, 0, 0));
+        try {
+            pipeline.awaitDone();
+            Assert.fail("Bad chunk is saved");
+        } catch (RuntimeException e) {
+            Assert.assertNotNull(pipeline.getThrowable());
+        }
+        pipeline.releaseTemp();
+        Assert.assertFalse(Files.exists(dir.resolve("bad.bin")));
+    }
+
+    @Test
+    public void badChunkAmongGoodTest() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        byte[] data = randomData(7, chunkSize * 8);
+        ByteBudget budget = new ByteBudget(chunkSize * 3);
+        SavePipeline pipeline = new SavePipeline(verifiers, writers, bufferPool, budget, dir);
+        pipeline.setFileName("bad-among-good.bin");
+        pipeline.setFileCheckSum(MD5.asHex(MessageDigest.getInstance("MD5").digest(data)));
+        pipeline.openJournal(data.length);
+        pipeline.start();
+        try {
+            for (int chunkNum = 0; chunkNum < 8; chunkNum++) {
+                FileChunkImmutable chunk = chunk(data, chunkNum);
+                pipeline.put(chunkNum != 3 ? chunk : new FileChunkImmutable(chunk.getChunkEncodedContent(), "00",
+                        chunk.isHasNextChunk(), chunk.getChunkNum(), chunk.getOffset()));
+            }
+        } catch (RuntimeException ignore) {
+            // the pipeline may fail before all the chunks are put
+        }
+        try {
+            pipeline.awaitDone();
+            Assert.fail("Bad chunk is saved");
+        } catch (RuntimeException e) {
+            Assert.assertNotNull(pipeline.getThrowable());
+        }
+        pipeline.releaseTemp();
+        Assert.assertEquals(0, budget.getUsedBytes());
+        Assert.assertFalse(Files.exists(dir.resolve("bad-among-good.bin")));
+    }
+
+    @Test (timeout = 10000)
+    public void writersShutDownTest() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        byte[] data = randomData(16, chunkSize * 3);
+        ExecutorService stoppedWriters = Executors.newSingleThreadExecutor();
+        ByteBudget budget = new ByteBudget(1024 * 1024);
+        SavePipeline pipeline = new SavePipeline(verifiers, stoppedWriters, bufferPool, budget, dir);
+        pipeline.setFileName("shut-down.bin");
+        pipeline.setFileCheckSum(MD5.asHex(MessageDigest.getInstance("MD5").digest(data)));
+        pipeline.openJournal(data.length);
+        pipeline.start();
+        pipeline.put(chunk(data, 0));
+        // as the save service does
+        stoppedWriters.shutdownNow().forEach(Runnable::run);
+        try {
+            pipeline.put(chunk(data, 1));
+            pipeline.put(chunk(data, 2));
+            pipeline.awaitDone();
+            Assert.fail("Saved with the writers shut down");
+        } catch (RuntimeException e) {
+            Assert.assertNotNull(pipeline.getThrowable());
+        }
+        // does not wait for the drain that never runs
+        pipeline.releaseTemp();
+        Assert.assertEquals(0, budget.getUsedBytes());
+        Assert.assertFalse(Files.exists(dir.resolve("shut-down.bin")));
+    }
+
+    private SavePipeline newPipeline(Path dir, String name, byte[] data, long capacity)
+            throws NoSuchAlgorithmException {
+        SavePipeline pipeline = new SavePipeline(verifiers, writers, bufferPool, new ByteBudget(capacity), dir);
+        pipeline.setFileName(name);
+        pipeline.setFileCheckSum(MD5.asHex(MessageDigest.getInstance("MD5").digest(data)));
+        pipeline.openJournal(data.length);
+        pipeline.start();
+        return pipeline;
+    }
+
+    private FileChunkImmutable chunk(byte[] data, int chunkNum) throws NoSuchAlgorithmException {
+        int from = chunkNum * chunkSize;
+        int to = Math.min(data.length, from + chunkSize);
+        byte[] content = Arrays.copyOfRange(data, from, to);
+        String md5 = MD5.asHex(MessageDigest.getInstance("MD5").digest(content));
+        return new FileChunkImmutable(content, md5, to < data.length, chunkNum, from);
+    }
+
+    private byte[] randomData(long seed, int length) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,573 @@
+package org.copypaste;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.twmacinta.util.MD5;
+import org.copypaste.consts.Global;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Embedded stand-in of the copy-paste server on the loopback interface, for the load test. It serves the same contract
+ * as the real server:
+ * <ul>
+ * <li><code>/files</code> -- {@link org.copypaste.data.FileMetaResponse} of the generated files, MD5 checksums. The
+ * listing has ETag, it is replied by 304 to the request of the same <code>If-None-Match</code>. Given the page size or
+ * the <code>limit</code> the listing is paged, the <code>cursor</code> of the next page is the index of its first
+ * file.</li>
+ * <li><code>/chunk?file=&amp;chunkNum=</code> -- {@link org.copypaste.data.ChunkResponse} as JSON with Base64 data, or
+ * the binary chunk with the chunk headers when the client accepts octet stream</li>
+ * <li><code>/file?file=</code> -- the partial content of the <code>Range: bytes=first-last</code> request</li>
+ * </ul>
+ * The files are random content generated to the given directory and served from the disk, so the heap of the server
+ * stays small next to the client running in the same JVM. The latency is added before every reply, the bandwidth cap
+ * is shared by all the replies, the given share of the requests fails by 503.
+ */
+public class StandInServer implements AutoCloseable {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final String OCTET_STREAM = "application/octet-stream";
+
+    // slice of the reply body paced by the bandwidth cap
+    private static final int SLICE = 64 * 1024;
+
+    private final Path directory;
+
+    private final int chunkSize;
+
+    private final long latencyMs;
+
+    private final long bandwidthBytesPerSecond;
+
+    private final double errorRate;
+
+    private final int failFirst;
+
+    private final Map<String, ServedFile> files = new LinkedHashMap<>();
+
+    private final ThreadLocal<byte[]> slices = ThreadLocal.withInitial(() -> new byte[SLICE]);
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    private final AtomicInteger failures = new AtomicInteger();
+
+    private final AtomicInteger notModified = new AtomicInteger();
+
+    private final AtomicInteger pages = new AtomicInteger();
+
+    private final List<JsonNode> summaries = new ArrayList<>();
+
+    private final int pageSize;
+
+    private byte[] listing;
+
+    private String listingETag;
+
+    private HttpServer server;
+
+    private ExecutorService handlers;
+
+    // time the bandwidth cap lets the next slice go
+    private long nextSliceNanos;
+
+    private StandInServer(Builder builder) {
+        this.directory = builder.directory;
+        this.chunkSize = builder.chunkSize;
+        this.latencyMs = builder.latencyMs;
+        this.bandwidthBytesPerSecond = builder.bandwidthKBps * 1024L;
+        this.errorRate = builder.errorRate;
+        this.failFirst = builder.failFirst;
+        this.pageSize = builder.pageSize;
+        for (Map.Entry<String, Long> file : builder.files.entrySet()) {
+            files.put(file.getKey(), new ServedFile(directory.resolve(file.getKey()), file.getValue()));
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Generates the files and starts to listen on a free port.
+     */
+    public StandInServer start() throws IOException {
+        Files.createDirectories(directory);
+        long seed = 1;
+        for (ServedFile file : files.values()) {
+            file.generate(seed++);
+        }
+        long creationTime = 0;
+        for (Map.Entry<String, ServedFile> file : files.entrySet()) {
+            summaries.add(OBJECT_MAPPER.createObjectNode()
+                    .put("creationTime", creationTime++)
+                    .put("name", file.getKey())
+                    .put("size", file.getValue().size)
+                    .put("checkSum", file.getValue().checkSum));
+        }
+        ArrayNode payload = OBJECT_MAPPER.createArrayNode();
+        payload.addAll(summaries);
+        ObjectNode response = OBJECT_MAPPER.createObjectNode().put("success", true);
+        response.set("payload", payload);
+        listing = OBJECT_MAPPER.writeValueAsBytes(response);
+        try {
+            listingETag = "\"" + MD5.asHex(MessageDigest.getInstance("MD5").digest(listing)) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+
+        AtomicInteger counter = new AtomicInteger();
+        handlers = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "Stand-in Server " + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(handlers);
+        server.createContext(Global.META_END_POINT, exchange -> handle(exchange, this::files));
+        server.createContext(Global.CHUNK_END_POINT, exchange -> handle(exchange, this::chunk));
+        server.createContext(Global.RANGE_END_POINT_VAL, exchange -> handle(exchange, this::range));
+        server.start();
+        return this;
+    }
+
+    public String getUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    /**
+     * @return hex MD5 of the served files by name
+     */
+    public Map<String, String> getCheckSums() {
+        Map<String, String> checkSums = new LinkedHashMap<>();
+        files.forEach((name, file) -> checkSums.put(name, file.checkSum));
+        return checkSums;
+    }
+
+    public int getRequests() {
+        return requests.get();
+    }
+
+    public int getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * @return number of the listing pages replied
+     */
+    public int getPages() {
+        return pages.get();
+    }
+
+    /**
+     * @return number of the listings replied by 304
+     */
+    public int getNotModified() {
+        return notModified.get();
+    }
+
+    @Override
+    public void close() {
+        if (server != null) {
+            server.stop(0);
+            handlers.shutdownNow();
+        }
+    }
+
+    private void handle(HttpExchange exchange, Handler handler) throws IOException {
+        try {
+            int request = requests.incrementAndGet();
+            if (latencyMs > 0) {
+                TimeUnit.MILLISECONDS.sleep(latencyMs);
+            }
+            if (request <= failFirst
+                    || errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+                failures.incrementAndGet();
+                reply(exchange, 503, "application/json", "{}".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            handler.handle(exchange, query(exchange));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            reply(exchange, 400, "application/json", "{}".getBytes(StandardCharsets.UTF_8));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void files(HttpExchange exchange, Map<String, String> query) throws IOException, InterruptedException {
+        int limit = query.containsKey(Global.LIMIT_PARAM) ? Integer.parseInt(query.get(Global.LIMIT_PARAM)) : pageSize;
+        if (limit > 0 && (query.containsKey(Global.CURSOR_PARAM) || limit < files.size())) {
+            // the cursor is the index of the first file of the page
+            int first = query.containsKey(Global.CURSOR_PARAM) ? Integer.parseInt(query.get(Global.CURSOR_PARAM)) : 0;
+            int last = Math.min(first + limit, summaries.size());
+            ArrayNode page = OBJECT_MAPPER.createArrayNode();
+            page.addAll(summaries.subList(first, last));
+            ObjectNode response = OBJECT_MAPPER.createObjectNode().put("success", true);
+            response.set("payload", page);
+            if (last < summaries.size()) {
+                response.put("nextCursor", Integer.toString(last));
+            }
+            pages.incrementAndGet();
+            reply(exchange, 200, "application/json", OBJECT_MAPPER.writeValueAsBytes(response));
+            return;
+        }
+        if (listingETag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            notModified.incrementAndGet();
+            exchange.getResponseHeaders().set("ETag", listingETag);
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+        exchange.getResponseHeaders().set("ETag", listingETag);
+        reply(exchange, 200, "application/json", listing);
+    }
+
+    private void chunk(HttpExchange exchange, Map<String, String> query) throws IOException, InterruptedException {
+        ServedFile file = file(query);
+        int chunkNum = Integer.parseInt(query.get("chunkNum"));
+        long position = (long) chunkNum * chunkSize;
+        if (chunkNum < 0 || position >= file.size && !(position == 0 && file.size == 0)) {
+            throw new IllegalArgumentException("No chunk " + chunkNum);
+        }
+        int length = (int) Math.min(chunkSize, file.size - position);
+        boolean hasNextChunk = position + length < file.size;
+        String chunkCheckSum = file.chunkCheckSums.get(chunkNum);
+
+        String accept = exchange.getRequestHeaders().getFirst("Accept");
+        if (accept != null && accept.contains(OCTET_STREAM)) {
+            exchange.getResponseHeaders().set(Global.HAS_NEXT_CHUNK_HEADER, Boolean.toString(hasNextChunk));
+            exchange.getResponseHeaders().set(Global.CHUNK_CHECKSUM_HEADER, chunkCheckSum);
+            exchange.getResponseHeaders().set("Content-Type", OCTET_STREAM);
+            exchange.sendResponseHeaders(200, length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                send(file, position, length, body);
+            }
+            return;
+        }
+
+        // the Base64 chunk data is the last field, so it is streamed from the file as well
+        byte[] head = ("{\"success\":true,\"payload\":{\"hasNextChunk\":" + hasNextChunk
+                + ",\"chunkHexMD5\":\"" + chunkCheckSum + "\",\"chunkData\":\"").getBytes(StandardCharsets.UTF_8);
+        byte[] tail = "\"}}".getBytes(StandardCharsets.UTF_8);
+        long base64Length = 4L * ((length + 2) / 3);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, head.length + base64Length + tail.length);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(head);
+            // the encoder writes every 4 bytes by themselves
+            OutputStream base64 = Base64.getEncoder().wrap(
+                    new BufferedOutputStream(new UnclosedOutputStream(body), SLICE));
+            send(file, position, length, base64);
+            // flushes the last Base64 quantum, the body stays open
+            base64.close();
+            body.write(tail);
+        }
+    }
+
+    private void range(HttpExchange exchange, Map<String, String> query) throws IOException, InterruptedException {
+        ServedFile file = file(query);
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range == null || !range.startsWith("bytes=")) {
+            exchange.getResponseHeaders().set("Content-Type", OCTET_STREAM);
+            exchange.sendResponseHeaders(200, file.size == 0 ? -1 : file.size);
+            try (OutputStream body = exchange.getResponseBody()) {
+                send(file, 0, file.size, body);
+            }
+            return;
+        }
+        String[] bounds = range.substring("bytes=".length()).split("-");
+        long first = Long.parseLong(bounds[0]);
+        long last = Math.min(Long.parseLong(bounds[1]), file.size - 1);
+        if (first > last) {
+            exchange.getResponseHeaders().set("Content-Range", "bytes */" + file.size);
+            exchange.sendResponseHeaders(416, -1);
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", OCTET_STREAM);
+        exchange.getResponseHeaders().set("Content-Range", "bytes " + first + "-" + last + "/" + file.size);
+        exchange.sendResponseHeaders(206, last - first + 1);
+        try (OutputStream body = exchange.getResponseBody()) {
+            send(file, first, last - first + 1, body);
+        }
+    }
+
+    private ServedFile file(Map<String, String> query) {
+        ServedFile file = files.get(query.get("file"));
+        if (file == null) {
+            throw new IllegalArgumentException("No file " + query.get("file"));
+        }
+        return file;
+    }
+
+    private void reply(HttpExchange exchange, int status, String contentType, byte[] body)
+            throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Copies the file content by slices, each slice waits for its turn under the bandwidth cap.
+     */
+    private void send(ServedFile file, long position, long length, OutputStream out)
+            throws IOException, InterruptedException {
+        byte[] slice = slices.get();
+        ByteBuffer buffer = ByteBuffer.wrap(slice);
+        try (FileChannel channel = FileChannel.open(file.path, StandardOpenOption.READ)) {
+            long sent = 0;
+            while (sent < length) {
+                buffer.clear();
+                buffer.limit((int) Math.min(SLICE, length - sent));
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, position + sent + buffer.position()) < 0) {
+                        throw new IOException("Unexpected end of " + file.path);
+                    }
+                }
+                pace(buffer.limit());
+                out.write(slice, 0, buffer.limit());
+                sent += buffer.limit();
+            }
+        }
+    }
+
+    private void pace(int bytes) throws InterruptedException {
+        if (bandwidthBytesPerSecond <= 0) {
+            return;
+        }
+        long sliceNanos = bytes * TimeUnit.SECONDS.toNanos(1) / bandwidthBytesPerSecond;
+        long startNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            startNanos = Math.max(now, nextSliceNanos);
+            nextSliceNanos = startNanos + sliceNanos;
+        }
+        long waitNanos = startNanos - System.nanoTime();
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    private static Map<String, String> query(HttpExchange exchange) throws IOException {
+        Map<String, String> query = new HashMap<>();
+        String rawQuery = exchange.getRequestURI().getRawQuery();
+        if (rawQuery == null) {
+            return query;
+        }
+        for (String parameter : rawQuery.split("&")) {
+            int eq = parameter.indexOf('=');
+            if (eq > 0) {
+                query.put(URLDecoder.decode(parameter.substring(0, eq), "UTF-8"),
+                        URLDecoder.decode(parameter.substring(eq + 1), "UTF-8"));
+            }
+        }
+        return query;
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+        void handle(HttpExchange exchange, Map<String, String> query) throws IOException, InterruptedException;
+    }
+
+    private class ServedFile {
+
+        private final Path path;
+
+        private final long size;
+
+        private final List<String> chunkCheckSums = new ArrayList<>();
+
+        private String checkSum;
+
+        ServedFile(Path path, long size) {
+            this.path = path;
+            this.size = size;
+        }
+
+        /**
+         * Writes the random content and takes the file and chunk checksums on the way.
+         */
+        void generate(long seed) throws IOException {
+            MessageDigest fileDigest = md5();
+            MessageDigest chunkDigest = md5();
+            Random random = new Random(seed);
+            byte[] slice = new byte[SLICE];
+            try (OutputStream out = Files.newOutputStream(path)) {
+                long written = 0;
+                int inChunk = 0;
+                while (written < size) {
+                    int length = (int) Math.min(Math.min(SLICE, size - written), chunkSize - inChunk);
+                    random.nextBytes(slice);
+                    out.write(slice, 0, length);
+                    fileDigest.update(slice, 0, length);
+                    chunkDigest.update(slice, 0, length);
+                    written += length;
+                    inChunk += length;
+                    if (inChunk == chunkSize || written == size) {
+                        chunkCheckSums.add(MD5.asHex(chunkDigest.digest()));
+                        inChunk = 0;
+                    }
+                }
+            }
+            if (size == 0) {
+                chunkCheckSums.add(MD5.asHex(chunkDigest.digest()));
+            }
+            checkSum = MD5.asHex(fileDigest.digest());
+        }
+
+        private MessageDigest md5() {
+            try {
+                return MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Keeps the reply body open when the Base64 encoder is closed.
+     */
+    private static class UnclosedOutputStream extends OutputStream {
+
+        private final OutputStream out;
+
+        UnclosedOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    public static class Builder {
+
+        private Path directory;
+
+        private int chunkSize = 1024 * 1024;
+
+        private long latencyMs;
+
+        private long bandwidthKBps;
+
+        private double errorRate;
+
+        private int failFirst;
+
+        private int pageSize;
+
+        private final Map<String, Long> files = new LinkedHashMap<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Directory of the generated files
+         */
+        public Builder directory(Path directory) {
+            this.directory = directory;
+            return this;
+        }
+
+        public Builder chunkSize(int chunkSize) {
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * Added before every reply
+         */
+        public Builder latencyMs(long latencyMs) {
+            this.latencyMs = latencyMs;
+            return this;
+        }
+
+        /**
+         * Cap of all the replies together, 0 is no cap
+         */
+        public Builder bandwidthKBps(long bandwidthKBps) {
+            this.bandwidthKBps = bandwidthKBps;
+            return this;
+        }
+
+        /**
+         * Share of the requests failed by 503, from 0 to 1
+         */
+        public Builder errorRate(double errorRate) {
+            this.errorRate = errorRate;
+            return this;
+        }
+
+        /**
+         * Number of the first requests failed by 503, along with the error rate
+         */
+        public Builder failFirst(int failFirst) {
+            this.failFirst = failFirst;
+            return this;
+        }
+
+        /**
+         * Files of the listing page unless the request tells the limit, 0 is the listing of a single page
+         */
+        public Builder pageSize(int pageSize) {
+            this.pageSize = pageSize;
+            return this;
+        }
+
+        public Builder file(String name, long size) {
+            files.put(name, size);
+            return this;
+        }
+
+        public StandInServer build() {
+            if (directory == null) {
+                throw new IllegalStateException("Directory of the files is not set");
+            }
+            if (chunkSize <= 0) {
+                throw new IllegalStateException("Chunk size should be greater than zero");
+            }
+            return new StandInServer(this);
+        }
+    }
+}
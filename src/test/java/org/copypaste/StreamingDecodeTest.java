@@ -0,0 +1,81 @@
+package org.copypaste;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.copypaste.data.ChunkResponse;
+import org.copypaste.util.GuardedInputStream;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+
+public class StreamingDecodeTest {
+
+    final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void chunkDataDecodedTest() throws IOException {
+        byte[] data = new byte[200 * 1024];
+        new Random(42).nextBytes(data);
+        String json = chunkJson(data);
+
+        ChunkResponse response;
+        try (InputStream content = new GuardedInputStream(inputStreamFromString(json), json.length())) {
+            response = objectMapper.readValue(content, ChunkResponse.class);
+        }
+
+        Assert.assertTrue(response.isSuccess());
+        Assert.assertTrue(response.getPayload().isHasNextChunk());
+        Assert.assertEquals("abc", response.getPayload().getChunkHexMD5());
+        Assert.assertArrayEquals(data, response.getPayload().getChunkData());
+    }
+
+    @Test
+    public void chunkDataDecodedTwiceOnSameThreadTest() throws IOException {
+        byte[] big = new byte[100 * 1024];
+        byte[] small = new byte[] {1, 2, 3};
+        new Random(7).nextBytes(big);
+
+        ChunkResponse bigResponse = objectMapper.readValue(chunkJson(big), ChunkResponse.class);
+        ChunkResponse smallResponse = objectMapper.readValue(chunkJson(small), ChunkResponse.class);
+
+        Assert.assertArrayEquals(big, bigResponse.getPayload().getChunkData());
+        Assert.assertArrayEquals(small, smallResponse.getPayload().getChunkData());
+    }
+
+    @Test
+    public void chunkDataLargerThanLastOnSameThreadTest() throws IOException {
+        byte[] small = new byte[] {1, 2, 3};
+        byte[] big = new byte[300 * 1024];
+        new Random(11).nextBytes(big);
+
+        ChunkResponse smallResponse = objectMapper.readValue(chunkJson(small), ChunkResponse.class);
+        ChunkResponse bigResponse = objectMapper.readValue(chunkJson(big), ChunkResponse.class);
+        ChunkResponse sameResponse = objectMapper.readValue(chunkJson(big), ChunkResponse.class);
+
+        Assert.assertArrayEquals(small, smallResponse.getPayload().getChunkData());
+        Assert.assertArrayEquals(big, bigResponse.getPayload().getChunkData());
+        Assert.assertArrayEquals(big, sameResponse.getPayload().getChunkData());
+    }
+
+    @Test (expected = IOException.class)
+    public void guardedStreamTooLongTest() throws IOException {
+        String json = chunkJson(new byte[1024]);
+        try (InputStream content = new GuardedInputStream(inputStreamFromString(json), json.length() - 1)) {
+            objectMapper.readValue(content, ChunkResponse.class);
+        }
+    }
+
+    private String chunkJson(byte[] data) {
+        return "{\"success\":true,\"payload\":{\"hasNextChunk\":true,\"chunkData\":\""
+                + Base64.getEncoder().encodeToString(data) + "\",\"chunkHexMD5\":\"abc\"}}";
+    }
+
+    private InputStream inputStreamFromString(String str) {
+        return new ByteArrayInputStream(str.getBytes(StandardCharsets.UTF_8));
+    }
+}